@@ -0,0 +1,550 @@
+package moe.dare.briareus.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * <p>Zip archive of directory produced while being read.</p>
+ * <p>Entries are sorted by name, so archive of unchanged directory is the same byte to byte.
+ * Files are deflated in fixed size blocks on the given executor. Every block but the last one is finished
+ * with sync flush and primed with the tail of the previous block, so concatenated blocks form single deflate stream.
+ * Sizes and checksum of deflated file are written to data descriptor after its data.
+ * Already compressed files are stored as is, their checksum is computed with additional read.</p>
+ * <p>Size of deflated file is not known before its data is written, so zip64 format of entry is chosen
+ * by file size when entry starts and local header, data descriptor and central directory agree on it.
+ * Compression blocks not consumed yet are cancelled on close.</p>
+ */
+final class DirectoryZipInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    /**
+     * Deflate expands incompressible data by few bytes per stored block and sync flush.
+     */
+    private static final int DEFLATE_EXPANSION_RATIO = 1024;
+    private static final int DEFLATE_EXPANSION_BYTES = 1024;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int UNIX_HOST = 3 << 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "jar", "war", "ear", "gz", "tgz", "bz2", "xz", "lz4", "zst", "7z", "rar",
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "avi", "mkv"));
+
+    @FunctionalInterface
+    private interface Chunk {
+        byte[] get() throws IOException;
+    }
+
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+    private final Deque<FutureTask<byte[]>> compressions = new ArrayDeque<>();
+    private final List<EntryRecord> records = new ArrayList<>();
+    private final Path directory;
+    private final Iterator<Path> files;
+    private final Executor executor;
+    private final int window;
+    private final long zip64Threshold;
+    private long emitted;
+    private byte[] current = new byte[0];
+    private int currentPosition;
+    private boolean finished;
+    private boolean closed;
+
+    private EntryRecord entry;
+    private FileChannel channel;
+    private CRC32 crc;
+    private byte[] previousBlock;
+    private long remaining;
+
+    DirectoryZipInputStream(Path directory, Executor executor, int parallelism) throws IOException {
+        this(directory, executor, parallelism, ZIP64_MAGIC);
+    }
+
+    /**
+     * @param zip64Threshold size or offset from which zip64 fields are used, lowered by tests only
+     */
+    DirectoryZipInputStream(Path directory, Executor executor, int parallelism, long zip64Threshold) throws IOException {
+        this.directory = requireNonNull(directory, "directory");
+        this.executor = requireNonNull(executor, "executor");
+        this.window = Math.max(4, 2 * parallelism);
+        this.zip64Threshold = zip64Threshold;
+        try (Stream<Path> walk = Files.walk(directory, FileVisitOption.FOLLOW_LINKS)) {
+            List<Path> paths = walk.filter(path -> !path.equals(directory)).collect(toList());
+            paths.sort((a, b) -> entryName(a).compareTo(entryName(b)));
+            this.files = paths.iterator();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (currentPosition == current.length) {
+            if (!advance()) {
+                return -1;
+            }
+        }
+        return current[currentPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (currentPosition == current.length) {
+            if (!advance()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, n);
+        currentPosition += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunks.clear();
+        for (FutureTask<byte[]> compression : compressions) {
+            compression.cancel(false);
+        }
+        compressions.clear();
+        closeChannel();
+    }
+
+    private boolean advance() throws IOException {
+        fill();
+        Chunk chunk = chunks.poll();
+        if (chunk == null) {
+            return false;
+        }
+        current = chunk.get();
+        currentPosition = 0;
+        emitted += current.length;
+        return true;
+    }
+
+    /**
+     * Reads ahead until window of pending compression blocks is full.
+     */
+    private void fill() throws IOException {
+        while (chunks.size() < window && !finished) {
+            if (channel != null) {
+                if (entry.method == METHOD_DEFLATED) {
+                    readDeflatedBlock();
+                } else {
+                    readStoredBlock();
+                }
+            } else if (files.hasNext()) {
+                startEntry(files.next());
+            } else {
+                EntryRecord[] completed = records.toArray(new EntryRecord[0]);
+                chunks.add(() -> centralDirectory(completed, emitted));
+                finished = true;
+            }
+        }
+    }
+
+    private void startEntry(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        boolean isDirectory = attributes.isDirectory();
+        EntryRecord record = new EntryRecord(entryName(path) + (isDirectory ? "/" : ""),
+                dosTime(attributes.lastModifiedTime().toMillis()), externalAttributes(path, isDirectory));
+        records.add(record);
+        if (isDirectory || attributes.size() == 0) {
+            record.method = METHOD_STORED;
+            chunks.add(() -> localHeader(record, emitted));
+            return;
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        entry = record;
+        if (isCompressed(path)) {
+            record.method = METHOD_STORED;
+            record.size = channel.size();
+            record.compressedSize = record.size;
+            record.crc = crc(channel, record.size);
+            record.zip64 = record.size >= zip64Threshold;
+            remaining = record.size;
+        } else {
+            record.method = METHOD_DEFLATED;
+            long size = channel.size();
+            record.zip64 = size + size / DEFLATE_EXPANSION_RATIO + DEFLATE_EXPANSION_BYTES >= zip64Threshold;
+            crc = new CRC32();
+            previousBlock = null;
+        }
+        chunks.add(() -> localHeader(record, emitted));
+    }
+
+    private void readStoredBlock() throws IOException {
+        byte[] block = new byte[(int) Math.min(BLOCK_SIZE, remaining)];
+        long position = entry.size - remaining;
+        int length = readFully(channel, block, block.length, position);
+        if (length != block.length) {
+            throw new IOException("File " + entryName(entry) + " changed during archiving");
+        }
+        remaining -= length;
+        chunks.add(() -> block);
+        if (remaining == 0) {
+            closeChannel();
+        }
+    }
+
+    private void readDeflatedBlock() throws IOException {
+        EntryRecord record = entry;
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = readFully(channel, block, block.length, record.size);
+        crc.update(block, 0, length);
+        record.size += length;
+        boolean last = length < BLOCK_SIZE;
+        byte[] dictionary = previousBlock;
+        FutureTask<byte[]> compressed = new FutureTask<>(() -> deflate(block, length, dictionary, last));
+        compressions.add(compressed);
+        executor.execute(compressed);
+        previousBlock = block;
+        chunks.add(() -> {
+            byte[] bytes = get(compressed);
+            compressions.remove(compressed);
+            record.compressedSize += bytes.length;
+            if (!record.zip64 && (record.size >= zip64Threshold || record.compressedSize >= zip64Threshold)) {
+                throw new IOException("File " + entryName(record) + " changed during archiving");
+            }
+            return bytes;
+        });
+        if (last) {
+            record.crc = crc.getValue();
+            closeChannel();
+            chunks.add(() -> dataDescriptor(record));
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel toClose = channel;
+        channel = null;
+        entry = null;
+        crc = null;
+        previousBlock = null;
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    private String entryName(Path path) {
+        Path relative = directory.relativize(path);
+        StringBuilder name = new StringBuilder();
+        for (Path part : relative) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part.toString());
+        }
+        return name.toString();
+    }
+
+    private static boolean isCompressed(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static int externalAttributes(Path path, boolean isDirectory) {
+        int mode;
+        try {
+            mode = 0;
+            for (PosixFilePermission permission : Files.getPosixFilePermissions(path)) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            mode = isDirectory ? 0755 : 0644;
+        }
+        mode |= isDirectory ? 040000 : 0100000;
+        return (mode << 16) | (isDirectory ? 0x10 : 0);
+    }
+
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980L) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+                time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private static long crc(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BLOCK_SIZE];
+        long position = 0;
+        while (position < size) {
+            int n = readFully(channel, buffer, (int) Math.min(buffer.length, size - position), position);
+            if (n == 0) {
+                break;
+            }
+            crc.update(buffer, 0, n);
+            position += n;
+        }
+        return crc.getValue();
+    }
+
+    private static int readFully(FileChannel channel, byte[] buffer, int length, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            int n = channel.read(byteBuffer, position + byteBuffer.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        return byteBuffer.position();
+    }
+
+    private static byte[] deflate(byte[] block, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            deflater.setInput(block, 0, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String entryName(EntryRecord record) {
+        return new String(record.name, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] get(FutureTask<byte[]> compression) throws IOException {
+        try {
+            return compression.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression");
+        }
+    }
+
+    /**
+     * Sizes of deflated zip64 entry are unknown yet, so its extra field holds zeros as sizes are in data descriptor.
+     */
+    private static byte[] localHeader(EntryRecord record, long offset) {
+        record.offset = offset;
+        boolean deflated = record.method == METHOD_DEFLATED;
+        boolean zip64 = record.zip64;
+        ZipBuffer header = new ZipBuffer();
+        header.writeInt(LOCAL_HEADER_SIGNATURE);
+        header.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        header.writeShort(FLAG_UTF8 | (deflated ? FLAG_DATA_DESCRIPTOR : 0));
+        header.writeShort(record.method);
+        header.writeInt(record.dosTime);
+        header.writeInt(deflated ? 0 : record.crc);
+        header.writeInt(zip64 ? ZIP64_MAGIC : deflated ? 0 : record.compressedSize);
+        header.writeInt(zip64 ? ZIP64_MAGIC : deflated ? 0 : record.size);
+        header.writeShort(record.name.length);
+        header.writeShort(zip64 ? 20 : 0);
+        header.write(record.name);
+        if (zip64) {
+            header.writeShort(ZIP64_EXTRA_ID);
+            header.writeShort(16);
+            header.writeLong(deflated ? 0 : record.size);
+            header.writeLong(deflated ? 0 : record.compressedSize);
+        }
+        return header.toByteArray();
+    }
+
+    private static byte[] dataDescriptor(EntryRecord record) {
+        ZipBuffer descriptor = new ZipBuffer();
+        descriptor.writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        descriptor.writeInt(record.crc);
+        if (record.zip64) {
+            descriptor.writeLong(record.compressedSize);
+            descriptor.writeLong(record.size);
+        } else {
+            descriptor.writeInt(record.compressedSize);
+            descriptor.writeInt(record.size);
+        }
+        return descriptor.toByteArray();
+    }
+
+    private byte[] centralDirectory(EntryRecord[] records, long offset) {
+        ZipBuffer directory = new ZipBuffer();
+        for (EntryRecord record : records) {
+            ZipBuffer extra = new ZipBuffer();
+            if (record.size >= zip64Threshold) {
+                extra.writeLong(record.size);
+            }
+            if (record.compressedSize >= zip64Threshold) {
+                extra.writeLong(record.compressedSize);
+            }
+            if (record.offset >= zip64Threshold) {
+                extra.writeLong(record.offset);
+            }
+            int extraSize = extra.size();
+            int version = extraSize > 0 ? VERSION_ZIP64 : VERSION;
+            directory.writeInt(CENTRAL_HEADER_SIGNATURE);
+            directory.writeShort(UNIX_HOST | version);
+            directory.writeShort(version);
+            directory.writeShort(FLAG_UTF8 | (record.method == METHOD_DEFLATED ? FLAG_DATA_DESCRIPTOR : 0));
+            directory.writeShort(record.method);
+            directory.writeInt(record.dosTime);
+            directory.writeInt(record.crc);
+            directory.writeInt(narrow(record.compressedSize));
+            directory.writeInt(narrow(record.size));
+            directory.writeShort(record.name.length);
+            directory.writeShort(extraSize > 0 ? extraSize + 4 : 0);
+            directory.writeShort(0);
+            directory.writeShort(0);
+            directory.writeShort(0);
+            directory.writeInt(record.externalAttributes);
+            directory.writeInt(narrow(record.offset));
+            directory.write(record.name);
+            if (extraSize > 0) {
+                directory.writeShort(ZIP64_EXTRA_ID);
+                directory.writeShort(extraSize);
+                directory.write(extra.toByteArray());
+            }
+        }
+        long size = directory.size();
+        long zip64EndOffset = offset + size;
+        if (records.length >= ZIP64_MAGIC_COUNT || size >= zip64Threshold || offset >= zip64Threshold) {
+            directory.writeInt(ZIP64_END_SIGNATURE);
+            directory.writeLong(44);
+            directory.writeShort(UNIX_HOST | VERSION_ZIP64);
+            directory.writeShort(VERSION_ZIP64);
+            directory.writeInt(0);
+            directory.writeInt(0);
+            directory.writeLong(records.length);
+            directory.writeLong(records.length);
+            directory.writeLong(size);
+            directory.writeLong(offset);
+            directory.writeInt(ZIP64_LOCATOR_SIGNATURE);
+            directory.writeInt(0);
+            directory.writeLong(zip64EndOffset);
+            directory.writeInt(1);
+        }
+        directory.writeInt(END_SIGNATURE);
+        directory.writeShort(0);
+        directory.writeShort(0);
+        directory.writeShort(Math.min(records.length, ZIP64_MAGIC_COUNT));
+        directory.writeShort(Math.min(records.length, ZIP64_MAGIC_COUNT));
+        directory.writeInt(narrow(size));
+        directory.writeInt(narrow(offset));
+        directory.writeShort(0);
+        return directory.toByteArray();
+    }
+
+    /**
+     * @return value of 32 bit field, {@value #ZIP64_MAGIC} if value is written to zip64 field
+     */
+    private long narrow(long value) {
+        return value >= zip64Threshold ? ZIP64_MAGIC : value;
+    }
+
+    private static final class EntryRecord {
+        private final byte[] name;
+        private final long dosTime;
+        private final int externalAttributes;
+        private int method;
+        private boolean zip64;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+
+        private EntryRecord(String name, long dosTime, int externalAttributes) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.dosTime = dosTime;
+            this.externalAttributes = externalAttributes;
+        }
+    }
+
+    private static final class ZipBuffer extends ByteArrayOutputStream {
+        void writeShort(int value) {
+            write(value & 0xFF);
+            write((value >>> 8) & 0xFF);
+        }
+
+        void writeInt(long value) {
+            writeShort((int) (value & 0xFFFF));
+            writeShort((int) ((value >>> 16) & 0xFFFF));
+        }
+
+        void writeLong(long value) {
+            writeInt(value & 0xFFFFFFFFL);
+            writeInt(value >>> 32);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
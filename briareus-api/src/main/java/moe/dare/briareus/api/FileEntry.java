@@ -1,5 +1,6 @@
 package moe.dare.briareus.api;
 
+import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
@@ -29,6 +30,7 @@ public final class FileEntry {
     private final String name;
     private final FileSource fileSource;
     private final Mode mode;
+    private final String pattern;
 
     /**
      * @param fileSource file source for this entry.
@@ -49,6 +51,39 @@ public final class FileEntry {
         return new FileEntry(fileSource, name, Mode.UNZIP);
     }
 
+    /**
+     * @param fileSource file source for this entry pointing to valid tar archive
+     * @param name       portable directory name
+     * @return new untar file entry
+     */
+    public static FileEntry untar(FileSource fileSource, String name) {
+        return new FileEntry(fileSource, name, Mode.UNTAR);
+    }
+
+    /**
+     * @param fileSource file source for this entry pointing to valid gzip compressed tar archive
+     * @param name       portable directory name
+     * @return new untar file entry
+     */
+    public static FileEntry untarGzip(FileSource fileSource, String name) {
+        return new FileEntry(fileSource, name, Mode.UNTAR_GZIP);
+    }
+
+    /**
+     * Only entries with names matching given pattern are extracted, e.g. native libraries or other unused
+     * content of fat jars are skipped. Archive itself may be kept in the directory too.
+     *
+     * @param fileSource file source for this entry pointing to valid jar archive
+     * @param name       portable directory name
+     * @param pattern    regular expression matching whole names of extracted entries
+     * @return new unjar file entry
+     * @throws java.util.regex.PatternSyntaxException if pattern is not valid regular expression
+     */
+    public static FileEntry unjar(FileSource fileSource, String name, String pattern) {
+        Pattern.compile(requireNonNull(pattern, "pattern"));
+        return new FileEntry(fileSource, name, Mode.UNJAR, pattern);
+    }
+
     /**
      * @return file source for this entry
      */
@@ -64,16 +99,28 @@ public final class FileEntry {
     }
 
     /**
-     * @return distribution mode. Copy or unzip.
+     * @return distribution mode. Copy, unzip, untar or unjar.
      */
     public Mode mode() {
         return mode;
     }
 
+    /**
+     * @return pattern of extracted entries of {@link Mode#UNJAR unjar} entry, empty for other modes
+     */
+    public Optional<String> pattern() {
+        return Optional.ofNullable(pattern);
+    }
+
     private FileEntry(FileSource fileSource, String name, Mode mode) {
+        this(fileSource, name, mode, null);
+    }
+
+    private FileEntry(FileSource fileSource, String name, Mode mode, String pattern) {
         this.fileSource = requireNonNull(fileSource, "file source");
         this.name = requireNonNull(name, "file entry name");
         this.mode = requireNonNull(mode, "file entry mode");
+        this.pattern = pattern;
         if (!VALID_PATH_PREDICATE.test(name)) {
             throw new IllegalArgumentException("Bad file entry name: " + name);
         }
@@ -81,6 +128,9 @@ public final class FileEntry {
 
     public enum Mode {
         COPY,
-        UNZIP
+        UNZIP,
+        UNTAR,
+        UNTAR_GZIP,
+        UNJAR
     }
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
  * Source for files distributed to JVM.
@@ -27,6 +28,16 @@ public interface FileSource {
         return Optional.empty();
     }
 
+    /**
+     * Return size of resource if it can be determined without reading it.
+     * Used as a hint, e.g. for ordering uploads.
+     *
+     * @return size of resource in bytes or empty optional.
+     */
+    default OptionalLong size() {
+        return OptionalLong.empty();
+    }
+
     /**
      * The requirement for equals. Two file sources may be equal if
      * and only if their input stream always produces same bytes without external modification of underlying resource.
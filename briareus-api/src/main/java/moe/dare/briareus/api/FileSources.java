@@ -2,9 +2,16 @@ package moe.dare.briareus.api;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Objects.requireNonNull;
 
@@ -43,6 +50,25 @@ public class FileSources {
         return new FilePathSource(path);
     }
 
+    /**
+     * Creates file source producing zip archive of given directory while being read.
+     * Intended for {@link FileEntry#unzip(FileSource, String) unzip} entries without creating temporary archives.
+     * Entries are sorted by name so archive of unchanged directory is the same byte to byte.
+     * Files are deflated in blocks in parallel by shared pool of daemon threads, one thread per processor.
+     * Blocks not read yet are cancelled when stream is closed.
+     * Already compressed files (e.g. jar, gz or png) are stored without compression.
+     *
+     * @param directory directory to archive
+     * @return new file source
+     * @throws IllegalArgumentException if given path is not a directory or its existence cannot be determined.
+     */
+    public static FileSource directoryAsZip(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Path " + directory + " is not a directory");
+        }
+        return new DirectoryZipSource(directory);
+    }
+
     private static final class FilePathSource implements CacheableFileSource {
         private final Path path;
 
@@ -60,6 +86,14 @@ public class FileSources {
             return Optional.of(path);
         }
 
+        @Override
+        public OptionalLong size() {
+            try {
+                return OptionalLong.of(Files.size(path));
+            } catch (IOException e) {
+                return OptionalLong.empty();
+            }
+        }
 
         @Override
         public int hashCode() {
@@ -75,9 +109,63 @@ public class FileSources {
         }
     }
 
+    private static final class DirectoryZipSource implements CacheableFileSource {
+        private final Path directory;
+
+        private DirectoryZipSource(Path directory) {
+            this.directory = requireNonNull(directory, "directory");
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new DirectoryZipInputStream(directory, DeflatePool.EXECUTOR, DeflatePool.PARALLELISM);
+        }
+
+        @Override
+        public int hashCode() {
+            return directory.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DirectoryZipSource that = (DirectoryZipSource) o;
+            return directory.equals(that.directory);
+        }
+
+        @Override
+        public String toString() {
+            return "DirectoryZipSource{directory=" + directory + '}';
+        }
+    }
+
+    /**
+     * Lazily created pool of compression threads, idle threads are stopped.
+     */
+    private static final class DeflatePool {
+        private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+        private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+        private static ThreadPoolExecutor createExecutor() {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory threadFactory = task -> {
+                Thread thread = new Thread(task, "briareus-zip-deflate-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
     private static final class ClasspathSource implements CacheableFileSource {
+        private static final long SIZE_NOT_RESOLVED = -2;
         private final ClassLoader classLoader;
         private final String resourceName;
+        private volatile long size = SIZE_NOT_RESOLVED;
 
         private ClasspathSource(ClassLoader classLoader, String resourceName) {
             this.classLoader = requireNonNull(classLoader, "Classloader");
@@ -93,6 +181,31 @@ public class FileSources {
             return stream;
         }
 
+        /**
+         * Size is resolved once from resource connection without reading resource content.
+         */
+        @Override
+        public OptionalLong size() {
+            long resolved = size;
+            if (resolved == SIZE_NOT_RESOLVED) {
+                resolved = contentLength();
+                size = resolved;
+            }
+            return resolved >= 0 ? OptionalLong.of(resolved) : OptionalLong.empty();
+        }
+
+        private long contentLength() {
+            URL url = classLoader.getResource(resourceName);
+            if (url == null) {
+                return -1;
+            }
+            try {
+                return url.openConnection().getContentLengthLong();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
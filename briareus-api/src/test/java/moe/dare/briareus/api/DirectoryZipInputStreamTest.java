@@ -0,0 +1,221 @@
+package moe.dare.briareus.api;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DirectoryZipInputStreamTest {
+    /**
+     * Size of compression block of archive stream.
+     */
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final Executor DIRECT = Runnable::run;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    @DisplayName("Archive of directory is read by ZipFile and ZipInputStream")
+    void testRoundTrip() throws IOException {
+        // given
+        Path dir = Files.createDirectory(temp.resolve("dir"));
+        Files.createDirectory(dir.resolve("empty-dir"));
+        Files.createDirectory(dir.resolve("sub"));
+        write(dir.resolve("a.txt"), text(1000));
+        write(dir.resolve("empty.txt"), new byte[0]);
+        write(dir.resolve("lib.jar"), random(1000, 1));
+        write(dir.resolve("sub").resolve("b.bin"), random(1000, 2));
+        // when
+        Path archive = archive(FileSources.directoryAsZip(dir).open());
+        // then
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("a.txt", text(1000));
+        expected.put("empty-dir/", new byte[0]);
+        expected.put("empty.txt", new byte[0]);
+        expected.put("lib.jar", random(1000, 1));
+        expected.put("sub/", new byte[0]);
+        expected.put("sub/b.bin", random(1000, 2));
+        assertZipFile(archive, expected);
+        assertZipInputStream(archive, expected);
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(zip.getEntry("a.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(zip.getEntry("lib.jar").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.getEntry("empty.txt").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.getEntry("empty-dir/").isDirectory()).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Files around compression block boundaries are restored")
+    void testBlockBoundaries() throws IOException {
+        // given
+        Path dir = Files.createDirectory(temp.resolve("dir"));
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        int[] sizes = {BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE + 7};
+        for (int i = 0; i < sizes.length; i++) {
+            expected.put("random-" + i + ".bin", random(sizes[i], i));
+            expected.put("text-" + i + ".txt", text(sizes[i]));
+        }
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            write(dir.resolve(entry.getKey()), entry.getValue());
+        }
+        // when
+        Path archive = archive(new DirectoryZipInputStream(dir, DIRECT, 2));
+        // then
+        assertZipFile(archive, sorted(expected));
+        assertZipInputStream(archive, sorted(expected));
+    }
+
+    @Test
+    @DisplayName("Archives of unchanged directory are equal byte to byte")
+    void testDeterministic() throws IOException {
+        // given
+        Path dir = Files.createDirectory(temp.resolve("dir"));
+        write(dir.resolve("a.txt"), text(2 * BLOCK_SIZE + 3));
+        write(dir.resolve("b.jar"), random(1000, 3));
+        // when
+        byte[] first = readAll(FileSources.directoryAsZip(dir).open());
+        byte[] second = readAll(FileSources.directoryAsZip(dir).open());
+        // then
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    @DisplayName("Sizes and offsets from zip64 threshold are written to zip64 fields")
+    void testZip64Threshold() throws IOException {
+        // given
+        Path dir = Files.createDirectory(temp.resolve("dir"));
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("big.jar", random(5000, 4));
+        expected.put("big.txt", text(BLOCK_SIZE + 5000));
+        expected.put("small.txt", text(10));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            write(dir.resolve(entry.getKey()), entry.getValue());
+        }
+        // when
+        Path archive = archive(new DirectoryZipInputStream(dir, DIRECT, 1, 1000));
+        // then
+        assertZipFile(archive, expected);
+        byte[] bytes = Files.readAllBytes(archive);
+        assertThat(unsignedShort(bytes, 4)).as("version of stored entry").isEqualTo(45);
+        assertThat(unsignedShort(bytes, 28)).as("extra of stored entry").isEqualTo(20);
+        int deflatedHeader = 30 + "big.jar".length() + 20 + 5000;
+        assertThat(unsignedShort(bytes, deflatedHeader + 4)).as("version of deflated entry").isEqualTo(45);
+        assertThat(unsignedShort(bytes, deflatedHeader + 28)).as("extra of deflated entry").isEqualTo(20);
+    }
+
+    @Test
+    @DisplayName("Compressions not read are cancelled on close")
+    void testCloseCancelsCompressions() throws IOException {
+        // given
+        Path dir = Files.createDirectory(temp.resolve("dir"));
+        write(dir.resolve("a.txt"), text(4 * BLOCK_SIZE));
+        List<Runnable> tasks = new ArrayList<>();
+        InputStream stream = new DirectoryZipInputStream(dir, tasks::add, 2);
+        // when
+        stream.read();
+        stream.close();
+        // then
+        assertThat(tasks).isNotEmpty();
+        for (Runnable task : tasks) {
+            assertThat(((Future<?>) task).isCancelled()).isTrue();
+        }
+        assertThatThrownBy(stream::read).isInstanceOf(IOException.class);
+    }
+
+    private Path archive(InputStream stream) throws IOException {
+        Path archive = temp.resolve("archive.zip");
+        try (InputStream in = stream) {
+            Files.write(archive, readAll(in));
+        }
+        return archive;
+    }
+
+    private static void assertZipFile(Path archive, Map<String, byte[]> expected) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertThat(readAll(in)).as("content of %s", entry.getName()).isEqualTo(expected.get(entry.getName()));
+                }
+                assertThat(entry.getSize()).as("size of %s", entry.getName()).isEqualTo(expected.get(entry.getName()).length);
+            }
+            assertThat(names).containsExactly(expected.keySet().toArray(new String[0]));
+        }
+    }
+
+    private static void assertZipInputStream(Path archive, Map<String, byte[]> expected) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertThat(readAll(zip)).as("content of %s", entry.getName()).isEqualTo(expected.get(entry.getName()));
+            }
+        }
+        assertThat(names).containsExactly(expected.keySet().toArray(new String[0]));
+    }
+
+    private static Map<String, byte[]> sorted(Map<String, byte[]> entries) {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        Map<String, byte[]> sorted = new LinkedHashMap<>();
+        names.forEach(name -> sorted.put(name, entries.get(name)));
+        return sorted;
+    }
+
+    private static int unsignedShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static void write(Path file, byte[] content) throws IOException {
+        Files.write(file, content);
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] text(int size) {
+        byte[] line = "Lorem ipsum dolor sit amet, consectetur adipiscing elit\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = line[i % line.length];
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
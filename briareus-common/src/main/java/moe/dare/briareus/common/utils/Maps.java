@@ -27,6 +27,28 @@ public class Maps {
         return map;
     }
 
+    @SuppressWarnings("squid:S1319")
+    public static <K extends Enum<K>, V> EnumMap<K, V> enumMapOf(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4) {
+        EnumMap<K, V> map = new EnumMap<>(k1.getDeclaringClass());
+        map.put(k1, v1);
+        map.put(k2, v2);
+        map.put(k3, v3);
+        map.put(k4, v4);
+        return map;
+    }
+
+    @SuppressWarnings("squid:S1319")
+    public static <K extends Enum<K>, V> EnumMap<K, V> enumMapOf(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4,
+                                                                 K k5, V v5) {
+        EnumMap<K, V> map = new EnumMap<>(k1.getDeclaringClass());
+        map.put(k1, v1);
+        map.put(k2, v2);
+        map.put(k3, v3);
+        map.put(k4, v4);
+        map.put(k5, v5);
+        return map;
+    }
+
     private Maps() {
     }
 }
@@ -5,12 +5,19 @@ import moe.dare.briareus.api.FileEntry;
 import moe.dare.briareus.api.FileSource;
 import moe.dare.briareus.common.concurrent.CancelToken;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -18,6 +25,9 @@ import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Objects.requireNonNull;
 
 class FileCopyTool {
+    private static final boolean POSIX_PERMISSIONS = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    private static final PosixFilePermission[] PERMISSION_BITS = PosixFilePermission.values();
+
     private final Path targetDirectory;
 
     FileCopyTool(Path targetDirectory) {
@@ -38,7 +48,16 @@ class FileCopyTool {
                 copy(fileSource, path, token);
                 break;
             case UNZIP:
-                unzip(fileSource, path, token);
+                unzip(fileSource, path, token, null);
+                break;
+            case UNTAR:
+                untar(fileSource, path, token, false);
+                break;
+            case UNTAR_GZIP:
+                untar(fileSource, path, token, true);
+                break;
+            case UNJAR:
+                unzip(fileSource, path, token, entry.pattern().map(Pattern::compile).orElse(null));
                 break;
             default:
                 throw new BriareusException("Unsupported mode: " + entry.mode());
@@ -61,13 +80,20 @@ class FileCopyTool {
         }
     }
 
-    private static void unzip(FileSource source, Path dir, CancelToken token) throws IOException {
+    /**
+     * @param pattern pattern of extracted entries or null to extract all entries
+     */
+    private static void unzip(FileSource source, Path dir, CancelToken token, Pattern pattern) throws IOException {
         token.throwIfCancellationRequested();
         try (InputStream is = source.open();
              ZipInputStream zipInput = new ZipInputStream(is)) {
+            Files.createDirectories(dir);
             for (ZipEntry entry = zipInput.getNextEntry(); entry != null; entry = zipInput.getNextEntry()) {
                 token.throwIfCancellationRequested();
-                Path entryPath = makePath(dir, entry);
+                if (pattern != null && !pattern.matcher(entry.getName()).matches()) {
+                    continue;
+                }
+                Path entryPath = makePath(dir, entry.getName());
                 if (entry.isDirectory()) {
                     Files.createDirectories(entryPath);
                 } else {
@@ -82,10 +108,100 @@ class FileCopyTool {
         }
     }
 
-    private static Path makePath(Path baseDir, ZipEntry entry) {
-        Path path = baseDir.resolve(entry.getName());
-        if (!baseDir.startsWith(path)) {
-            throw new BriareusException("Zip entry outside target dir: " + entry.getName());
+    /**
+     * Entries are never written through symbolic links: parents of entries must not be links and
+     * targets of links are checked without following links already created from the archive.
+     */
+    private static void untar(FileSource source, Path dir, CancelToken token, boolean gzip) throws IOException {
+        token.throwIfCancellationRequested();
+        try (InputStream is = source.open();
+             InputStream buffered = new BufferedInputStream(gzip ? new GZIPInputStream(is) : is);
+             TarInputStream tarInput = new TarInputStream(buffered)) {
+            Files.createDirectories(dir);
+            for (TarInputStream.Entry entry = tarInput.getNextEntry(); entry != null; entry = tarInput.getNextEntry()) {
+                token.throwIfCancellationRequested();
+                Path entryPath = makePath(dir, entry.name());
+                Path parent = entryPath.getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                if (entry.isDirectory()) {
+                    if (Files.isSymbolicLink(entryPath)) {
+                        throw new BriareusException("Tar directory replaces symbolic link: " + entry.name());
+                    }
+                    Files.createDirectories(entryPath);
+                    setPermissions(entryPath, entry.mode());
+                } else if (entry.isFile()) {
+                    Files.copy(tarInput, entryPath, REPLACE_EXISTING);
+                    setPermissions(entryPath, entry.mode());
+                } else if (entry.isSymbolicLink()) {
+                    checkLinkTarget(dir, parent == null ? dir : parent, entry);
+                    Files.deleteIfExists(entryPath);
+                    Files.createSymbolicLink(entryPath, entryPath.getFileSystem().getPath(entry.linkName()));
+                } else if (entry.isHardLink()) {
+                    Path target = makePath(dir, entry.linkName());
+                    if (Files.isSymbolicLink(target) || !Files.isRegularFile(target)) {
+                        throw new BriareusException("Tar hard link to not a regular file: " + entry.name());
+                    }
+                    Files.deleteIfExists(entryPath);
+                    Files.createLink(entryPath, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Target of symbolic link must be relative and may only start with parent references,
+     * so it never steps back from a name which could be a link. Such target stays inside
+     * target directory whatever links are created later.
+     */
+    private static void checkLinkTarget(Path dir, Path linkParent, TarInputStream.Entry entry) {
+        Path target = linkParent.getFileSystem().getPath(entry.linkName());
+        boolean nameSeen = false;
+        for (Path name : target) {
+            String element = name.toString();
+            if (element.equals("..")) {
+                if (nameSeen) {
+                    throw new BriareusException("Tar symbolic link steps back from name: " + entry.name());
+                }
+            } else if (!element.equals(".") && !element.isEmpty()) {
+                nameSeen = true;
+            }
+        }
+        if (target.isAbsolute() || !linkParent.resolve(target).normalize().startsWith(dir.normalize())) {
+            throw new BriareusException("Tar symbolic link outside target dir: " + entry.name());
+        }
+    }
+
+    private static void setPermissions(Path path, int mode) throws IOException {
+        if (!POSIX_PERMISSIONS || mode == 0) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSION_BITS.length; i++) {
+            if ((mode & (1 << (8 - i))) != 0) {
+                permissions.add(PERMISSION_BITS[i]);
+            }
+        }
+        Files.setPosixFilePermissions(path, permissions);
+    }
+
+    /**
+     * @return normalized path of entry inside base directory
+     * @throws BriareusException if entry is outside base directory or any of its existing parents
+     * below base directory is a symbolic link
+     */
+    static Path makePath(Path baseDir, String name) {
+        Path normalizedBaseDir = baseDir.normalize();
+        Path path = normalizedBaseDir.resolve(name).normalize();
+        if (!path.startsWith(normalizedBaseDir)) {
+            throw new BriareusException("Archive entry outside target dir: " + name);
+        }
+        for (Path parent = path.getParent(); parent != null && parent.startsWith(normalizedBaseDir)
+                && !parent.equals(normalizedBaseDir); parent = parent.getParent()) {
+            if (Files.isSymbolicLink(parent)) {
+                throw new BriareusException("Archive entry inside symbolic link: " + name);
+            }
         }
         return path;
     }
@@ -0,0 +1,340 @@
+package moe.dare.briareus.local;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal reader of tar archives in ustar, GNU and pax formats.
+ * Like {@link java.util.zip.ZipInputStream} reads data of current entry until its end.
+ */
+class TarInputStream extends FilterInputStream {
+    private static final int BLOCK_SIZE = 512;
+    private static final byte TYPE_GNU_LONG_NAME = 'L';
+    private static final byte TYPE_GNU_LONG_LINK = 'K';
+    private static final byte TYPE_PAX_HEADER = 'x';
+    private static final byte TYPE_PAX_GLOBAL_HEADER = 'g';
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long entryRemaining;
+    private long entryPadding;
+    private boolean finished;
+
+    static final class Entry {
+        private final String name;
+        private final String linkName;
+        private final byte type;
+        private final long size;
+        private final int mode;
+
+        private Entry(String name, String linkName, byte type, long size, int mode) {
+            this.name = name;
+            this.linkName = linkName;
+            this.type = type;
+            this.size = size;
+            this.mode = mode;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String linkName() {
+            return linkName;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * @return unix permission bits
+         */
+        int mode() {
+            return mode;
+        }
+
+        boolean isFile() {
+            return type == '0' || type == 0 || type == '7';
+        }
+
+        boolean isDirectory() {
+            return type == '5';
+        }
+
+        boolean isSymbolicLink() {
+            return type == '2';
+        }
+
+        boolean isHardLink() {
+            return type == '1';
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{name='" + name + "', type=" + (char) type + ", size=" + size + '}';
+        }
+    }
+
+    TarInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Skips rest of current entry and reads header of the next one.
+     *
+     * @return next entry or null if end of archive reached
+     * @throws IOException on io errors or malformed archive
+     */
+    Entry getNextEntry() throws IOException {
+        String longName = null;
+        String longLinkName = null;
+        long paxSize = -1;
+        while (!finished) {
+            skipEntry();
+            if (!readHeader()) {
+                finished = true;
+                return null;
+            }
+            byte type = header[156];
+            long size = parseNumber(124, 12);
+            entryRemaining = size;
+            entryPadding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+            if (type == TYPE_GNU_LONG_NAME) {
+                longName = readString(size);
+            } else if (type == TYPE_GNU_LONG_LINK) {
+                longLinkName = readString(size);
+            } else if (type == TYPE_PAX_HEADER) {
+                Map<String, String> records = parsePax(readString(size));
+                longName = records.getOrDefault("path", longName);
+                longLinkName = records.getOrDefault("linkpath", longLinkName);
+                if (records.containsKey("size")) {
+                    paxSize = parsePaxSize(records.get("size"));
+                }
+            } else if (type != TYPE_PAX_GLOBAL_HEADER) {
+                String name = longName != null ? longName : headerName();
+                String linkName = longLinkName != null ? longLinkName : parseString(157, 100);
+                if (paxSize >= 0) {
+                    size = paxSize;
+                    entryRemaining = size;
+                    entryPadding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+                }
+                return new Entry(name, linkName, type, size, (int) parseNumber(100, 8) & 07777);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (entryRemaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        entryRemaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (entryRemaining <= 0) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, entryRemaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        entryRemaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void skipEntry() throws IOException {
+        skip(entryRemaining);
+        skipFully(entryPadding);
+        entryPadding = 0;
+    }
+
+    private boolean readHeader() throws IOException {
+        readFully(header);
+        for (byte b : header) {
+            if (b != 0) {
+                verifyChecksum();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void verifyChecksum() throws IOException {
+        long expected = parseNumber(148, 8);
+        long actual = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            actual += (i >= 148 && i < 156) ? ' ' : header[i] & 0xFF;
+        }
+        if (expected != actual) {
+            throw new IOException("Malformed tar header. Checksum mismatch");
+        }
+    }
+
+    private String headerName() {
+        String name = parseString(0, 100);
+        boolean ustar = parseString(257, 6).startsWith("ustar");
+        String prefix = ustar ? parseString(345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private String readString(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tar extended header too large: " + size);
+        }
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = read(bytes, offset, bytes.length - offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            offset += n;
+        }
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0) {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return pax records by key
+     */
+    private static Map<String, String> parsePax(String records) throws IOException {
+        Map<String, String> result = new HashMap<>();
+        int position = 0;
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        while (position < bytes.length) {
+            int space = position;
+            while (space < bytes.length && bytes[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(bytes, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed pax header", e);
+            }
+            if (length <= 0 || position + length > bytes.length) {
+                throw new IOException("Malformed pax header");
+            }
+            String record = new String(bytes, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                result.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position += length;
+        }
+        return result;
+    }
+
+    private static long parsePaxSize(String value) throws IOException {
+        try {
+            long size = Long.parseLong(value);
+            if (size < 0) {
+                throw new IOException("Malformed pax header. Negative size: " + value);
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed pax header. Bad size: " + value, e);
+        }
+    }
+
+    private String parseString(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses octal number or GNU base-256 encoded number.
+     */
+    private long parseNumber(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Malformed tar header. Bad octal number");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            offset += n;
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of tar archive");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package moe.dare.briareus.local;
+
+import moe.dare.briareus.api.BriareusException;
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.common.concurrent.CancelToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileCopyToolTest {
+    private static final CancelToken NOT_CANCELED = () -> false;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void unzipsEntriesInsideTargetDirectory() throws IOException {
+        // given
+        byte[] archive = zip("a/b.txt", "a/../c.txt");
+        // when
+        copy(FileEntry.unzip(() -> new ByteArrayInputStream(archive), "out"));
+        // then
+        assertThat(target().resolve("a/b.txt")).hasContent("a/b.txt");
+        assertThat(target().resolve("c.txt")).hasContent("a/../c.txt");
+    }
+
+    @Test
+    void unzipRejectsEntriesOutsideTargetDirectory() throws IOException {
+        // given
+        byte[] archive = zip("../../escape.txt");
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.unzip(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+        assertThat(tempDir.resolve("escape.txt")).doesNotExist();
+    }
+
+    @Test
+    void untarsFilesAndLinks() throws IOException {
+        // given
+        byte[] archive = new TestTarBuilder()
+                .file("bin/run.sh", "echo", 0755)
+                .symbolicLink("lib/run", "../bin/run.sh")
+                .hardLink("copy.sh", "bin/run.sh")
+                .build();
+        // when
+        copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out"));
+        // then
+        assertThat(target().resolve("bin/run.sh")).hasContent("echo").isExecutable();
+        assertThat(target().resolve("lib/run")).isSymbolicLink().hasContent("echo");
+        assertThat(target().resolve("copy.sh")).hasContent("echo");
+    }
+
+    @Test
+    void untarRejectsLinkOutsideTargetDirectory() {
+        // given
+        byte[] archive = new TestTarBuilder().symbolicLink("link", "../outside").build();
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+    }
+
+    @Test
+    void untarRejectsLinkSteppingBackThroughLink() throws IOException {
+        // given
+        byte[] archive = new TestTarBuilder()
+                .symbolicLink("l2", ".")
+                .symbolicLink("l1", "l2/..")
+                .file("l1/evil", "evil", 0644)
+                .build();
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+        assertThat(tempDir.resolve("evil")).doesNotExist();
+    }
+
+    @Test
+    void untarRejectsFileWrittenThroughLink() throws IOException {
+        // given
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+        byte[] archive = new TestTarBuilder()
+                .symbolicLink("dir", ".")
+                .file("dir/file", "data", 0644)
+                .build();
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+        assertThat(target().resolve("file")).doesNotExist();
+        assertThat(outside.resolve("file")).doesNotExist();
+    }
+
+    @Test
+    void untarRejectsHardLinkThroughLink() {
+        // given
+        byte[] archive = new TestTarBuilder()
+                .symbolicLink("dir", ".")
+                .hardLink("hard", "dir/../../secret")
+                .build();
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+    }
+
+    @Test
+    void untarRejectsEntryOutsideTargetDirectory() throws IOException {
+        // given
+        byte[] archive = new TestTarBuilder().file("../escape.txt", "data", 0644).build();
+        // when / then
+        assertThatThrownBy(() -> copy(FileEntry.untar(() -> new ByteArrayInputStream(archive), "out")))
+                .isInstanceOf(BriareusException.class);
+        assertThat(tempDir.resolve("escape.txt")).doesNotExist();
+    }
+
+    private Path target() {
+        return tempDir.resolve("work/out");
+    }
+
+    private void copy(FileEntry entry) throws IOException {
+        new FileCopyTool(tempDir.resolve("work")).copy(singletonList(entry), NOT_CANCELED);
+    }
+
+    /**
+     * @return zip with entries containing their names
+     */
+    private static byte[] zip(String... names) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (String name : names) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(name.getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
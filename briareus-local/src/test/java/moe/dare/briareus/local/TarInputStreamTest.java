@@ -0,0 +1,148 @@
+package moe.dare.briareus.local;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TarInputStreamTest {
+    @Test
+    void readsUstarEntries() throws IOException {
+        // given
+        byte[] archive = new TestTarBuilder()
+                .directory("dir/")
+                .file("dir/file.txt", "content", 0755)
+                .symbolicLink("link", "dir/file.txt")
+                .hardLink("hard", "dir/file.txt")
+                .build();
+        // when
+        try (TarInputStream tar = open(archive)) {
+            TarInputStream.Entry dir = tar.getNextEntry();
+            TarInputStream.Entry file = tar.getNextEntry();
+            String content = read(tar);
+            TarInputStream.Entry link = tar.getNextEntry();
+            TarInputStream.Entry hardLink = tar.getNextEntry();
+            // then
+            assertThat(dir.name()).isEqualTo("dir/");
+            assertThat(dir.isDirectory()).isTrue();
+            assertThat(file.name()).isEqualTo("dir/file.txt");
+            assertThat(file.isFile()).isTrue();
+            assertThat(file.mode()).isEqualTo(0755);
+            assertThat(content).isEqualTo("content");
+            assertThat(link.isSymbolicLink()).isTrue();
+            assertThat(link.linkName()).isEqualTo("dir/file.txt");
+            assertThat(hardLink.isHardLink()).isTrue();
+            assertThat(hardLink.linkName()).isEqualTo("dir/file.txt");
+            assertThat(tar.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    void skipsUnreadData() throws IOException {
+        // given
+        byte[] archive = new TestTarBuilder()
+                .file("first", "first content", 0644)
+                .file("second", "second content", 0644)
+                .build();
+        // when
+        try (TarInputStream tar = open(archive)) {
+            tar.getNextEntry();
+            TarInputStream.Entry second = tar.getNextEntry();
+            // then
+            assertThat(second.name()).isEqualTo("second");
+            assertThat(read(tar)).isEqualTo("second content");
+        }
+    }
+
+    @Test
+    void joinsUstarPrefixAndName() throws IOException {
+        // given
+        String prefix = repeat('p', 120);
+        String name = repeat('n', 90);
+        byte[] archive = new TestTarBuilder().prefixedFile(prefix, name, "data").build();
+        // when
+        try (TarInputStream tar = open(archive)) {
+            TarInputStream.Entry entry = tar.getNextEntry();
+            // then
+            assertThat(entry.name()).isEqualTo(prefix + "/" + name);
+            assertThat(read(tar)).isEqualTo("data");
+        }
+    }
+
+    @Test
+    void readsGnuLongNames() throws IOException {
+        // given
+        String name = "long/" + repeat('n', 200);
+        String linkName = "target/" + repeat('t', 200);
+        byte[] archive = new TestTarBuilder().gnuLongNames(name, linkName).build();
+        // when
+        try (TarInputStream tar = open(archive)) {
+            TarInputStream.Entry entry = tar.getNextEntry();
+            // then
+            assertThat(entry.name()).isEqualTo(name);
+            assertThat(entry.linkName()).isEqualTo(linkName);
+            assertThat(tar.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    void readsPaxPathAndSize() throws IOException {
+        // given
+        String name = "pax/" + repeat('\u00fc', 150);
+        byte[] archive = new TestTarBuilder()
+                .paxFile(name, "content of pax file")
+                .file("next", "next content", 0644)
+                .build();
+        // when
+        try (TarInputStream tar = open(archive)) {
+            TarInputStream.Entry entry = tar.getNextEntry();
+            String content = read(tar);
+            TarInputStream.Entry next = tar.getNextEntry();
+            // then
+            assertThat(entry.name()).isEqualTo(name);
+            assertThat(entry.size()).isEqualTo(19L);
+            assertThat(content).isEqualTo("content of pax file");
+            assertThat(next.name()).isEqualTo("next");
+            assertThat(read(tar)).isEqualTo("next content");
+        }
+    }
+
+    @Test
+    void rejectsCorruptedHeader() {
+        // given
+        byte[] archive = new TestTarBuilder().file("file", "content", 0644).build();
+        archive[0] = 'x';
+        // when / then
+        assertThatThrownBy(() -> open(archive).getNextEntry())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Checksum mismatch");
+    }
+
+    private static TarInputStream open(byte[] archive) {
+        return new TarInputStream(new ByteArrayInputStream(archive));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
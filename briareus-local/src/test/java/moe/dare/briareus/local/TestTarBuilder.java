@@ -0,0 +1,137 @@
+package moe.dare.briareus.local;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tar archives for tests.
+ */
+class TestTarBuilder {
+    private static final int BLOCK_SIZE = 512;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    TestTarBuilder file(String name, String content, int mode) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        header(name, '0', data.length, mode, "");
+        data(data);
+        return this;
+    }
+
+    TestTarBuilder directory(String name) {
+        header(name, '5', 0, 0755, "");
+        return this;
+    }
+
+    TestTarBuilder symbolicLink(String name, String target) {
+        header(name, '2', 0, 0777, target);
+        return this;
+    }
+
+    TestTarBuilder hardLink(String name, String target) {
+        header(name, '1', 0, 0644, target);
+        return this;
+    }
+
+    /**
+     * Writes name longer than 100 bytes split between ustar prefix and name fields.
+     */
+    TestTarBuilder prefixedFile(String prefix, String name, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        write(headerBlock(prefix, name, '0', data.length, 0644, ""));
+        data(data);
+        return this;
+    }
+
+    TestTarBuilder gnuLongNames(String name, String linkName) {
+        byte[] nameBytes = (name + '\0').getBytes(StandardCharsets.UTF_8);
+        header("././@LongLink", 'L', nameBytes.length, 0, "");
+        data(nameBytes);
+        byte[] linkBytes = (linkName + '\0').getBytes(StandardCharsets.UTF_8);
+        header("././@LongLink", 'K', linkBytes.length, 0, "");
+        data(linkBytes);
+        header(name.substring(0, 50), '2', 0, 0777, linkName.substring(0, 50));
+        return this;
+    }
+
+    /**
+     * Writes file with path and size in pax header. Size field of file header is zero.
+     */
+    TestTarBuilder paxFile(String name, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] records = (paxRecord("path", name) + paxRecord("size", String.valueOf(data.length)))
+                .getBytes(StandardCharsets.UTF_8);
+        header("PaxHeaders/file", 'x', records.length, 0644, "");
+        data(records);
+        header("truncated", '0', 0, 0644, "");
+        data(data);
+        return this;
+    }
+
+    byte[] build() {
+        write(new byte[BLOCK_SIZE * 2]);
+        return out.toByteArray();
+    }
+
+    private static String paxRecord(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int recordLength = record.getBytes(StandardCharsets.UTF_8).length;
+        int length = recordLength + 1;
+        while (String.valueOf(length).length() + recordLength != length) {
+            length++;
+        }
+        return length + record;
+    }
+
+    private void header(String name, char type, long size, int mode, String linkName) {
+        write(headerBlock("", name, type, size, mode, linkName));
+    }
+
+    private static byte[] headerBlock(String prefix, String name, char type, long size, int mode, String linkName) {
+        byte[] header = new byte[BLOCK_SIZE];
+        put(header, 0, 100, name);
+        put(header, 100, 8, octal(mode, 7));
+        put(header, 108, 8, octal(0, 7));
+        put(header, 116, 8, octal(0, 7));
+        put(header, 124, 12, octal(size, 11));
+        put(header, 136, 12, octal(0, 11));
+        header[156] = (byte) type;
+        put(header, 157, 100, linkName);
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        put(header, 345, 155, prefix);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        put(header, 148, 8, octal(checksum, 6));
+        return header;
+    }
+
+    private void data(byte[] data) {
+        write(data);
+        write(new byte[(BLOCK_SIZE - data.length % BLOCK_SIZE) % BLOCK_SIZE]);
+    }
+
+    private void write(byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String octal(long value, int digits) {
+        StringBuilder result = new StringBuilder(Long.toOctalString(value));
+        while (result.length() < digits) {
+            result.insert(0, '0');
+        }
+        return result.toString();
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > length) {
+            throw new IllegalArgumentException("Value too long: " + value);
+        }
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
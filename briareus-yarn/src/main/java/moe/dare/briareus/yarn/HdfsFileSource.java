@@ -15,6 +15,7 @@ public class HdfsFileSource implements YarnAwareFileSource, CacheableFileSource
     private final Configuration configuration;
     private final Path path;
     private final LocalResourceVisibility localResourceVisibility;
+    private final boolean directory;
 
     public static HdfsFileSource publicScopeSource(Path path, Configuration configuration) {
         return new HdfsFileSource(configuration, path, LocalResourceVisibility.PUBLIC);
@@ -32,10 +33,30 @@ public class HdfsFileSource implements YarnAwareFileSource, CacheableFileSource
         return new HdfsFileSource(configuration, path, visibility);
     }
 
+    /**
+     * Creates source of directory localized by node manager as is, without archiving and unpacking.
+     * Directory source must be used with {@link moe.dare.briareus.api.FileEntry#copy copy}
+     * entries and can't be opened as stream. Upload of entry fails if path is not a directory.
+     *
+     * @param path path of directory
+     * @param configuration configuration of file system
+     * @param visibility visibility of localized directory
+     * @return new directory source
+     */
+    public static HdfsFileSource directory(Path path, Configuration configuration, LocalResourceVisibility visibility) {
+        return new HdfsFileSource(configuration, path, visibility, true);
+    }
+
     private HdfsFileSource(Configuration configuration, Path path, LocalResourceVisibility localResourceVisibility) {
+        this(configuration, path, localResourceVisibility, false);
+    }
+
+    private HdfsFileSource(Configuration configuration, Path path, LocalResourceVisibility localResourceVisibility,
+                           boolean directory) {
         this.configuration = requireNonNull(configuration, "configuration");
         this.localResourceVisibility = requireNonNull(localResourceVisibility, "localResourceVisibility");
         this.path = requireNonNull(path, "path");
+        this.directory = directory;
     }
 
     @Override
@@ -48,8 +69,16 @@ public class HdfsFileSource implements YarnAwareFileSource, CacheableFileSource
         return localResourceVisibility;
     }
 
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
     @Override
     public InputStream open() throws IOException {
+        if (directory) {
+            throw new IOException("Directory " + path + " can't be opened as stream");
+        }
         return path.getFileSystem(configuration).open(path);
     }
 
@@ -60,12 +89,13 @@ public class HdfsFileSource implements YarnAwareFileSource, CacheableFileSource
         HdfsFileSource that = (HdfsFileSource) o;
         return configuration.equals(that.configuration) &&
                 path.equals(that.path) &&
-                localResourceVisibility == that.localResourceVisibility;
+                localResourceVisibility == that.localResourceVisibility &&
+                directory == that.directory;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(configuration, path, localResourceVisibility);
+        return Objects.hash(configuration, path, localResourceVisibility, directory);
     }
 
     @Override
@@ -74,6 +104,7 @@ public class HdfsFileSource implements YarnAwareFileSource, CacheableFileSource
                 "configuration=" + configuration +
                 ", path=" + path +
                 ", localResourceVisibility=" + localResourceVisibility +
+                ", directory=" + directory +
                 '}';
     }
 }
@@ -8,4 +8,13 @@ public interface YarnAwareFileSource extends FileSource {
     Path resourcePath();
 
     LocalResourceVisibility resourceVisibility();
+
+    /**
+     * Resources are verified to match this flag, so file sources of directories and directory sources of files fail.
+     *
+     * @return true if resource path is a directory localized as is
+     */
+    default boolean isDirectory() {
+        return false;
+    }
 }
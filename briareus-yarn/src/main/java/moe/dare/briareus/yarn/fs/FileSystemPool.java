@@ -0,0 +1,290 @@
+package moe.dare.briareus.yarn.fs;
+
+import moe.dare.briareus.common.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.PrivilegedExceptionAction;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.requireNonNull;
+import static moe.dare.briareus.common.utils.Preconditions.checkState;
+
+/**
+ * Pool of file system instances keyed by user and file system uri. Users are compared like in
+ * {@link FileSystem#get(URI, Configuration) file system cache}: by {@link UserGroupInformation#equals(Object) identity}
+ * of their subject, so file system is never shared by users with different credentials, even if they have the same
+ * name. Users returned by {@link UserGroupInformation#getCurrentUser() getCurrentUser} in the same
+ * {@code doAs} block share subject and file systems. File systems of users created for each request are closed
+ * after idle timeout.
+ * Unlike {@link FileSystem#get(URI, Configuration) cached} instances pooled file systems are owned by pool:
+ * they are closed when not used for idle timeout or when pool is closed.
+ * <p>Instances are borrowed with {@link #acquire(UserGroupInformation, URI) acquire} and returned by closing handle.
+ * File system of handle must not be closed by user.</p>
+ * <pre>{@code
+ * try (FileSystemPool.Handle handle = pool.acquire(user, uri)) {
+ *     handle.fileSystem().getFileStatus(path);
+ * }
+ * }</pre>
+ */
+public final class FileSystemPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileSystemPool.class);
+    private static final ThreadFactory THREAD_FACTORY = ThreadFactoryBuilder
+            .withPrefix("briareus-yarn-fs-pool-evictor-")
+            .deamon(true)
+            .build();
+
+    private final Map<Key, PooledFileSystem> fileSystems = new HashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+    private final Configuration conf;
+    private final long idleTimeoutNanos;
+    private boolean closed;
+
+    /**
+     * @param conf configuration of created file systems
+     * @param idleTimeout time after which unused file system is closed
+     * @return new pool
+     */
+    public static FileSystemPool create(Configuration conf, Duration idleTimeout) {
+        requireNonNull(conf, "conf");
+        requireNonNull(idleTimeout, "idleTimeout");
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("Idle timeout must be positive: " + idleTimeout);
+        }
+        return new FileSystemPool(conf, idleTimeout.toNanos());
+    }
+
+    private FileSystemPool(Configuration conf, long idleTimeoutNanos) {
+        this.conf = conf;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2, 1);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows file system of given user. File system is created by user on first request.
+     *
+     * @param user owner of file system
+     * @param uri uri of file system, uri without scheme or authority refers to default file system
+     * @return handle of file system
+     * @throws IOException if file system can't be created
+     * @throws IllegalStateException if pool is closed
+     */
+    public Handle acquire(UserGroupInformation user, URI uri) throws IOException {
+        Key key = new Key(requireNonNull(user, "user"), fileSystemUri(requireNonNull(uri, "uri")));
+        PooledFileSystem pooled;
+        synchronized (this) {
+            checkState(!closed, "File system pool closed");
+            pooled = fileSystems.computeIfAbsent(key, PooledFileSystem::new);
+            pooled.leases++;
+        }
+        try {
+            return new Handle(pooled, pooled.fileSystem());
+        } catch (IOException | RuntimeException e) {
+            release(pooled);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows file system of path for current user.
+     *
+     * @param path path on file system
+     * @return handle of file system
+     * @throws IOException if file system can't be created
+     * @throws IllegalStateException if pool is closed
+     * @see #acquire(UserGroupInformation, URI)
+     */
+    public Handle acquire(Path path) throws IOException {
+        return acquire(UserGroupInformation.getCurrentUser(), path.toUri());
+    }
+
+    /**
+     * Closes all pooled file systems. File systems still in use are closed too.
+     */
+    @Override
+    public void close() {
+        List<PooledFileSystem> toClose;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toClose = new ArrayList<>(fileSystems.values());
+            fileSystems.clear();
+        }
+        evictor.shutdownNow();
+        for (PooledFileSystem pooled : toClose) {
+            if (pooled.leases > 0) {
+                log.warn("Closing file system {} in use", pooled.key);
+            }
+            pooled.close();
+        }
+    }
+
+    private synchronized void release(PooledFileSystem pooled) {
+        pooled.leases--;
+        pooled.lastUsedNanos = System.nanoTime();
+    }
+
+    private void evictIdle() {
+        List<PooledFileSystem> idle = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Iterator<PooledFileSystem> iterator = fileSystems.values().iterator();
+            while (iterator.hasNext()) {
+                PooledFileSystem pooled = iterator.next();
+                if (pooled.leases == 0 && now - pooled.lastUsedNanos > idleTimeoutNanos) {
+                    iterator.remove();
+                    idle.add(pooled);
+                }
+            }
+        }
+        for (PooledFileSystem pooled : idle) {
+            log.debug("Closing idle file system {}", pooled.key);
+            pooled.close();
+        }
+    }
+
+    /**
+     * Qualifies uri of file system with default file system of pool configuration. File system is not created.
+     *
+     * @param uri uri of file system or path, uri without scheme or authority refers to default file system
+     * @return uri of file system with scheme and authority, without path
+     * @throws IOException if uri can't be qualified
+     */
+    public URI fileSystemUri(URI uri) throws IOException {
+        URI defaultUri = FileSystem.getDefaultUri(conf);
+        String scheme = uri.getScheme();
+        String authority = uri.getAuthority();
+        if (scheme == null) {
+            scheme = defaultUri.getScheme();
+        }
+        if (authority == null && scheme.equalsIgnoreCase(defaultUri.getScheme())) {
+            authority = defaultUri.getAuthority();
+        }
+        try {
+            return new URI(scheme, authority, "/", null, null);
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad file system uri " + uri, e);
+        }
+    }
+
+    /**
+     * Borrowed file system. Closing handle returns file system to pool.
+     */
+    public final class Handle implements Closeable {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final PooledFileSystem pooled;
+        private final FileSystem fileSystem;
+
+        private Handle(PooledFileSystem pooled, FileSystem fileSystem) {
+            this.pooled = pooled;
+            this.fileSystem = fileSystem;
+        }
+
+        /**
+         * @return borrowed file system which must not be closed
+         */
+        public FileSystem fileSystem() {
+            return fileSystem;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(pooled);
+            }
+        }
+    }
+
+    private final class PooledFileSystem {
+        private final Key key;
+        private FileSystem fileSystem;
+        private boolean closed;
+        // guarded by pool
+        private int leases;
+        private long lastUsedNanos = System.nanoTime();
+
+        private PooledFileSystem(Key key) {
+            this.key = key;
+        }
+
+        private synchronized FileSystem fileSystem() throws IOException {
+            if (closed) {
+                throw new IOException("File system " + key + " closed");
+            }
+            if (fileSystem == null) {
+                try {
+                    fileSystem = key.user.doAs((PrivilegedExceptionAction<FileSystem>) () ->
+                            FileSystem.newInstance(key.uri, conf));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while creating file system " + key);
+                }
+                log.debug("Created pooled file system {}", key);
+            }
+            return fileSystem;
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (fileSystem != null) {
+                try {
+                    fileSystem.close();
+                } catch (IOException e) {
+                    log.warn("Can't close file system {}", key, e);
+                }
+                fileSystem = null;
+            }
+        }
+    }
+
+    private static final class Key {
+        private final UserGroupInformation user;
+        private final URI uri;
+
+        private Key(UserGroupInformation user, URI uri) {
+            this.user = user;
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return user.equals(key.user) && uri.equals(key.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, uri);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{user=" + user.getShortUserName() + ", uri=" + uri + '}';
+        }
+    }
+}
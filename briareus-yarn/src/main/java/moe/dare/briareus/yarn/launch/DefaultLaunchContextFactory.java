@@ -7,18 +7,17 @@ import moe.dare.briareus.yarn.launch.auxservice.ServiceDataProvider;
 import moe.dare.briareus.yarn.launch.command.LaunchCommandFactory;
 import moe.dare.briareus.yarn.launch.command.LaunchOptions;
 import moe.dare.briareus.yarn.launch.credentials.CredentialsFactory;
+import moe.dare.briareus.yarn.launch.credentials.CredentialsSnapshot;
 import moe.dare.briareus.yarn.launch.files.FileUploadTool;
 import moe.dare.briareus.yarn.launch.files.UploadedEntry;
-import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.yarn.api.records.ApplicationAccessType;
 import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
 import org.apache.hadoop.yarn.api.records.LocalResource;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletionStage;
@@ -42,6 +41,12 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
     private final CredentialsFactory credentialsFactory;
     private final ServiceDataProvider serviceDataProvider;
     private final ApplicationAclProvider aclProvider;
+    private final FilePacker filePacker;
+    /**
+     * Uploaded entries referenced by created contexts. Contexts are compared by identity as records are mutable.
+     */
+    private final Map<ContainerLaunchContext, List<UploadedEntry>> contextEntries =
+            Collections.synchronizedMap(new IdentityHashMap<>());
 
     /**
      * @return new builder for DefaultLaunchContextFactory
@@ -56,6 +61,7 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
         this.launchCommandFactory = requireNonNull(builder.launchCommandFactory, "LaunchCommandFactory");
         this.serviceDataProvider = ofNullable(builder.serviceDataProvider).orElseGet(ServiceDataProvider::createDefault);
         this.aclProvider = ofNullable(builder.aclProvider).orElseGet(ApplicationAclProvider::createDefault);
+        this.filePacker = builder.packedFileMaxSize > 0 ? new FilePacker(builder.packedFileMaxSize) : null;
     }
 
     @Override
@@ -64,43 +70,58 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
         LaunchOptions launchOptions = launchCommandFactory.createLaunchOptions(jvmOptions);
         Map<String, ByteBuffer> serviceData = serviceDataProvider.serviceData(jvmOptions);
         Map<ApplicationAccessType, String> acls = aclProvider.acl(jvmOptions);
-        CompletionStage<List<UploadedEntry>> uploadedEntriesFuture = uploadFiles(jvmOptions, launchOptions);
-        CompletionStage<Credentials> credentialsFuture = uploadedEntriesFuture.thenCompose(entries ->
-                credentialsFactory.tokens(jvmOptions, entries));
-        return credentialsFuture.thenApply(credentials -> ContainerLaunchContext.newInstance(
-                mergeUploadedList(uploadedEntriesFuture.toCompletableFuture().join()),
-                launchOptions.environment(),
-                launchOptions.command(),
-                serviceData,
-                tokenStorageBytes(credentials),
-                acls));
+        FilePacker.Packing packing = packFiles(jvmOptions, launchOptions);
+        credentialsFactory.prefetch(fileUploadTool.fileSystems(packing.entries()));
+        CompletionStage<List<UploadedEntry>> uploadedEntriesFuture = fileUploadTool.upload(packing.entries());
+        CompletionStage<CredentialsSnapshot> credentialsFuture = uploadedEntriesFuture.thenCompose(entries ->
+                credentialsFactory.snapshot(jvmOptions, entries));
+        CompletionStage<ContainerLaunchContext> contextFuture = credentialsFuture.thenApply(credentials -> {
+            List<UploadedEntry> entries = uploadedEntriesFuture.toCompletableFuture().join();
+            ContainerLaunchContext context = ContainerLaunchContext.newInstance(
+                    mergeUploadedList(entries),
+                    launchOptions.environment(),
+                    packing.command(launchOptions.command()),
+                    serviceData,
+                    credentials.tokenStorage(),
+                    acls);
+            contextEntries.put(context, entries);
+            return context;
+        });
+        contextFuture.whenComplete((context, exception) -> {
+            if (exception != null) {
+                uploadedEntriesFuture.thenAccept(DefaultLaunchContextFactory::releaseEntries);
+            }
+        });
+        return contextFuture;
+    }
+
+    @Override
+    public void release(ContainerLaunchContext context) {
+        List<UploadedEntry> entries = contextEntries.remove(requireNonNull(context, "context"));
+        if (entries != null) {
+            releaseEntries(entries);
+        }
+    }
+
+    private static void releaseEntries(List<UploadedEntry> entries) {
+        entries.forEach(UploadedEntry::release);
     }
 
     private void verifyOptions(RemoteJvmOptions options) {
         requireNonNull(options);
     }
 
-    private CompletionStage<List<UploadedEntry>> uploadFiles(RemoteJvmOptions jvmOptions, LaunchOptions launchOptions) {
+    private FilePacker.Packing packFiles(RemoteJvmOptions jvmOptions, LaunchOptions launchOptions) {
         List<FileEntry> entries = new ArrayList<>(jvmOptions.files().size() + launchOptions.launcherFiles().size());
         entries.addAll(jvmOptions.files());
         entries.addAll(launchOptions.launcherFiles());
-        return fileUploadTool.upload(entries);
+        return filePacker != null ? filePacker.pack(entries) : FilePacker.Packing.none(entries);
     }
 
     private static Map<String, LocalResource> mergeUploadedList(List<UploadedEntry> uploadedFiles) {
         return uploadedFiles.stream().collect(Collectors.toMap(e -> e.entry().name(), UploadedEntry::resource));
     }
 
-    private static ByteBuffer tokenStorageBytes(Credentials credentials) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            credentials.writeTokenStorageToStream(new DataOutputStream(baos));
-            return ByteBuffer.wrap(baos.toByteArray());
-        } catch (IOException e) {
-            throw new IllegalStateException("Can't write token storage to DataOutputStream backed by ByteArrayOutputStream", e);
-        }
-    }
-
     /**
      * Builder for {@link DefaultLaunchContextFactory}.
      * <br>Required properties:
@@ -113,6 +134,7 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
      * <ul>
      *     <li>serviceDataProvider</li>
      *     <li>aclProvider</li>
+     *     <li>packedFileMaxSize</li>
      * </ul>
      *
      */
@@ -122,6 +144,7 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
         private LaunchCommandFactory launchCommandFactory;
         private ServiceDataProvider serviceDataProvider;
         private ApplicationAclProvider aclProvider;
+        private long packedFileMaxSize;
 
         private Builder() {
         }
@@ -181,6 +204,23 @@ public class DefaultLaunchContextFactory implements LaunchContextFactory {
             return this;
         }
 
+        /**
+         * Optional parameter. 0 by default, i.e. files are not packed.
+         * Copied files not larger than given size are packed into single archive, so container with many small
+         * files costs one upload and one localization. Packed files are linked into working directory
+         * by launch command. Packing is done only if there are at least two small files.
+         *
+         * @param packedFileMaxSize maximum size of packed file in bytes, 0 to disable packing
+         * @return this builder for chaining
+         */
+        public Builder packedFileMaxSize(long packedFileMaxSize) {
+            if (packedFileMaxSize < 0) {
+                throw new IllegalArgumentException("Packed file max size must not be negative: " + packedFileMaxSize);
+            }
+            this.packedFileMaxSize = packedFileMaxSize;
+            return this;
+        }
+
         /**
          * @return new LaunchContextFactory
          * @throws IllegalStateException if some required parameter is not set.
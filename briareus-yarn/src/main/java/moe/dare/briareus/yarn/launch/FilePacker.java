@@ -0,0 +1,237 @@
+package moe.dare.briareus.yarn.launch;
+
+import moe.dare.briareus.api.CacheableFileSource;
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.yarn.YarnAwareFileSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs small copied files of container into single zip archive entry named {@value #PACK_NAME}.
+ * Packed files are uploaded as one file and localized by node manager with one download.
+ * Node manager expands archive into {@value #PACK_NAME} directory of container, original names are restored
+ * with symbolic links created by launch command before it starts.
+ * <p>Zip entries carry no unix permissions, so executable local files are never packed and keep their own
+ * resource. Only entries named by single plain path segment are packed, as names are used by link command.</p>
+ */
+final class FilePacker {
+    static final String PACK_NAME = ".briareus_pack";
+    private static final Logger log = LoggerFactory.getLogger(FilePacker.class);
+    private static final int MIN_PACKED_FILES = 2;
+    /**
+     * Fixed time of archive entries, so archives of the same files are the same byte to byte.
+     */
+    private static final long ENTRY_TIME = 0;
+
+    private final long maxFileSize;
+
+    /**
+     * @param maxFileSize maximum size of packed file
+     */
+    FilePacker(long maxFileSize) {
+        if (maxFileSize <= 0) {
+            throw new IllegalArgumentException("Max packed file size must be positive: " + maxFileSize);
+        }
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * @param entries entries of container
+     * @return entries with small files replaced by archive or given entries if there is nothing to pack
+     */
+    Packing pack(List<FileEntry> entries) {
+        List<FileEntry> packed = new ArrayList<>();
+        List<FileEntry> rest = new ArrayList<>();
+        for (FileEntry entry : entries) {
+            if (PACK_NAME.equals(entry.name())) {
+                log.warn("Entry named {} found. Files will not be packed", PACK_NAME);
+                return Packing.none(entries);
+            }
+            (isPackable(entry) ? packed : rest).add(entry);
+        }
+        if (packed.size() < MIN_PACKED_FILES) {
+            return Packing.none(entries);
+        }
+        log.debug("Packing {} small files into {}", packed.size(), PACK_NAME);
+        rest.add(FileEntry.unzip(PackSource.of(packed), PACK_NAME));
+        return new Packing(rest, packed);
+    }
+
+    private boolean isPackable(FileEntry entry) {
+        FileSource source = entry.source();
+        if (entry.mode() != FileEntry.Mode.COPY || source instanceof YarnAwareFileSource) {
+            return false;
+        }
+        OptionalLong size = source.size();
+        return size.isPresent() && size.getAsLong() <= maxFileSize
+                && isPlainName(entry.name())
+                && !isExecutable(source.file());
+    }
+
+    private static boolean isPlainName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+    }
+
+    private static boolean isExecutable(Optional<Path> file) {
+        return file.map(Files::isExecutable).orElse(false);
+    }
+
+    /**
+     * Result of packing.
+     */
+    static final class Packing {
+        private final List<FileEntry> entries;
+        private final List<FileEntry> packed;
+
+        private Packing(List<FileEntry> entries, List<FileEntry> packed) {
+            this.entries = entries;
+            this.packed = packed;
+        }
+
+        /**
+         * @param entries entries of container
+         * @return packing without packed files
+         */
+        static Packing none(List<FileEntry> entries) {
+            return new Packing(entries, Collections.emptyList());
+        }
+
+        /**
+         * @return entries to upload
+         */
+        List<FileEntry> entries() {
+            return entries;
+        }
+
+        /**
+         * @param command launch command
+         * @return command linking packed files into working directory before running given command
+         */
+        List<String> command(List<String> command) {
+            if (packed.isEmpty() || command.isEmpty()) {
+                return command;
+            }
+            StringBuilder link = new StringBuilder("ln -s");
+            for (FileEntry entry : packed) {
+                link.append(' ').append(quote(PACK_NAME + '/' + entry.name()));
+            }
+            link.append(" . &&");
+            List<String> result = new ArrayList<>(command.size() + 1);
+            result.add(link.toString());
+            result.addAll(command);
+            return result;
+        }
+
+        /**
+         * @param word shell word
+         * @return word in single quotes, single quotes inside are closed, escaped and reopened
+         */
+        static String quote(String word) {
+            return '\'' + word.replace("'", "'\\''") + '\'';
+        }
+    }
+
+    /**
+     * Zip archive of packed files. Archive is built in memory on first open, packed files are small.
+     */
+    private static class PackSource implements FileSource {
+        private final List<String> names = new ArrayList<>();
+        private final List<FileSource> sources = new ArrayList<>();
+        private final long size;
+        private volatile byte[] archive;
+
+        static PackSource of(List<FileEntry> entries) {
+            boolean cacheable = entries.stream().allMatch(entry -> entry.source() instanceof CacheableFileSource);
+            return cacheable ? new CacheablePackSource(entries) : new PackSource(entries);
+        }
+
+        private PackSource(List<FileEntry> entries) {
+            long totalSize = 0;
+            for (FileEntry entry : entries) {
+                names.add(entry.name());
+                sources.add(entry.source());
+                totalSize += entry.source().size().orElse(0);
+            }
+            this.size = totalSize;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            byte[] bytes = archive;
+            if (bytes == null) {
+                bytes = zip();
+                archive = bytes;
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        /**
+         * @return size of packed files, a hint for upload ordering
+         */
+        @Override
+        public OptionalLong size() {
+            byte[] bytes = archive;
+            return OptionalLong.of(bytes != null ? bytes.length : size);
+        }
+
+        private byte[] zip() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(size + 1024, Integer.MAX_VALUE));
+            byte[] buffer = new byte[8192];
+            try (ZipOutputStream zip = new ZipOutputStream(out)) {
+                for (int i = 0; i < names.size(); i++) {
+                    ZipEntry zipEntry = new ZipEntry(names.get(i));
+                    zipEntry.setTime(ENTRY_TIME);
+                    zip.putNextEntry(zipEntry);
+                    try (InputStream in = sources.get(i).open()) {
+                        int n;
+                        while ((n = in.read(buffer)) > 0) {
+                            zip.write(buffer, 0, n);
+                        }
+                    }
+                    zip.closeEntry();
+                }
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PackSource that = (PackSource) o;
+            return names.equals(that.names) && sources.equals(that.sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * names.hashCode() + sources.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "PackSource{names=" + names + '}';
+        }
+    }
+
+    private static final class CacheablePackSource extends PackSource implements CacheableFileSource {
+        private CacheablePackSource(List<FileEntry> entries) {
+            super(entries);
+        }
+    }
+}
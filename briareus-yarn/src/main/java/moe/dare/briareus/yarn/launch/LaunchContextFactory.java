@@ -11,4 +11,14 @@ import java.util.concurrent.CompletionStage;
  */
 public interface LaunchContextFactory {
     CompletionStage<ContainerLaunchContext> create(RemoteJvmOptions jvmOptions);
+
+    /**
+     * Releases resources held for context created by this factory.
+     * Should be called when container launched with context is finished or was not started at all.
+     * Releasing context again has no effect. Default implementation does nothing.
+     *
+     * @param context context created by this factory
+     */
+    default void release(ContainerLaunchContext context) {
+    }
 }
@@ -6,6 +6,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
@@ -14,12 +15,16 @@ class AsyncCallsCache<T, U> {
     private final ConcurrentMap<T, RefEqualsWrap<U>> cache = new ConcurrentHashMap<>();
     private final RefEqualsWrap<U> dummy = new RefEqualsWrap<>(CompletableFutures
             .failedCompletableFuture(new AssertionError("Helper Completable future must not be queried")));
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalescedCalls = new LongAdder();
 
     public CompletableFuture<U> callOrCache(@NotNull T arg, @NotNull Function<T, CompletableFuture<U>> call) {
         requireNonNull(arg);
         requireNonNull(call);
+        calls.increment();
         RefEqualsWrap<U> cachedRef = cache.getOrDefault(arg, dummy);
         if (!cachedRef.future.isDone()) {
+            coalescedCalls.increment();
             return cachedRef.future;
         }
         cache.remove(arg, cachedRef);
@@ -37,6 +42,20 @@ class AsyncCallsCache<T, U> {
         return cache.size();
     }
 
+    /**
+     * @return number of calls of {@link #callOrCache(Object, Function)}
+     */
+    long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return number of calls returning future of call in progress
+     */
+    long coalescedCalls() {
+        return coalescedCalls.sum();
+    }
+
     private static final class RefEqualsWrap<T> {
         private final CompletableFuture<T> future;
 
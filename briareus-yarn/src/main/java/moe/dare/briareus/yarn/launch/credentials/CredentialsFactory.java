@@ -5,7 +5,9 @@ import moe.dare.briareus.yarn.launch.files.UploadedEntry;
 import org.apache.hadoop.security.Credentials;
 
 import java.io.Closeable;
+import java.net.URI;
 import java.util.Collection;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -21,6 +23,38 @@ public interface CredentialsFactory extends Closeable {
      */
     CompletionStage<Credentials> tokens(RemoteJvmOptions options, Collection<UploadedEntry> uploadedEntries);
 
+    /**
+     * Implementations should return the same snapshot while tokens are not changed,
+     * so serialized tokens are shared by containers.
+     *
+     * @param options JVM options.
+     * @param uploadedEntries entries uploaded by {@link moe.dare.briareus.yarn.launch.files.FileUploadTool}
+     * @return completion stage with snapshot of credentials
+     */
+    default CompletionStage<CredentialsSnapshot> snapshot(RemoteJvmOptions options,
+                                                          Collection<UploadedEntry> uploadedEntries) {
+        return tokens(options, uploadedEntries).thenApply(CredentialsSnapshot::of);
+    }
+
+    /**
+     * Starts obtaining tokens of file systems before entries are uploaded, so tokens are obtained while files are
+     * uploaded. Following requests of credentials for uploaded entries reuse obtained tokens.
+     * Errors are not reported, tokens are requested again for uploaded entries.
+     * Called on launching thread, so implementations should access file systems asynchronously.
+     *
+     * @param fileSystems uris of file systems of entries which will be uploaded
+     * @see moe.dare.briareus.yarn.launch.files.FileUploadTool#fileSystems(java.util.List)
+     */
+    default void prefetch(Collection<URI> fileSystems) {
+    }
+
+    /**
+     * @return statistics of factory or empty if factory does not collect statistics
+     */
+    default Optional<CredentialsStats> stats() {
+        return Optional.empty();
+    }
+
     @Override
     default void close() {
     }
@@ -3,57 +3,250 @@ package moe.dare.briareus.yarn.launch.credentials;
 import moe.dare.briareus.api.BriareusException;
 import moe.dare.briareus.api.RemoteJvmOptions;
 import moe.dare.briareus.yarn.launch.files.UploadedEntry;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.security.token.TokenIdentifier;
 import org.apache.hadoop.security.token.delegation.AbstractDelegationTokenIdentifier;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static moe.dare.briareus.yarn.launch.credentials.CredentialsFactoryConfigKeys.MAX_THREADS_KEY;
+import static moe.dare.briareus.yarn.launch.credentials.CredentialsFactoryConfigKeys.MAX_THREADS_PER_FILE_SYSTEM_KEY;
+import static moe.dare.briareus.yarn.launch.credentials.CredentialsFactoryConfigKeys.MAX_WAITING_TASKS_KEY;
 
 abstract class CredentialsFactoryBase implements CredentialsFactory {
     private static final Logger log = LoggerFactory.getLogger(CredentialsFactoryBase.class);
 
+    /**
+     * File systems are kept open for some time after obtaining tokens to speed up renewals of tokens.
+     */
+    private static final Duration FILE_SYSTEM_IDLE_TIMEOUT = Duration.ofMinutes(10);
+    /**
+     * Maximum number of cached snapshots of distinct sets of file systems. Least recently used are dropped.
+     */
+    private static final int MAX_COMBINED_SNAPSHOTS = 256;
+
+    private static final int DEFAULT_MAX_THREADS = 16;
+    private static final int DEFAULT_MAX_THREADS_PER_FILE_SYSTEM = 2;
+    private static final int DEFAULT_MAX_WAITING_TASKS = 1024;
+
     private final AsyncCallsCache<FsKey, Credentials> callsCache = new AsyncCallsCache<>();
+    private final ConcurrentMap<FsKey, CredentialsSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<Set<FsKey>, CombinedSnapshot> combinedSnapshots =
+            new LinkedHashMap<Set<FsKey>, CombinedSnapshot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Set<FsKey>, CombinedSnapshot> eldest) {
+                    return size() > MAX_COMBINED_SNAPSHOTS;
+                }
+            };
+    private final ConcurrentMap<FsKey, FsMetrics> metrics = new ConcurrentHashMap<>();
+    private final KeyedExecutor<FsKey> executor;
+    private final FileSystemPool fileSystems;
+    private final boolean ownsFileSystems;
+
+    /**
+     * @param fileSystems pool of file systems shared with other components or null to use own pool
+     * @param conf configuration of own pool of file systems and executor limits
+     * @param threadFactory factory of threads acquiring tokens
+     */
+    CredentialsFactoryBase(@Nullable FileSystemPool fileSystems, Configuration conf, ThreadFactory threadFactory) {
+        this.executor = new KeyedExecutor<>(threadFactory,
+                conf.getInt(MAX_THREADS_KEY, DEFAULT_MAX_THREADS),
+                conf.getInt(MAX_THREADS_PER_FILE_SYSTEM_KEY, DEFAULT_MAX_THREADS_PER_FILE_SYSTEM),
+                conf.getInt(MAX_WAITING_TASKS_KEY, DEFAULT_MAX_WAITING_TASKS));
+        this.ownsFileSystems = fileSystems == null;
+        this.fileSystems = fileSystems != null ? fileSystems : FileSystemPool.create(conf, FILE_SYSTEM_IDLE_TIMEOUT);
+    }
 
     @Override
     public CompletionStage<Credentials> tokens(RemoteJvmOptions options, Collection<UploadedEntry> entries) {
-        Set<FsKey> keys = entries.stream().map(FsKey::keyFor).collect(Collectors.toSet());
-        List<CompletableFuture<Credentials>> allCredentials = new ArrayList<>(keys.size());
+        return snapshot(options, entries).thenApply(CredentialsSnapshot::credentials);
+    }
+
+    @Override
+    public CompletionStage<CredentialsSnapshot> snapshot(RemoteJvmOptions options, Collection<UploadedEntry> entries) {
+        Map<FsKey, List<UploadedEntry>> entriesByKey = entries.stream()
+                .collect(Collectors.groupingBy(FsKey::keyFor));
+        Set<FsKey> keys = new HashSet<>(entriesByKey.keySet());
+        List<CompletableFuture<CredentialsSnapshot>> allSnapshots = new ArrayList<>(keys.size());
         try {
-            for (FsKey key : keys) {
-                allCredentials.add(callsCache.callOrCache(key, this::tokens));
-            }
-            return combine(allCredentials);
+            entriesByKey.forEach((key, keyEntries) -> allSnapshots.add(snapshot(key, options, keyEntries)));
+            return combine(keys, allSnapshots);
         } catch (Exception e) {
             throw new BriareusException("Can't acquire delegation tokens", e);
         }
     }
 
+    @Override
+    public void prefetch(Collection<URI> fileSystemUris) {
+        for (URI uri : fileSystemUris) {
+            FsKey key = FsKey.keyFor(uri);
+            try {
+                callsCache.callOrCache(key, this::tokens).whenComplete((tokens, e) -> {
+                    if (e != null) {
+                        log.debug("Can't prefetch tokens for {}", key, e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                log.debug("Can't prefetch tokens for {}", key, e);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of tokens of single file system. Should return the same snapshot while tokens are not changed.
+     *
+     * @param fsKey file system of entries
+     * @param options JVM options
+     * @param entries uploaded entries of file system
+     * @return future completed with snapshot of tokens of file system
+     */
+    protected CompletableFuture<CredentialsSnapshot> snapshot(FsKey fsKey, RemoteJvmOptions options,
+                                                              Collection<UploadedEntry> entries) {
+        return callsCache.callOrCache(fsKey, this::tokens).thenApply(credentials -> snapshotOf(fsKey, credentials));
+    }
+
+    /**
+     * Returned credentials must not be modified. Implementations should return the same instance
+     * while tokens are valid, so snapshot of credentials is reused.
+     */
     protected abstract CompletableFuture<Credentials> tokens(@NotNull FsKey fsKey);
 
-    private static CompletableFuture<Credentials> combine(List<CompletableFuture<Credentials>> credentials) {
-        if (credentials.isEmpty()) {
-            return completedFuture(new Credentials());
-        } else if (credentials.size() == 1) {
-            return credentials.get(0).thenApply(Credentials::new);
+    /**
+     * @return pool of file systems used to obtain tokens
+     */
+    protected final FileSystemPool fileSystems() {
+        return fileSystems;
+    }
+
+    /**
+     * Runs token acquisition task for file system. Number of tasks run at once for single file system is limited.
+     *
+     * @return future completed with result of task
+     */
+    protected final <T> CompletableFuture<T> supplyAsync(FsKey fsKey, Supplier<T> task) {
+        return executor.supply(fsKey, task);
+    }
+
+    /**
+     * @return result of call obtaining new tokens for file system
+     */
+    protected final <T> T recordFetch(FsKey fsKey, Supplier<T> call) {
+        return metrics(fsKey).fetches.record(call);
+    }
+
+    /**
+     * @return result of call renewing tokens for file system
+     */
+    protected final <T> T recordRenew(FsKey fsKey, Supplier<T> call) {
+        return metrics(fsKey).renewals.record(call);
+    }
+
+    private FsMetrics metrics(FsKey fsKey) {
+        return metrics.computeIfAbsent(fsKey, any -> new FsMetrics());
+    }
+
+    @Override
+    public Optional<CredentialsStats> stats() {
+        List<FileSystemCredentialsStats> fileSystemStats = new ArrayList<>(metrics.size());
+        metrics.forEach((fsKey, fsMetrics) -> {
+            try {
+                fileSystemStats.add(new FileSystemCredentialsStats(fsKey.toFsUri(), executor.waitingTasks(fsKey),
+                        fsMetrics.fetches.latency(), fsMetrics.renewals.latency()));
+            } catch (URISyntaxException e) {
+                log.debug("Can't create uri of {}", fsKey, e);
+            }
+        });
+        return Optional.of(new CredentialsStats(callsCache.calls(), callsCache.coalescedCalls(),
+                executor.waitingTasks(), executor.rejectedTasks(), Collections.unmodifiableList(fileSystemStats)));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        if (ownsFileSystems) {
+            fileSystems.close();
         }
-        return CompletableFuture.allOf(credentials.toArray(new CompletableFuture<?>[0]))
+    }
+
+    private CredentialsSnapshot snapshotOf(FsKey key, Credentials credentials) {
+        return snapshots.compute(key, (any, current) ->
+                current != null && current.isOf(credentials) ? current : CredentialsSnapshot.of(credentials));
+    }
+
+    private CompletableFuture<CredentialsSnapshot> combine(Set<FsKey> keys,
+                                                           List<CompletableFuture<CredentialsSnapshot>> snapshots) {
+        if (snapshots.isEmpty()) {
+            return completedFuture(CredentialsSnapshot.empty());
+        } else if (snapshots.size() == 1) {
+            return snapshots.get(0);
+        }
+        return CompletableFuture.allOf(snapshots.toArray(new CompletableFuture<?>[0]))
                 .thenApply(any -> {
-                    Credentials combined = new Credentials();
-                    credentials.stream().map(CompletableFuture::join).forEach(combined::addAll);
-                    return combined;
+                    List<CredentialsSnapshot> parts = snapshots.stream()
+                            .map(CompletableFuture::join)
+                            .collect(Collectors.toList());
+                    synchronized (combinedSnapshots) {
+                        CombinedSnapshot combined = combinedSnapshots.get(keys);
+                        if (combined == null || !combined.isOf(parts)) {
+                            combined = new CombinedSnapshot(parts);
+                            combinedSnapshots.put(keys, combined);
+                        }
+                        return combined.snapshot;
+                    }
                 });
     }
 
+    private static final class FsMetrics {
+        private final LatencyRecorder fetches = new LatencyRecorder();
+        private final LatencyRecorder renewals = new LatencyRecorder();
+    }
+
+    /**
+     * Snapshot of credentials of several file systems. Reused while snapshots of all file systems are the same.
+     */
+    private static final class CombinedSnapshot {
+        private final List<CredentialsSnapshot> parts;
+        private final CredentialsSnapshot snapshot;
+
+        private CombinedSnapshot(List<CredentialsSnapshot> parts) {
+            Credentials combined = new Credentials();
+            parts.forEach(part -> combined.addAll(part.unsafeCredentials()));
+            this.parts = parts;
+            this.snapshot = CredentialsSnapshot.of(combined);
+        }
+
+        private boolean isOf(List<CredentialsSnapshot> otherParts) {
+            if (parts.size() != otherParts.size()) {
+                return false;
+            }
+            for (int i = 0; i < parts.size(); i++) {
+                if (parts.get(i) != otherParts.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     protected final Optional<Instant> tokenMaxExpirationTime(Token<? extends TokenIdentifier> token) {
         try {
             TokenIdentifier identifier = token.decodeIdentifier();
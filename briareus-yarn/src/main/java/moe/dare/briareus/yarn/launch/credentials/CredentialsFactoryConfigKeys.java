@@ -0,0 +1,25 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+/**
+ * Configuration keys of limits of token acquisition read from configuration passed to
+ * {@link YarnRenewableCredentialsFactory}, {@link UserRenewableCredentialsFactory} and
+ * {@link PassThroughCredentialsFactory}.
+ */
+public final class CredentialsFactoryConfigKeys {
+    /**
+     * Configuration key of maximum number of threads acquiring tokens. 16 by default.
+     */
+    public static final String MAX_THREADS_KEY = "briareus.credentials.max-threads";
+    /**
+     * Configuration key of maximum number of tasks acquiring tokens of single file system at once. 2 by default.
+     */
+    public static final String MAX_THREADS_PER_FILE_SYSTEM_KEY = "briareus.credentials.max-threads-per-file-system";
+    /**
+     * Configuration key of maximum number of token acquisition tasks waiting for execution.
+     * Tasks submitted above the limit fail. 1024 by default.
+     */
+    public static final String MAX_WAITING_TASKS_KEY = "briareus.credentials.max-waiting-tasks";
+
+    private CredentialsFactoryConfigKeys() {
+    }
+}
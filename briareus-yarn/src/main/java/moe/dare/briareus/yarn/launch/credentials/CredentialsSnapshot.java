@@ -0,0 +1,92 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import org.apache.hadoop.security.Credentials;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable credentials of containers. Serialized token storage is computed once and shared by all
+ * launch contexts created with snapshot. New snapshot with new version is created when tokens change.
+ */
+public final class CredentialsSnapshot {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static final CredentialsSnapshot EMPTY = new CredentialsSnapshot(new Credentials());
+
+    private final long version = VERSIONS.incrementAndGet();
+    private final Credentials credentials;
+    private volatile ByteBuffer tokenStorage;
+
+    private CredentialsSnapshot(Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+    /**
+     * @param credentials credentials which are not modified after this call
+     * @return snapshot of given credentials
+     */
+    public static CredentialsSnapshot of(Credentials credentials) {
+        return new CredentialsSnapshot(requireNonNull(credentials, "credentials"));
+    }
+
+    /**
+     * @return snapshot without tokens
+     */
+    public static CredentialsSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return version of snapshot, snapshots with different tokens have different versions
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return new copy of snapshot credentials
+     */
+    public Credentials credentials() {
+        return new Credentials(credentials);
+    }
+
+    /**
+     * @return read only buffer of serialized token storage
+     */
+    public ByteBuffer tokenStorage() {
+        ByteBuffer bytes = tokenStorage;
+        if (bytes == null) {
+            bytes = serialize();
+            tokenStorage = bytes;
+        }
+        return bytes.asReadOnlyBuffer();
+    }
+
+    boolean isOf(Credentials credentials) {
+        return this.credentials == credentials;
+    }
+
+    Credentials unsafeCredentials() {
+        return credentials;
+    }
+
+    private ByteBuffer serialize() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            credentials.writeTokenStorageToStream(new DataOutputStream(baos));
+            return ByteBuffer.wrap(baos.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write token storage to DataOutputStream backed by ByteArrayOutputStream", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialsSnapshot{version=" + version + ", tokens=" + credentials.numberOfTokens() + '}';
+    }
+}
@@ -0,0 +1,78 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Statistics of credentials factory since its creation.
+ */
+public final class CredentialsStats {
+    private final long requests;
+    private final long coalescedRequests;
+    private final int waitingTasks;
+    private final long rejectedTasks;
+    private final List<FileSystemCredentialsStats> fileSystems;
+
+    CredentialsStats(long requests, long coalescedRequests, int waitingTasks, long rejectedTasks,
+                     List<FileSystemCredentialsStats> fileSystems) {
+        this.requests = requests;
+        this.coalescedRequests = coalescedRequests;
+        this.waitingTasks = waitingTasks;
+        this.rejectedTasks = rejectedTasks;
+        this.fileSystems = requireNonNull(fileSystems, "fileSystems");
+    }
+
+    /**
+     * @return number of requests of tokens for single file system
+     */
+    public long requests() {
+        return requests;
+    }
+
+    /**
+     * @return number of requests joined to request of the same file system in progress
+     */
+    public long coalescedRequests() {
+        return coalescedRequests;
+    }
+
+    /**
+     * @return share of coalesced requests or zero if there were no requests
+     */
+    public double coalescingHitRate() {
+        return requests == 0 ? 0 : (double) coalescedRequests / requests;
+    }
+
+    /**
+     * @return number of token acquisition tasks submitted but not started
+     */
+    public int waitingTasks() {
+        return waitingTasks;
+    }
+
+    /**
+     * @return number of token acquisition tasks rejected because too many tasks were waiting
+     */
+    public long rejectedTasks() {
+        return rejectedTasks;
+    }
+
+    /**
+     * @return statistics of file systems tokens were requested for
+     */
+    public List<FileSystemCredentialsStats> fileSystems() {
+        return fileSystems;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialsStats{" +
+                "requests=" + requests +
+                ", coalescedRequests=" + coalescedRequests +
+                ", waitingTasks=" + waitingTasks +
+                ", rejectedTasks=" + rejectedTasks +
+                ", fileSystems=" + fileSystems +
+                '}';
+    }
+}
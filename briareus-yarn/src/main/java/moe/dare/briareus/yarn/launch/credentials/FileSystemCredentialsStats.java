@@ -0,0 +1,120 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Statistics of token acquisition for single file system.
+ */
+public final class FileSystemCredentialsStats {
+    private final URI fileSystem;
+    private final int waitingTasks;
+    private final Latency fetches;
+    private final Latency renewals;
+
+    FileSystemCredentialsStats(URI fileSystem, int waitingTasks, Latency fetches, Latency renewals) {
+        this.fileSystem = requireNonNull(fileSystem, "fileSystem");
+        this.waitingTasks = waitingTasks;
+        this.fetches = requireNonNull(fetches, "fetches");
+        this.renewals = requireNonNull(renewals, "renewals");
+    }
+
+    public URI fileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * @return number of tasks waiting because of per file system concurrency limit
+     */
+    public int waitingTasks() {
+        return waitingTasks;
+    }
+
+    /**
+     * @return latency of obtaining new delegation tokens
+     */
+    public Latency fetches() {
+        return fetches;
+    }
+
+    /**
+     * @return latency of renewing delegation tokens
+     */
+    public Latency renewals() {
+        return renewals;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSystemCredentialsStats{" +
+                "fileSystem=" + fileSystem +
+                ", waitingTasks=" + waitingTasks +
+                ", fetches=" + fetches +
+                ", renewals=" + renewals +
+                '}';
+    }
+
+    /**
+     * Latency of calls of one kind.
+     */
+    public static final class Latency {
+        private final long calls;
+        private final long failures;
+        private final Duration totalTime;
+        private final Duration maxTime;
+
+        Latency(long calls, long failures, Duration totalTime, Duration maxTime) {
+            this.calls = calls;
+            this.failures = failures;
+            this.totalTime = requireNonNull(totalTime, "totalTime");
+            this.maxTime = requireNonNull(maxTime, "maxTime");
+        }
+
+        /**
+         * @return number of calls including failed
+         */
+        public long calls() {
+            return calls;
+        }
+
+        /**
+         * @return number of failed calls
+         */
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * @return total time of all calls
+         */
+        public Duration totalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return time of the slowest call
+         */
+        public Duration maxTime() {
+            return maxTime;
+        }
+
+        /**
+         * @return average time of call or zero if there were no calls
+         */
+        public Duration averageTime() {
+            return calls == 0 ? Duration.ZERO : totalTime.dividedBy(calls);
+        }
+
+        @Override
+        public String toString() {
+            return "Latency{" +
+                    "calls=" + calls +
+                    ", failures=" + failures +
+                    ", totalTime=" + totalTime +
+                    ", maxTime=" + maxTime +
+                    '}';
+        }
+    }
+}
@@ -16,11 +16,20 @@ class FsKey {
         return new FsKey(entry.resource().getResource());
     }
 
+    static FsKey keyFor(URI fileSystemUri) {
+        return new FsKey(fileSystemUri.getScheme(), fileSystemUri.getUserInfo(), fileSystemUri.getHost(),
+                fileSystemUri.getPort());
+    }
+
     private FsKey(org.apache.hadoop.yarn.api.records.URL resource) {
-        this.scheme = resource.getScheme();
-        this.userInfo = resource.getUserInfo();
-        this.host = resource.getHost();
-        this.port = resource.getPort();
+        this(resource.getScheme(), resource.getUserInfo(), resource.getHost(), resource.getPort());
+    }
+
+    private FsKey(String scheme, String userInfo, String host, int port) {
+        this.scheme = scheme;
+        this.userInfo = userInfo;
+        this.host = host;
+        this.port = port;
     }
 
     URI toFsUri() throws URISyntaxException {
@@ -0,0 +1,215 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Executor with bounded number of threads, bounded number of running tasks per key and bounded number of waiting tasks.
+ * Tasks of a key exceeding its limit wait without holding threads, so slow key does not block tasks of other keys.
+ * Tasks submitted when too many tasks are waiting are rejected.
+ *
+ * @param <K> type of key
+ */
+final class KeyedExecutor<K> {
+    private final ThreadPoolExecutor executor;
+    private final int maxRunningPerKey;
+    private final int maxWaiting;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Guarded by itself.
+     */
+    private final Map<K, KeyQueue> queues = new HashMap<>();
+
+    /**
+     * @param threadFactory factory of executor threads
+     * @param maxThreads maximum number of threads
+     * @param maxRunningPerKey maximum number of running tasks of single key
+     * @param maxWaiting maximum number of tasks submitted but not started
+     */
+    KeyedExecutor(ThreadFactory threadFactory, int maxThreads, int maxRunningPerKey, int maxWaiting) {
+        if (maxThreads <= 0 || maxRunningPerKey <= 0 || maxWaiting <= 0) {
+            throw new IllegalArgumentException("Invalid executor limits: threads " + maxThreads +
+                    ", running per key " + maxRunningPerKey + ", waiting " + maxWaiting);
+        }
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), requireNonNull(threadFactory, "threadFactory"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.maxRunningPerKey = maxRunningPerKey;
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * Tasks canceled before start are not run. Cancelling returned future with interruption interrupts running task,
+     * so task blocked on interruptible operations frees its slot of key.
+     *
+     * @param key key of task
+     * @param task task to run
+     * @param <T> type of result
+     * @return future completed with result of task or failed with {@link RejectedExecutionException}
+     * if too many tasks are waiting or executor is shut down
+     */
+    <T> CompletableFuture<T> supply(K key, Supplier<T> task) {
+        requireNonNull(key, "key");
+        Job<T> job = new Job<>(requireNonNull(task, "task"));
+        if (waiting.incrementAndGet() > maxWaiting) {
+            return reject(job, new RejectedExecutionException("Too many tasks waiting: " + maxWaiting));
+        }
+        synchronized (queues) {
+            KeyQueue queue = queues.computeIfAbsent(key, any -> new KeyQueue());
+            if (queue.running < maxRunningPerKey) {
+                queue.running++;
+                dispatch(key, queue, job);
+            } else {
+                queue.waiting.add(job);
+            }
+        }
+        return job.future;
+    }
+
+    /**
+     * @return number of tasks submitted but not started
+     */
+    int waitingTasks() {
+        return waiting.get();
+    }
+
+    /**
+     * @param key key of tasks
+     * @return number of tasks of key waiting for execution because of key limit
+     */
+    int waitingTasks(K key) {
+        synchronized (queues) {
+            KeyQueue queue = queues.get(key);
+            return queue != null ? queue.waiting.size() : 0;
+        }
+    }
+
+    /**
+     * @return number of rejected tasks
+     */
+    long rejectedTasks() {
+        return rejected.get();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Must be called with lock of queues held.
+     */
+    private void dispatch(K key, KeyQueue queue, Job<?> job) {
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } finally {
+                    finished(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reject(job, e);
+            queue.waiting.forEach(waitingJob -> reject(waitingJob, e));
+            queue.waiting.clear();
+            if (--queue.running == 0) {
+                queues.remove(key);
+            }
+        }
+    }
+
+    private void finished(K key) {
+        synchronized (queues) {
+            KeyQueue queue = queues.get(key);
+            Job<?> next = queue.waiting.poll();
+            if (next != null) {
+                dispatch(key, queue, next);
+            } else if (--queue.running == 0) {
+                queues.remove(key);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> reject(Job<T> job, RejectedExecutionException e) {
+        if (job.started.compareAndSet(false, true)) {
+            waiting.decrementAndGet();
+        }
+        rejected.incrementAndGet();
+        job.future.completeExceptionally(e);
+        return job.future;
+    }
+
+    private final class KeyQueue {
+        private final Queue<Job<?>> waiting = new ArrayDeque<>();
+        private int running;
+    }
+
+    private final class Job<T> {
+        private final CompletableFuture<T> future = new JobFuture();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final Supplier<T> task;
+        /**
+         * Thread running task or null if task is not running. Guarded by this job.
+         */
+        private Thread runner;
+
+        private Job(Supplier<T> task) {
+            this.task = task;
+        }
+
+        private void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            waiting.decrementAndGet();
+            synchronized (this) {
+                if (future.isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // interruption of cancelled task must not leak to next task of thread
+                Thread.interrupted();
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        private final class JobFuture extends CompletableFuture<T> {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled && mayInterruptIfRunning) {
+                    interrupt();
+                }
+                return cancelled;
+            }
+        }
+    }
+}
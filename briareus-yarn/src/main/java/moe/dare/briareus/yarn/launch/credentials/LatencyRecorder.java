@@ -0,0 +1,45 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Accumulates latency of calls of one kind.
+ */
+final class LatencyRecorder {
+    private long calls;
+    private long failures;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * @param call call to time
+     * @param <T> type of result
+     * @return result of call
+     */
+    <T> T record(Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean successful = false;
+        try {
+            T result = call.get();
+            successful = true;
+            return result;
+        } finally {
+            record(System.nanoTime() - start, successful);
+        }
+    }
+
+    private synchronized void record(long nanos, boolean successful) {
+        calls++;
+        if (!successful) {
+            failures++;
+        }
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    synchronized FileSystemCredentialsStats.Latency latency() {
+        return new FileSystemCredentialsStats.Latency(calls, failures,
+                Duration.ofNanos(totalNanos), Duration.ofNanos(maxNanos));
+    }
+}
@@ -0,0 +1,265 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import moe.dare.briareus.api.BriareusException;
+import moe.dare.briareus.api.RemoteJvmOptions;
+import moe.dare.briareus.common.concurrent.CompletableFutures;
+import moe.dare.briareus.common.concurrent.ThreadFactoryBuilder;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import moe.dare.briareus.yarn.launch.files.UploadedEntry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * CredentialsFactory which passes tokens the JVM was launched with to containers. Used by sensei which
+ * often can't obtain delegation tokens itself. Tokens are matched to file systems of uploaded files
+ * by canonical service name, so no name node requests are made. File systems without service name do not need tokens.
+ * Tokens of file systems without matching token are obtained by fallback factory. Launch tokens can't be renewed
+ * by this factory, so fallback factory is also used once matched tokens are close to their max date.
+ * <br>Not used by default: sensei passes only its {@code AMRMToken} to containers unless this factory is set
+ * as credentials factory of {@link moe.dare.briareus.yarn.launch.LaunchContextFactory}.
+ *
+ * @see CredentialsFactoryConfigKeys
+ */
+public class PassThroughCredentialsFactory extends CredentialsFactoryBase {
+    private static final Logger log = LoggerFactory.getLogger(PassThroughCredentialsFactory.class);
+    private static final ThreadFactory THREAD_FACTORY = ThreadFactoryBuilder
+            .withPrefix("Pass-through-credentials-factory-thread-").deamon(true).build();
+    /**
+     * Launch tokens are not passed to containers if they expire earlier than this time from now.
+     */
+    private static final Duration MIN_REMAINING_VALIDITY = Duration.ofHours(1);
+
+    private final Credentials launchTokens;
+    private final Supplier<UserGroupInformation> user;
+    private final CredentialsFactory fallback;
+    private final Clock clock;
+    /**
+     * Launch tokens matched to file systems. Failed matches are not cached and retried on next call.
+     */
+    private final ConcurrentMap<FsKey, MatchedTokens> passedTokens = new ConcurrentHashMap<>();
+
+    /**
+     * Reads tokens from file set by {@value UserGroupInformation#HADOOP_TOKEN_FILE_LOCATION} environment variable.
+     *
+     * @param user user to resolve file systems of uploaded files.
+     * @param conf yarn/hdfs configuration.
+     * @param fallback factory obtaining tokens of unknown file systems and replacing expiring launch tokens
+     *                 or null to fail on unknown file systems. Closed with this factory.
+     * @return new credentials factory.
+     */
+    public static CredentialsFactory fromTokenFile(Supplier<UserGroupInformation> user, Configuration conf,
+                                                   @Nullable CredentialsFactory fallback) {
+        String tokenFile = System.getenv(UserGroupInformation.HADOOP_TOKEN_FILE_LOCATION);
+        if (tokenFile == null) {
+            throw new BriareusException("Environment variable " + UserGroupInformation.HADOOP_TOKEN_FILE_LOCATION + " not set");
+        }
+        Credentials tokens;
+        try {
+            tokens = Credentials.readTokenStorageFile(new File(tokenFile), conf);
+        } catch (IOException e) {
+            throw new BriareusException("Can't read credentials from token file " + tokenFile, e);
+        }
+        return create(tokens, user, conf, null, fallback);
+    }
+
+    /**
+     * @param launchTokens tokens passed to containers. Not modified by factory.
+     * @param user user to resolve file systems of uploaded files.
+     * @param conf yarn/hdfs configuration.
+     * @param fileSystems pool of file systems or null to use own pool. Not closed by factory.
+     * @param fallback factory obtaining tokens of unknown file systems and replacing expiring launch tokens
+     *                 or null to fail on unknown file systems. Closed with this factory.
+     * @return new credentials factory.
+     */
+    public static CredentialsFactory create(Credentials launchTokens, Supplier<UserGroupInformation> user,
+                                            Configuration conf, @Nullable FileSystemPool fileSystems,
+                                            @Nullable CredentialsFactory fallback) {
+        return create(launchTokens, user, conf, fileSystems, fallback, Clock.systemUTC());
+    }
+
+    static CredentialsFactory create(Credentials launchTokens, Supplier<UserGroupInformation> user,
+                                     Configuration conf, @Nullable FileSystemPool fileSystems,
+                                     @Nullable CredentialsFactory fallback, Clock clock) {
+        return new PassThroughCredentialsFactory(launchTokens, user, conf, fileSystems, fallback, clock);
+    }
+
+    private PassThroughCredentialsFactory(Credentials launchTokens, Supplier<UserGroupInformation> user,
+                                          Configuration conf, @Nullable FileSystemPool fileSystems,
+                                          @Nullable CredentialsFactory fallback, Clock clock) {
+        super(fileSystems, requireNonNull(conf, "conf"), THREAD_FACTORY);
+        this.launchTokens = new Credentials(requireNonNull(launchTokens, "launchTokens"));
+        this.user = requireNonNull(user, "user");
+        this.fallback = fallback;
+        this.clock = requireNonNull(clock, "clock");
+    }
+
+    @Override
+    protected CompletableFuture<CredentialsSnapshot> snapshot(FsKey fsKey, RemoteJvmOptions options,
+                                                              Collection<UploadedEntry> entries) {
+        if (fallback == null) {
+            return super.snapshot(fsKey, options, entries);
+        }
+        return matchedTokens(fsKey).thenCompose(matched -> hasUsableLaunchTokens(fsKey, matched)
+                ? super.snapshot(fsKey, options, entries)
+                : fallback.snapshot(options, entries).toCompletableFuture());
+    }
+
+    @Override
+    public void prefetch(Collection<URI> fileSystemUris) {
+        if (fallback == null) {
+            super.prefetch(fileSystemUris);
+            return;
+        }
+        for (URI uri : fileSystemUris) {
+            FsKey fsKey = FsKey.keyFor(uri);
+            matchedTokens(fsKey).whenComplete((matched, e) -> {
+                if (e != null) {
+                    log.debug("Can't prefetch tokens for {}", fsKey, e);
+                } else if (!hasUsableLaunchTokens(fsKey, matched)) {
+                    fallback.prefetch(Collections.singletonList(uri));
+                }
+            });
+        }
+    }
+
+    /**
+     * @return launch tokens of file system. Fails if launch tokens of file system are not found or expired.
+     */
+    @Override
+    protected CompletableFuture<Credentials> tokens(@NotNull FsKey fsKey) {
+        return matchedTokens(fsKey).thenCompose(matched -> launchTokens(fsKey, matched));
+    }
+
+    private CompletableFuture<Credentials> launchTokens(FsKey fsKey, @Nullable MatchedTokens matched) {
+        if (matched == null || matched.tokens == null) {
+            return CompletableFutures.failedCompletableFuture(new BriareusException("No tokens for " + fsKey));
+        }
+        Instant now = clock.instant();
+        if (!matched.isValidAt(now.plus(MIN_REMAINING_VALIDITY))) {
+            if (!matched.isValidAt(now)) {
+                return CompletableFutures.failedCompletableFuture(
+                        new BriareusException("Launch tokens for " + fsKey + " expired at " + matched.maxDate));
+            }
+            log.warn("Launch tokens for {} expire soon at {}", fsKey, matched.maxDate);
+        }
+        return CompletableFuture.completedFuture(matched.tokens);
+    }
+
+    /**
+     * @return true if launch tokens of file system are found and not close to their max date
+     */
+    private boolean hasUsableLaunchTokens(FsKey fsKey, @Nullable MatchedTokens matched) {
+        if (matched == null || matched.tokens == null) {
+            return false;
+        }
+        if (matched.isValidAt(clock.instant().plus(MIN_REMAINING_VALIDITY))) {
+            return true;
+        }
+        log.debug("Launch tokens for {} expire at {}, using fallback factory", fsKey, matched.maxDate);
+        return false;
+    }
+
+    /**
+     * File system is created to resolve its service name, so tokens are matched on executor of factory.
+     *
+     * @return future completed with matched tokens or null if service name of file system can't be resolved
+     */
+    private CompletableFuture<MatchedTokens> matchedTokens(FsKey fsKey) {
+        MatchedTokens matched = passedTokens.get(fsKey);
+        if (matched != null) {
+            return CompletableFuture.completedFuture(matched);
+        }
+        return supplyAsync(fsKey, () -> passedTokens.computeIfAbsent(fsKey, this::matchTokens));
+    }
+
+    /**
+     * @return matched tokens or null if service name of file system can't be resolved
+     */
+    @Nullable
+    private MatchedTokens matchTokens(FsKey fsKey) {
+        String service;
+        try (FileSystemPool.Handle handle = fileSystems().acquire(user.get(), fsKey.toFsUri())) {
+            service = handle.fileSystem().getCanonicalServiceName();
+        } catch (Exception e) {
+            log.warn("Can't resolve service name of {}", fsKey, e);
+            return null;
+        }
+        if (service == null) {
+            log.debug("File system {} does not use tokens", fsKey);
+            return MatchedTokens.NO_TOKENS_NEEDED;
+        }
+        Text serviceName = new Text(service);
+        Credentials matched = new Credentials();
+        Instant maxDate = null;
+        for (Token<? extends TokenIdentifier> token : launchTokens.getAllTokens()) {
+            if (serviceName.equals(token.getService())) {
+                matched.addToken(token.getService(), token);
+                Instant tokenMaxDate = tokenMaxExpirationTime(token).orElse(null);
+                if (tokenMaxDate != null && (maxDate == null || tokenMaxDate.isBefore(maxDate))) {
+                    maxDate = tokenMaxDate;
+                }
+            }
+        }
+        if (matched.numberOfTokens() == 0) {
+            log.info("No launch tokens for {} with service {}", fsKey, service);
+            return MatchedTokens.NOT_FOUND;
+        }
+        log.info("Passing {} launch tokens to containers for {}", matched.numberOfTokens(), fsKey);
+        return new MatchedTokens(matched, maxDate);
+    }
+
+    @Override
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+        }
+        super.close();
+    }
+
+    private static final class MatchedTokens {
+        private static final MatchedTokens NO_TOKENS_NEEDED = new MatchedTokens(new Credentials(), null);
+        private static final MatchedTokens NOT_FOUND = new MatchedTokens(null, null);
+
+        /**
+         * Tokens of file system or null if launch tokens have no tokens of file system.
+         */
+        private final Credentials tokens;
+        /**
+         * Earliest max date of matched tokens or null if unknown.
+         */
+        private final Instant maxDate;
+
+        private MatchedTokens(@Nullable Credentials tokens, @Nullable Instant maxDate) {
+            this.tokens = tokens;
+            this.maxDate = maxDate;
+        }
+
+        private boolean isValidAt(Instant time) {
+            return maxDate == null || time.isBefore(maxDate);
+        }
+    }
+}
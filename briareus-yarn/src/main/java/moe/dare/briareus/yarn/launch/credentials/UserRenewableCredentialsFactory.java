@@ -2,13 +2,14 @@ package moe.dare.briareus.yarn.launch.credentials;
 
 import moe.dare.briareus.api.BriareusException;
 import moe.dare.briareus.common.concurrent.ThreadFactoryBuilder;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.security.token.TokenIdentifier;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +25,8 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
 
+import static java.util.Objects.requireNonNull;
+
 public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
     private static final Logger log = LoggerFactory.getLogger(UserRenewableCredentialsFactory.class);
     private static final ThreadFactory THREAD_FACTORY = ThreadFactoryBuilder
@@ -38,21 +41,37 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
     private final Supplier<UserGroupInformation> user;
     private final Clock clock;
     private final ScheduledExecutorService scheduler;
-    private final ExecutorService asyncExecutor;
 
     public static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf) {
         return create(user, conf, Clock.systemUTC());
     }
 
+    /**
+     * @param user user to obtain delegation tokens
+     * @param conf hdfs configuration
+     * @param fileSystems pool of file systems used to obtain tokens. Not closed by factory.
+     * @return new credentials factory
+     */
+    public static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                            FileSystemPool fileSystems) {
+        return create(user, conf, requireNonNull(fileSystems, "fileSystems"), Clock.systemUTC());
+    }
+
     static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf, Clock clock) {
-        return new UserRenewableCredentialsFactory(user, conf, clock);
+        return create(user, conf, null, clock);
+    }
+
+    static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                     @Nullable FileSystemPool fileSystems, Clock clock) {
+        return new UserRenewableCredentialsFactory(user, conf, fileSystems, clock);
     }
 
-    private UserRenewableCredentialsFactory(Supplier<UserGroupInformation> user, Configuration conf, Clock clock) {
+    private UserRenewableCredentialsFactory(Supplier<UserGroupInformation> user, Configuration conf,
+                                            @Nullable FileSystemPool fileSystems, Clock clock) {
+        super(fileSystems, conf, THREAD_FACTORY);
         this.conf = conf;
         this.user = user;
         this.clock = clock;
-        this.asyncExecutor = Executors.newCachedThreadPool(THREAD_FACTORY);
         this.scheduler = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
     }
 
@@ -61,14 +80,14 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
         UserCredentialsHolder holder = credentialsCache.computeIfAbsent(fsKey, UserCredentialsHolder::new);
         return holder.getOptimistic()
                 .map(CompletableFuture::completedFuture)
-                .orElseGet(() -> CompletableFuture.supplyAsync(holder::get, asyncExecutor));
+                .orElseGet(() -> supplyAsync(fsKey, holder::get));
     }
 
     @Override
     public void close() {
         scheduler.shutdown();
-        asyncExecutor.shutdown();
         credentialsCache.clear();
+        super.close();
     }
 
     private class UserCredentialsHolder {
@@ -78,6 +97,9 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
         private Credentials credentials;
         private Instant expiresAt;
         private Instant maxLifeTime;
+        /**
+         * Scheduled or submitted renewal. Cancelled with interruption, so renewal waiting for lock does not run.
+         */
         private Future<?> scheduledRenew;
 
         private UserCredentialsHolder(FsKey fsKey) {
@@ -91,7 +113,7 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
             if (readLock.tryLock()) {
                 try {
                     if (areValid()) {
-                        return Optional.of(new Credentials(credentials));
+                        return Optional.of(credentials);
                     }
                 } finally {
                     readLock.unlock();
@@ -104,7 +126,7 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
             readLock.lock();
             try {
                 if (areValid()) {
-                    return new Credentials(credentials);
+                    return credentials;
                 }
             } finally {
                 readLock.unlock();
@@ -119,17 +141,17 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
 
         private Credentials getOrCreate() {
             if (areValid()) {
-                return new Credentials(credentials);
+                return credentials;
             }
             if (scheduledRenew != null) {
                 scheduledRenew.cancel(true);
                 scheduledRenew = null;
             }
             if (tryRenew()) {
-                return new Credentials(credentials);
+                return credentials;
             }
             createNew();
-            return new Credentials(credentials);
+            return credentials;
         }
 
         private boolean areValid() {
@@ -138,15 +160,15 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
 
         private void createNew() {
             UserGroupInformation ugi = user.get();
-            credentials = ugi.doAs((PrivilegedAction<Credentials>)() -> {
-                try (FileSystem fs = FileSystem.newInstance(fsKey.toFsUri(), conf)) {
+            credentials = recordFetch(fsKey, () -> ugi.doAs((PrivilegedAction<Credentials>)() -> {
+                try (FileSystemPool.Handle handle = fileSystems().acquire(ugi, fsKey.toFsUri())) {
                     Credentials creds = new Credentials();
-                    fs.addDelegationTokens(ugi.getUserName(), creds);
+                    handle.fileSystem().addDelegationTokens(ugi.getUserName(), creds);
                     return creds;
                 } catch (Exception e) {
                     throw new BriareusException("Can't create delegation tokens for: " + fsKey, e);
                 }
-            });
+            }));
             boolean needRenew = credentials.getAllTokens().stream().anyMatch(t -> {
                 try {
                     return t.isManaged();
@@ -172,16 +194,7 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
             }
             return user.get().doAs((PrivilegedAction<Boolean>) () -> {
                 try {
-                    Instant newExpiration = maxLifeTime;
-                    for (Token<? extends TokenIdentifier> token : credentials.getAllTokens()) {
-                        if (token.isManaged()) {
-                            Instant tokenExpiration = Instant.ofEpochMilli(token.renew(conf));
-                            if (tokenExpiration.compareTo(newExpiration) < 0) {
-                                newExpiration = tokenExpiration;
-                            }
-                        }
-                    }
-                    expiresAt = newExpiration;
+                    expiresAt = recordRenew(fsKey, this::renewTokens);
                     mayBeScheduleRenew();
                     log.debug("Renewed credentials for {}", fsKey);
                     return true;
@@ -195,6 +208,23 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
             });
         }
 
+        private Instant renewTokens() {
+            try {
+                Instant newExpiration = maxLifeTime;
+                for (Token<? extends TokenIdentifier> token : credentials.getAllTokens()) {
+                    if (token.isManaged()) {
+                        Instant tokenExpiration = Instant.ofEpochMilli(token.renew(conf));
+                        if (tokenExpiration.compareTo(newExpiration) < 0) {
+                            newExpiration = tokenExpiration;
+                        }
+                    }
+                }
+                return newExpiration;
+            } catch (Exception e) {
+                throw new BriareusException("Can't renew delegation tokens for: " + fsKey, e);
+            }
+        }
+
         private void mayBeScheduleRenew() {
             if (maxLifeTime != null && expiresAt.isAfter(maxLifeTime.minus(DELAY_UNTIL_MAX_LIFETIME_FOR_RENEW))) {
                 return;
@@ -221,15 +251,15 @@ public class UserRenewableCredentialsFactory extends CredentialsFactoryBase {
                 return;
             }
             try {
-                scheduledRenew = asyncExecutor.submit(() -> {
+                scheduledRenew = supplyAsync(fsKey, () -> {
                     try {
                         writeLock.lockInterruptibly();
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
-                        return;
+                        return null;
                     }
                     try {
-                        tryRenew();
+                        return tryRenew();
                     } finally {
                         writeLock.unlock();
                     }
@@ -2,21 +2,24 @@ package moe.dare.briareus.yarn.launch.credentials;
 
 import moe.dare.briareus.api.BriareusException;
 import moe.dare.briareus.common.concurrent.ThreadFactoryBuilder;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.UserGroupInformation.AuthenticationMethod;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URI;
 import java.security.PrivilegedAction;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Optional;
 import java.util.concurrent.*;
@@ -27,21 +30,33 @@ import static java.util.Objects.requireNonNull;
 
 /**
  * CredentialsFactory which obtains delegation tokens for uploaded files
+ *
+ * @see CredentialsFactoryConfigKeys
  */
 public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
     private static final Logger log = LoggerFactory.getLogger(YarnRenewableCredentialsFactory.class);
     private static final Duration MAX_TOKEN_VALIDITY_PERIOD = Duration.ofHours(11);
     private static final Duration MIN_TOKEN_VALIDITY_PERIOD = Duration.ofMinutes(5);
     private static final Duration TOKEN_MAX_TIME_VALIDITY_OFFSET = Duration.ofHours(1);
+    private static final Duration MIN_REFRESH_RETRY_DELAY = Duration.ofSeconds(10);
+    private static final Duration MAX_REFRESH_RETRY_DELAY = Duration.ofMinutes(1);
     private static final ThreadFactory THREAD_FACTORY = ThreadFactoryBuilder
             .withPrefix("Yarn-renewable-credentials-factory-thread-").deamon(true).build();
+    private static final ThreadFactory REFRESHER_THREAD_FACTORY = ThreadFactoryBuilder
+            .withPrefix("Yarn-renewable-credentials-refresher-").deamon(true).build();
+
+    /**
+     * Recommended time before expiration of cached tokens when they are refreshed in background.
+     */
+    public static final Duration RECOMMENDED_REFRESH_MARGIN = Duration.ofMinutes(30);
 
     private final ConcurrentMap<FsKey, CredentialsHolder> credentialsCache = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool(THREAD_FACTORY);
+    private final ScheduledExecutorService refresher;
     private final Supplier<UserGroupInformation> user;
     private final Configuration conf;
     private final String rmPrincipal;
     private final Clock clock;
+    private final Duration refreshMargin;
 
     /**
      * @param user user to obtain delegation tokens.
@@ -52,14 +67,76 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
         return create(user, conf, Clock.systemUTC());
     }
 
+    /**
+     * @param user user to obtain delegation tokens.
+     * @param conf yarn/hdfs configuration.
+     * @param fileSystems pool of file systems used to obtain tokens. Not closed by factory.
+     * @return new credentials factory.
+     */
+    public static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                            FileSystemPool fileSystems) {
+        return create(user, conf, requireNonNull(fileSystems, "fileSystems"), Clock.systemUTC());
+    }
+
+    /**
+     * Creates factory with configured background refresh of tokens. Factories created by other methods
+     * do not refresh tokens in background and obtain tokens only when they are requested.
+     * <p>
+     * Cached tokens of file systems used by launched containers are refreshed in background
+     * some time before they expire, so launches do not wait for new tokens. Tokens not requested since
+     * they were obtained or last refreshed are not refreshed and are obtained again on next request.
+     * Tokens of given file systems are obtained right away and kept refreshed even if they are not used.
+     * Failures to obtain them are logged and tokens are obtained again on first request.
+     *
+     * @param user user to obtain delegation tokens.
+     * @param conf yarn/hdfs configuration.
+     * @param fileSystems pool of file systems used to obtain tokens or null to use own pool. Not closed by factory.
+     * @param refreshMargin time before expiration of cached tokens when they are refreshed, zero to disable refresh.
+     *                      Bounded by half of tokens validity period. See {@link #RECOMMENDED_REFRESH_MARGIN}.
+     * @param prewarmFileSystems uris of file systems tokens of which are obtained on creation
+     * @return new credentials factory.
+     */
+    public static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                            @Nullable FileSystemPool fileSystems, Duration refreshMargin,
+                                            Collection<URI> prewarmFileSystems) {
+        requireNonNull(refreshMargin, "refreshMargin");
+        if (refreshMargin.isNegative()) {
+            throw new IllegalArgumentException("Refresh margin must not be negative: " + refreshMargin);
+        }
+        YarnRenewableCredentialsFactory factory = new YarnRenewableCredentialsFactory(user, conf, fileSystems,
+                Clock.systemUTC(), refreshMargin, Executors.newSingleThreadScheduledExecutor(REFRESHER_THREAD_FACTORY));
+        factory.prewarm(requireNonNull(prewarmFileSystems, "prewarmFileSystems"));
+        return factory;
+    }
+
     static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf, Clock clock) {
-        return new YarnRenewableCredentialsFactory(user, conf, clock);
+        return create(user, conf, null, clock);
+    }
+
+    static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                     @Nullable FileSystemPool fileSystems, Clock clock) {
+        return create(user, conf, fileSystems, clock, Duration.ZERO,
+                Executors.newSingleThreadScheduledExecutor(REFRESHER_THREAD_FACTORY));
+    }
+
+    /**
+     * @param refresher executor scheduling refreshes of tokens. Shut down by factory.
+     */
+    static CredentialsFactory create(Supplier<UserGroupInformation> user, Configuration conf,
+                                     @Nullable FileSystemPool fileSystems, Clock clock, Duration refreshMargin,
+                                     ScheduledExecutorService refresher) {
+        return new YarnRenewableCredentialsFactory(user, conf, fileSystems, clock, refreshMargin, refresher);
     }
 
-    private YarnRenewableCredentialsFactory(Supplier<UserGroupInformation> user, Configuration conf, Clock clock) {
+    private YarnRenewableCredentialsFactory(Supplier<UserGroupInformation> user, Configuration conf,
+                                            @Nullable FileSystemPool fileSystems, Clock clock, Duration refreshMargin,
+                                            ScheduledExecutorService refresher) {
+        super(fileSystems, requireNonNull(conf, "conf"), THREAD_FACTORY);
         this.user = requireNonNull(user, "user");
         this.conf = requireNonNull(conf, "conf");
         this.clock = requireNonNull(clock, "clock");
+        this.refreshMargin = requireNonNull(refreshMargin, "refreshMargin");
+        this.refresher = requireNonNull(refresher, "refresher");
         this.rmPrincipal = conf.get(YarnConfiguration.RM_PRINCIPAL);
         if (rmPrincipal == null || rmPrincipal.isEmpty()) {
             AuthenticationMethod authenticationMethod = SecurityUtil.getAuthenticationMethod(conf);
@@ -75,12 +152,26 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
         CredentialsHolder holder = credentialsCache.computeIfAbsent(fsKey, CredentialsHolder::new);
         return holder.getCredentialsOptimistic()
                 .map(CompletableFuture::completedFuture)
-                .orElseGet(() -> CompletableFuture.supplyAsync(holder::getOrCreateCredentials, executor));
+                .orElseGet(() -> supplyAsync(fsKey, holder::getOrCreateCredentials));
+    }
+
+    private void prewarm(Collection<URI> fileSystemUris) {
+        for (URI uri : fileSystemUris) {
+            FsKey fsKey = FsKey.keyFor(uri);
+            CredentialsHolder holder = credentialsCache.computeIfAbsent(fsKey, CredentialsHolder::new);
+            holder.pinned = true;
+            supplyAsync(fsKey, holder::getOrCreateCredentials).whenComplete((unused, e) -> {
+                if (e != null) {
+                    log.warn("Can't prewarm tokens for {}", fsKey, e);
+                }
+            });
+        }
     }
 
     @Override
     public void close() {
-        executor.shutdown();
+        refresher.shutdownNow();
+        super.close();
     }
 
     private class CredentialsHolder {
@@ -88,6 +179,15 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
         private final FsKey fsKey;
         private volatile Credentials credentials;
         private volatile Instant validTo = Instant.MIN;
+        /**
+         * Set when cached credentials are requested. Tokens of unused file systems are not refreshed.
+         */
+        private volatile boolean used;
+        private volatile boolean pinned;
+        /**
+         * Next refresh of tokens or null if refresh is not scheduled. Guarded by write lock.
+         */
+        private ScheduledFuture<?> scheduledRefresh;
 
         private CredentialsHolder(FsKey fsKey) {
             this.fsKey = fsKey;
@@ -97,6 +197,7 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
             long optLock = lock.tryOptimisticRead();
             Credentials currentCredentials = credentials;
             if (isValid() && lock.validate(optLock)) {
+                used = true;
                 return Optional.ofNullable(currentCredentials);
             }
             return Optional.empty();
@@ -118,7 +219,7 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
             long writeLock = lock.writeLock();
             try {
                 if (!isValid()) {
-                    createNewTokens();
+                    install(fetchTokens());
                 }
                 return credentials;
             } finally {
@@ -126,18 +227,89 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
             }
         }
 
-        private void createNewTokens() {
+        /**
+         * Replaces tokens before they expire. Tokens are fetched without holding lock,
+         * so launches are served with current tokens meanwhile.
+         */
+        private void refresh() {
+            if (!used && !pinned) {
+                log.debug("Tokens for {} were not used since last refresh. Refresh skipped", fsKey);
+                return;
+            }
+            used = false;
+            Credentials refreshedTokens = credentials;
+            Credentials newTokens;
+            try {
+                newTokens = fetchTokens();
+            } catch (RuntimeException e) {
+                long writeLock = lock.writeLock();
+                try {
+                    retryRefresh(refreshedTokens, e);
+                } finally {
+                    lock.unlockWrite(writeLock);
+                }
+                return;
+            }
+            long writeLock = lock.writeLock();
+            try {
+                install(newTokens);
+            } finally {
+                lock.unlockWrite(writeLock);
+            }
+        }
+
+        /**
+         * Must be called with write lock held.
+         */
+        private void retryRefresh(Credentials refreshedTokens, RuntimeException error) {
+            if (credentials != refreshedTokens) {
+                log.warn("Can't refresh tokens for {}. Tokens were replaced meanwhile", fsKey, error);
+                return;
+            }
+            Duration remaining = Duration.between(clock.instant(), validTo);
+            if (remaining.compareTo(MIN_REFRESH_RETRY_DELAY) > 0) {
+                log.warn("Can't refresh tokens for {}. Will retry", fsKey, error);
+                scheduleRefresh(min(MAX_REFRESH_RETRY_DELAY, remaining.dividedBy(2)));
+            } else {
+                log.warn("Can't refresh tokens for {}. They will be obtained on next request", fsKey, error);
+            }
+        }
+
+        private void submitRefresh() {
+            supplyAsync(fsKey, () -> {
+                refresh();
+                return null;
+            }).whenComplete((unused, e) -> {
+                if (e != null) {
+                    log.warn("Can't refresh tokens for {}. They will be obtained on next request", fsKey, e);
+                }
+            });
+        }
+
+        private Credentials fetchTokens() {
+            return recordFetch(fsKey, this::fetchTokensAsUser);
+        }
+
+        private Credentials fetchTokensAsUser() {
             Credentials newTokens = new Credentials();
-            user.get().doAs((PrivilegedAction<Void>) () -> {
+            UserGroupInformation ugi = user.get();
+            ugi.doAs((PrivilegedAction<Void>) () -> {
                 try {
-                    try (FileSystem fs = FileSystem.newInstance(fsKey.toFsUri(), conf)) {
-                        fs.addDelegationTokens(rmPrincipal, newTokens);
+                    try (FileSystemPool.Handle handle = fileSystems().acquire(ugi, fsKey.toFsUri())) {
+                        handle.fileSystem().addDelegationTokens(rmPrincipal, newTokens);
                     }
                 } catch (Exception e) {
                     throw new BriareusException("Can't obtain delegation tokens for " + fsKey, e);
                 }
                 return null;
             });
+            return newTokens;
+        }
+
+        /**
+         * Must be called with write lock held.
+         */
+        private void install(Credentials newTokens) {
             Instant now = clock.instant();
             Instant validToLowerBound = now.plus(MIN_TOKEN_VALIDITY_PERIOD);
             Instant validToUpperBound = now.plus(MAX_TOKEN_VALIDITY_PERIOD);
@@ -151,6 +323,27 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
                     .orElse(validToUpperBound);
             credentials = newTokens;
             log.info("Created new tokens for {}. Cached till {}", fsKey, validTo);
+            if (!refreshMargin.isZero()) {
+                Duration validity = Duration.between(now, validTo);
+                scheduleRefresh(validity.minus(min(refreshMargin, validity.dividedBy(2))));
+            }
+        }
+
+        /**
+         * Replaces pending refresh, so single chain of refreshes is scheduled for file system.
+         * Must be called with write lock held.
+         */
+        private void scheduleRefresh(Duration delay) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+            try {
+                scheduledRefresh = refresher.schedule(this::submitRefresh, delay.toMillis(), TimeUnit.MILLISECONDS);
+                log.debug("Tokens for {} will be refreshed in {}", fsKey, delay);
+            } catch (RejectedExecutionException e) {
+                log.debug("Factory closed. Tokens for {} will not be refreshed", fsKey);
+            }
         }
 
         private Instant boundToRange(Instant value, Instant lowerBound, Instant upperBound) {
@@ -167,4 +360,8 @@ public class YarnRenewableCredentialsFactory extends CredentialsFactoryBase {
             return clock.instant().isBefore(validTo);
         }
     }
+
+    private static Duration min(Duration first, Duration second) {
+        return first.compareTo(second) <= 0 ? first : second;
+    }
 }
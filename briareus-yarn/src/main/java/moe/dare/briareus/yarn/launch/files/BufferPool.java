@@ -0,0 +1,44 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of copy buffers. Reduces garbage produced by concurrent uploads of many files.
+ */
+final class BufferPool {
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int maxPooled;
+
+    BufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @param size required buffer size
+     * @return buffer of exactly given size
+     */
+    byte[] acquire(int size) {
+        byte[] buffer;
+        while ((buffer = buffers.poll()) != null) {
+            pooled.decrementAndGet();
+            if (buffer.length == size) {
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * @param buffer buffer no longer used by caller
+     */
+    void release(byte[] buffer) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
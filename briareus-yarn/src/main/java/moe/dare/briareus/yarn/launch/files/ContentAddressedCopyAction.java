@@ -0,0 +1,76 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Copies file source to the content store unless store already contains file with the same content.
+ * Digest of source is computed locally before upload, so content found in store is not uploaded at all.
+ * Otherwise source is uploaded to its target path, verified against digest of actually uploaded bytes
+ * and moved into the store. Source uploaded in parts is verified by digests of parts computed before upload.
+ */
+final class ContentAddressedCopyAction implements UploadAction {
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedCopyAction.class);
+
+    private final CopyAction copyAction;
+    private final ContentStore store;
+    private final String extension;
+    private volatile String checksum;
+
+    ContentAddressedCopyAction(CopyAction copyAction, ContentStore store, String extension) {
+        this.copyAction = requireNonNull(copyAction, "copy action");
+        this.store = requireNonNull(store, "content store");
+        this.extension = requireNonNull(extension, "extension");
+    }
+
+    @Override
+    public LocalResource run() throws IOException {
+        try (FileSystemPool.Handle handle = copyAction.fileSystem()) {
+            return run(handle.fileSystem());
+        }
+    }
+
+    LocalResource run(FileSystem fs) throws IOException {
+        EntryUploadTracker tracker = copyAction.tracker();
+        tracker.copyStarted();
+        Path uploaded = fs.makeQualified(copyAction.target());
+        CopyAction.ContentDigest digest = copyAction.newDigest(fs, uploaded);
+        long length = copyAction.digest(digest, CopyAction.bufferSize(fs));
+        checksum = digest.checksum();
+        String storeName = checksum + extension;
+        Optional<FileStatus> stored = store.lookup(fs, storeName, length);
+        if (stored.isPresent()) {
+            log.debug("Content of {} found in {} as {}", copyAction.source(), store, storeName);
+            tracker.contentStoreHit();
+            tracker.copyFinished();
+            return resource(stored.get());
+        }
+        CopyAction.ContentDigest uploadDigest = copyAction.newDigest(fs, uploaded);
+        long uploadedLength = copyAction.write(fs, uploaded, uploadDigest);
+        tracker.copyFinished();
+        if (uploadedLength != length || !digest.matches(uploadDigest)) {
+            store.discard(fs, uploaded);
+            throw new IOException("Content of " + copyAction.source() + " changed during upload");
+        }
+        return resource(store.store(fs, uploaded, storeName, length));
+    }
+
+    @Override
+    public Optional<String> checksum() {
+        return Optional.ofNullable(checksum);
+    }
+
+    private LocalResource resource(FileStatus status) {
+        return copyAction.resource(status.getPath(), status.getLen(), status.getModificationTime());
+    }
+}
@@ -0,0 +1,234 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.BriareusException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedAction;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Directory with files named by digest of their content.
+ * Manifest of stored files is loaded with single listing on open and then kept up to date by this instance.
+ * Names missing from manifest are looked up without requests, files stored by others meanwhile are found
+ * when upload is moved into store. Files found in manifest are verified on lookup, as they may be deleted
+ * or replaced by others.
+ * Public store is world readable so its files may be localized with {@link LocalResourceVisibility#PUBLIC} visibility.
+ */
+final class ContentStore {
+    private static final Logger log = LoggerFactory.getLogger(ContentStore.class);
+    private static final FsPermission PRIVATE_DIRECTORY_PERMISSION = new FsPermission(FsAction.ALL, FsAction.NONE, FsAction.NONE);
+    private static final FsPermission PUBLIC_DIRECTORY_PERMISSION =
+            new FsPermission(FsAction.ALL, FsAction.READ_EXECUTE, FsAction.READ_EXECUTE);
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final ConcurrentMap<String, FileStatus> manifest = new ConcurrentHashMap<>();
+    private final Path directory;
+    private final LocalResourceVisibility visibility;
+
+    static ContentStore openPrivate(Supplier<UserGroupInformation> user, Configuration conf, Path directory) {
+        return open(user, conf, directory, LocalResourceVisibility.APPLICATION);
+    }
+
+    static ContentStore openPublic(Supplier<UserGroupInformation> user, Configuration conf, Path directory) {
+        return open(user, conf, directory, LocalResourceVisibility.PUBLIC);
+    }
+
+    private static ContentStore open(Supplier<UserGroupInformation> user, Configuration conf, Path directory,
+                                     LocalResourceVisibility visibility) {
+        requireNonNull(directory, "directory");
+        boolean isPublic = visibility == LocalResourceVisibility.PUBLIC;
+        FsPermission directoryPermission = isPublic ? PUBLIC_DIRECTORY_PERMISSION : PRIVATE_DIRECTORY_PERMISSION;
+        UserGroupInformation currentUser = user.get();
+        String userName = currentUser.getShortUserName();
+        return currentUser.doAs((PrivilegedAction<ContentStore>) () -> {
+            try {
+                FileSystem fileSystem = directory.getFileSystem(conf);
+                Path qualifiedDirectory = fileSystem.makeQualified(directory);
+                if (!fileSystem.exists(qualifiedDirectory.getParent())) {
+                    throw new IllegalStateException("Parent of directory " + directory + " does not exists");
+                }
+                if (isPublic) {
+                    checkAncestorsExecutable(fileSystem, qualifiedDirectory.getParent());
+                }
+                fileSystem.mkdirs(qualifiedDirectory, directoryPermission);
+                FileStatus directoryStatus = fileSystem.getFileStatus(qualifiedDirectory);
+                if (!directoryStatus.getOwner().equals(userName)) {
+                    log.error("Directory {} owner is: {}. Current user: {}", directory, directoryStatus.getOwner(), currentUser);
+                    throw new IllegalArgumentException("Directory " + directory + " is owned by another user.");
+                }
+                if (!directoryStatus.getPermission().equals(directoryPermission)) {
+                    log.warn("Updating directory {} permissions from {} to {}",
+                            directory, directoryStatus.getPermission(), directoryPermission);
+                    fileSystem.setPermission(qualifiedDirectory, directoryPermission);
+                }
+                ContentStore store = new ContentStore(qualifiedDirectory, visibility);
+                for (FileStatus status : fileSystem.listStatus(qualifiedDirectory)) {
+                    if (status.isFile()) {
+                        store.manifest.put(status.getPath().getName(), status);
+                    }
+                }
+                log.info("Opened {} content store {} with {} files", visibility, qualifiedDirectory, store.manifest.size());
+                return store;
+            } catch (IOException e) {
+                throw new BriareusException("Can't open content store " + directory, e);
+            }
+        });
+    }
+
+    private ContentStore(Path directory, LocalResourceVisibility visibility) {
+        this.directory = directory;
+        this.visibility = visibility;
+    }
+
+    /**
+     * @return qualified directory of store
+     */
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * @return visibility of resources in this store
+     */
+    LocalResourceVisibility visibility() {
+        return visibility;
+    }
+
+    /**
+     * File known by manifest is checked on file system. File of unexpected length is considered broken and deleted.
+     *
+     * @param fs file system of store
+     * @param name name of stored file
+     * @param length expected length of stored file
+     * @return current status of stored file or empty optional if there is no such file
+     * @throws IOException on io errors
+     */
+    Optional<FileStatus> lookup(FileSystem fs, String name, long length) throws IOException {
+        if (!manifest.containsKey(name)) {
+            return Optional.empty();
+        }
+        return verify(fs, name, length);
+    }
+
+    private Optional<FileStatus> verify(FileSystem fs, String name, long length) throws IOException {
+        Path stored = new Path(directory, name);
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(stored);
+        } catch (FileNotFoundException e) {
+            if (manifest.remove(name) != null) {
+                log.info("File {} of content store was deleted", stored);
+            }
+            return Optional.empty();
+        }
+        if (status.getLen() != length) {
+            log.warn("File {} of content store has length {} instead of {}. Deleting it", stored, status.getLen(), length);
+            manifest.remove(name);
+            fs.delete(stored, false);
+            return Optional.empty();
+        }
+        manifest.put(name, status);
+        return Optional.of(status);
+    }
+
+    /**
+     * Moves uploaded file into store. If file with same name was stored concurrently uploaded file is deleted.
+     * Stored file of unexpected length is replaced.
+     *
+     * @param fs file system of store
+     * @param uploaded path to uploaded file
+     * @param name name of stored file
+     * @param length length of uploaded file
+     * @return status of stored file
+     * @throws IOException on io errors
+     */
+    FileStatus store(FileSystem fs, Path uploaded, String name, long length) throws IOException {
+        Path target = new Path(directory, name);
+        if (!fs.rename(uploaded, target)) {
+            Optional<FileStatus> existing = verify(fs, name, length);
+            if (existing.isPresent()) {
+                log.debug("File {} was stored concurrently", target);
+                discard(fs, uploaded);
+                return existing.get();
+            }
+            // broken file was deleted by verification
+            if (!fs.rename(uploaded, target)) {
+                throw new IOException("Can't move " + uploaded + " to content store as " + target);
+            }
+        }
+        FileStatus status = fs.getFileStatus(target);
+        manifest.put(name, status);
+        log.debug("Stored {} as {}", uploaded, target);
+        return status;
+    }
+
+    /**
+     * Deletes uploaded file which content is already stored.
+     *
+     * @param fs file system of store
+     * @param uploaded path to uploaded file
+     */
+    void discard(FileSystem fs, Path uploaded) {
+        try {
+            if (!fs.delete(uploaded, false)) {
+                log.warn("Can't delete duplicate upload {}", uploaded);
+            }
+        } catch (IOException e) {
+            log.warn("Can't delete duplicate upload {}", uploaded, e);
+        }
+    }
+
+    /**
+     * Node managers localize public resources only if all ancestors are executable by others.
+     */
+    private static void checkAncestorsExecutable(FileSystem fileSystem, Path path) throws IOException {
+        for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+            FsPermission permission = fileSystem.getFileStatus(ancestor).getPermission();
+            if (!permission.getOtherAction().implies(FsAction.EXECUTE)) {
+                throw new IllegalArgumentException("Directory " + ancestor + " is not executable by others (" +
+                        permission + "). Public resources can't be localized from its descendants.");
+            }
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return "ContentStore{directory=" + directory + ", visibility=" + visibility + '}';
+    }
+}
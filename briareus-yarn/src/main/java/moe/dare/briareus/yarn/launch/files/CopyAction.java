@@ -1,7 +1,8 @@
 package moe.dare.briareus.yarn.launch.files;
 
 import moe.dare.briareus.api.FileSource;
-import org.apache.hadoop.conf.Configuration;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.fs.CommonPathCapabilities;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -11,59 +12,508 @@ import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.api.records.LocalResourceType;
 import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
 import org.apache.hadoop.yarn.api.records.URL;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.PrivilegedExceptionAction;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT;
 import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_KEY;
 
-final class CopyAction implements PrivilegedExceptionAction<LocalResource> {
+final class CopyAction implements UploadAction {
+    private static final Logger log = LoggerFactory.getLogger(CopyAction.class);
+    private static final String SEGMENT_SUFFIX = ".segment";
     private static final FsPermission FILE_PERMISSION = new FsPermission(FsAction.READ, FsAction.NONE, FsAction.NONE);
+    private static final FsPermission PUBLIC_FILE_PERMISSION = new FsPermission(FsAction.READ, FsAction.READ, FsAction.READ);
     private static final EnumSet<CreateFlag> CREATE_FLAGS = EnumSet.of(CreateFlag.CREATE);
-    private static final LocalResourceVisibility RESOURCE_VISIBILITY = LocalResourceVisibility.APPLICATION;
+    private static final BufferPool BUFFERS = new BufferPool(Runtime.getRuntime().availableProcessors() * 2);
 
-    private final Configuration configuration;
     private final FileSource source;
     private final Path target;
     private final LocalResourceType type;
+    private final LocalResourceVisibility visibility;
+    private final String pattern;
+    private final TransferSettings settings;
+    private final EntryUploadTracker tracker;
+    private volatile String checksum;
 
-    CopyAction(Configuration configuration, FileSource source, Path target, LocalResourceType type) {
-        this.configuration = requireNonNull(configuration, "configuration");
+    CopyAction(FileSource source, Path target, LocalResourceType type, LocalResourceVisibility visibility,
+               @Nullable String pattern, TransferSettings settings, EntryUploadTracker tracker) {
         this.source = requireNonNull(source, "file source");
         this.target = requireNonNull(target, "target path");
         this.type = requireNonNull(type, "local resource type");
+        this.visibility = requireNonNull(visibility, "local resource visibility");
+        this.pattern = pattern;
+        this.settings = requireNonNull(settings, "transfer settings");
+        this.tracker = requireNonNull(tracker, "tracker");
     }
 
     @Override
     public LocalResource run() throws IOException {
-        FileSystem fs = target.getFileSystem(configuration);
-        Path targetQualified = fs.makeQualified(target);
-        URL targetUrl = URL.fromPath(targetQualified);
-        int bufferSize = fs.getConf().getInt(IO_FILE_BUFFER_SIZE_KEY, IO_FILE_BUFFER_SIZE_DEFAULT);
+        try (FileSystemPool.Handle handle = fileSystem()) {
+            FileSystem fs = handle.fileSystem();
+            Path targetQualified = fs.makeQualified(target);
+            tracker.copyStarted();
+            long partSize = multipartPartSize(fs, targetQualified);
+            ContentDigest digest = partSize > 0 ? null : new ContentDigest(0);
+            long fileReadSize = write(fs, targetQualified, digest, partSize);
+            tracker.copyFinished();
+            long timestamp = fs.getFileStatus(targetQualified).getModificationTime();
+            if (digest != null) {
+                checksum = digest.checksum();
+            }
+            return resource(targetQualified, fileReadSize, timestamp);
+        }
+    }
+
+    /**
+     * Checksum is computed from copied bytes, so it costs no extra read of source or target.
+     * It is not computed for multipart uploads since parts are written in parallel and digested separately.
+     */
+    @Override
+    public Optional<String> checksum() {
+        return Optional.ofNullable(checksum);
+    }
+
+    /**
+     * Must be called by user owning target file.
+     *
+     * @return handle of target file system
+     * @throws IOException if file system can't be created
+     */
+    FileSystemPool.Handle fileSystem() throws IOException {
+        return settings.fileSystems().acquire(target);
+    }
+
+    /**
+     * @param fs target file system
+     * @param targetQualified qualified path of target file
+     * @return empty digest of content written to target, split into parts if source is uploaded in parts
+     * @throws IOException on io errors
+     */
+    ContentDigest newDigest(FileSystem fs, Path targetQualified) throws IOException {
+        return new ContentDigest(multipartPartSize(fs, targetQualified));
+    }
+
+    /**
+     * Writes file source to the given path.
+     * Large local files are written in parallel parts if digest has parts. In that case each part is digested
+     * separately while it is written.
+     * If retries are enabled and target file system supports concat, other files are written sequentially
+     * in block aligned segments, so failed upload is resumed from the last written segment.
+     * Otherwise whole file is rewritten on retry.
+     * Local files are read via file channel.
+     *
+     * @param fs target file system
+     * @param targetQualified qualified path of target file
+     * @param digest digest returned by {@link #newDigest} updated with written bytes
+     * @return number of written bytes
+     * @throws IOException on io errors
+     */
+    long write(FileSystem fs, Path targetQualified, ContentDigest digest) throws IOException {
+        return write(fs, targetQualified, requireNonNull(digest, "digest"), digest.partSize);
+    }
+
+    /**
+     * @param digest if not null will be updated with written bytes
+     * @param partSize size of parts returned by {@link #multipartPartSize}
+     */
+    private long write(FileSystem fs, Path targetQualified, @Nullable ContentDigest digest, long partSize)
+            throws IOException {
+        int bufferSize = bufferSize(fs);
         short replication = fs.getDefaultReplication(targetQualified);
         long blockSize = fs.getDefaultBlockSize(targetQualified);
-        long fileReadSize;
-        try (OutputStream out = fs.create(targetQualified, FILE_PERMISSION, CREATE_FLAGS, bufferSize, replication, blockSize, null);
-             InputStream in = source.open()) {
-            fileReadSize = copy(in, out, bufferSize);
+        FsPermission permission = visibility == LocalResourceVisibility.PUBLIC ? PUBLIC_FILE_PERMISSION : FILE_PERMISSION;
+        SegmentWriter writer = (segment, offset, length, digester) -> {
+            try (OutputStream out = fs.create(segment, permission, CREATE_FLAGS, bufferSize, replication, blockSize, null)) {
+                return copyRange(offset, length, out, digester, bufferSize);
+            }
+        };
+        Optional<java.nio.file.Path> file = source.file();
+        MultipartUpload multipartUpload = settings.multipartUpload();
+        RetryPolicy retryPolicy = settings.retryPolicy();
+        if (partSize > 0) {
+            long size = Files.size(file.get());
+            multipartUpload.upload(fs, targetQualified, size, partSize, (part, offset, length) ->
+                    retryPolicy.run(part, () -> writePart(writer, part, offset, length, digest),
+                            (retry, e) -> retried(fs, part, e)));
+            return size;
+        }
+        long segmentSize = Long.MAX_VALUE;
+        if (retryPolicy.retriesEnabled() && fs.hasPathCapability(targetQualified, CommonPathCapabilities.FS_CONCAT)) {
+            segmentSize = multipartUpload != null ? multipartUpload.partSize(blockSize) : blockSize;
+        }
+        return writeSegments(fs, targetQualified, segmentSize, writer,
+                new Digester(digest != null ? digest.digest : null));
+    }
+
+    /**
+     * @return size of parts if source is uploaded with multipart upload, 0 otherwise
+     */
+    private long multipartPartSize(FileSystem fs, Path targetQualified) throws IOException {
+        MultipartUpload multipartUpload = settings.multipartUpload();
+        Optional<java.nio.file.Path> file = source.file();
+        if (multipartUpload == null || !file.isPresent()) {
+            return 0;
+        }
+        long partSize = multipartUpload.partSize(fs.getDefaultBlockSize(targetQualified));
+        if (Files.size(file.get()) >= 2 * partSize && fs.hasPathCapability(targetQualified, CommonPathCapabilities.FS_CONCAT)) {
+            return partSize;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes source sequentially to segment files of given size which are concatenated into target.
+     * Each segment is retried separately.
+     */
+    private long writeSegments(FileSystem fs, Path target, long segmentSize, SegmentWriter writer, Digester digester)
+            throws IOException {
+        RetryPolicy retryPolicy = settings.retryPolicy();
+        List<Path> segments = new ArrayList<>();
+        Path segment = target;
+        long offset = 0;
+        try {
+            while (true) {
+                Path current = segment;
+                long segmentOffset = offset;
+                long written = retryPolicy.run(current, () -> writer.write(current, segmentOffset, segmentSize, digester),
+                        (retry, e) -> retried(fs, current, e));
+                if (written == 0 && !segments.isEmpty()) {
+                    fs.delete(current, false);
+                    break;
+                }
+                segments.add(current);
+                offset += written;
+                if (written < segmentSize) {
+                    break;
+                }
+                segment = new Path(target.getParent(), target.getName() + SEGMENT_SUFFIX + segments.size());
+            }
+            if (segments.size() > 1) {
+                log.debug("Concatenating {} segments of {}", segments.size(), target);
+                fs.concat(target, segments.subList(1, segments.size()).toArray(new Path[0]));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!segments.contains(segment)) {
+                segments.add(segment);
+            }
+            for (Path written : segments) {
+                if (!written.equals(target)) {
+                    deleteQuietly(fs, written);
+                }
+            }
+            throw e;
+        }
+        return offset;
+    }
+
+    /**
+     * Part is rewritten from its start on retry, so it is digested again from its start.
+     */
+    private Void writePart(SegmentWriter writer, Path part, long offset, long length, @Nullable ContentDigest digest)
+            throws IOException {
+        MessageDigest partDigest = digest != null ? ContentStore.newDigest() : null;
+        long written = writer.write(part, offset, length, new Digester(partDigest));
+        if (written != length) {
+            throw new IOException("Unexpected end of file at " + (offset + written) + ". File is truncated during upload?");
+        }
+        if (digest != null) {
+            digest.partDigests.put(offset, partDigest.digest());
+        }
+        return null;
+    }
+
+    private void retried(FileSystem fs, Path path, IOException error) {
+        tracker.retried(error);
+        deleteQuietly(fs, path);
+    }
+
+    private static void deleteQuietly(FileSystem fs, Path path) {
+        try {
+            fs.delete(path, false);
+        } catch (IOException e) {
+            log.warn("Can't delete {}", path, e);
         }
-        long timestamp = fs.getFileStatus(targetQualified).getModificationTime();
-        return LocalResource.newInstance(targetUrl, type, RESOURCE_VISIBILITY, fileReadSize, timestamp);
     }
 
-    private static long copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+    LocalResource resource(Path qualifiedPath, long size, long timestamp) {
+        return LocalResource.newInstance(URL.fromPath(qualifiedPath), type, visibility, size, timestamp, pattern);
+    }
+
+    FileSource source() {
+        return source;
+    }
+
+    Path target() {
+        return target;
+    }
+
+    EntryUploadTracker tracker() {
+        return tracker;
+    }
+
+    static int bufferSize(FileSystem fs) {
+        return fs.getConf().getInt(IO_FILE_BUFFER_SIZE_KEY, IO_FILE_BUFFER_SIZE_DEFAULT);
+    }
+
+    private void transferred(int bytes) throws IOException {
+        Throttler throttler = settings.throttler();
+        if (throttler != null) {
+            throttler.acquire(bytes);
+        }
+        tracker.transferred(bytes);
+    }
+
+    /**
+     * Reads whole source without writing it, so content may be looked up by digest before upload.
+     *
+     * @param digest digest returned by {@link #newDigest} updated with content of source and its parts
+     * @param bufferSize size of read buffer
+     * @return number of read bytes
+     * @throws IOException on io errors
+     */
+    long digest(ContentDigest digest, int bufferSize) throws IOException {
+        Optional<java.nio.file.Path> file = source.file();
+        byte[] buffer = BUFFERS.acquire(bufferSize);
+        try {
+            long nRead = 0;
+            int n;
+            if (file.isPresent()) {
+                try (FileChannel channel = FileChannel.open(file.get(), StandardOpenOption.READ)) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                    while ((n = channel.read(byteBuffer)) >= 0) {
+                        digest.update(buffer, n, nRead);
+                        nRead += n;
+                        byteBuffer.clear();
+                    }
+                }
+            } else {
+                try (InputStream in = source.open()) {
+                    while ((n = in.read(buffer)) >= 0) {
+                        digest.update(buffer, n, nRead);
+                        nRead += n;
+                    }
+                }
+            }
+            digest.finishPart();
+            return nRead;
+        } finally {
+            BUFFERS.release(buffer);
+        }
+    }
+
+    /**
+     * Copies range of source starting from given offset.
+     * Stream sources are reopened and skipped to offset, so skipped bytes are read again but not written.
+     */
+    private long copyRange(long offset, long length, OutputStream out, Digester digester, int bufferSize)
+            throws IOException {
+        Optional<java.nio.file.Path> file = source.file();
+        if (file.isPresent()) {
+            try (FileChannel channel = FileChannel.open(file.get(), StandardOpenOption.READ)) {
+                return copy(channel, offset, length, out, digester, bufferSize);
+            }
+        }
+        try (InputStream in = source.open()) {
+            skipFully(in, offset);
+            return copy(in, offset, length, out, digester, bufferSize);
+        }
+    }
+
+    /**
+     * Reads file with positional reads into pooled heap buffer.
+     * Unlike {@link java.io.FileInputStream} channel does not allocate native memory for each read of large buffer.
+     */
+    private long copy(FileChannel channel, long offset, long length, OutputStream out,
+                      Digester digester, int bufferSize) throws IOException {
+        byte[] buffer = BUFFERS.acquire(bufferSize);
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long position = offset;
+            long end = length == Long.MAX_VALUE ? Long.MAX_VALUE : offset + length;
+            while (position < end) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, end - position));
+                int n = channel.read(byteBuffer, position);
+                if (n < 0) {
+                    break;
+                }
+                digester.update(buffer, n, position);
+                transferred(n);
+                out.write(buffer, 0, n);
+                position += n;
+            }
+            return position - offset;
+        } finally {
+            BUFFERS.release(buffer);
+        }
+    }
+
+    private long copy(InputStream in, long offset, long length, OutputStream out, Digester digester, int bufferSize)
+            throws IOException {
         long nRead = 0;
-        byte[] buffer = new byte[bufferSize];
-        int n;
-        while ((n = in.read(buffer)) > 0) {
-            out.write(buffer, 0, n);
-            nRead += n;
+        byte[] buffer = BUFFERS.acquire(bufferSize);
+        try {
+            int n;
+            while (nRead < length && (n = in.read(buffer, 0, (int) Math.min(buffer.length, length - nRead))) > 0) {
+                digester.update(buffer, n, offset + nRead);
+                transferred(n);
+                out.write(buffer, 0, n);
+                nRead += n;
+            }
+        } finally {
+            BUFFERS.release(buffer);
         }
         return nRead;
     }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Source ended before resume offset " + n);
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentWriter {
+        /**
+         * @return number of written bytes, less than length if source ended
+         */
+        long write(Path segment, long offset, long length, Digester digester) throws IOException;
+    }
+
+    /**
+     * Digest of content of source. Parts of multipart upload are written in parallel, so content uploaded in parts
+     * is also digested by parts. Digest of whole content is computed only when content is read sequentially.
+     */
+    static final class ContentDigest {
+        private final long partSize;
+        private final MessageDigest digest = ContentStore.newDigest();
+        /**
+         * Digests of parts by offsets of parts.
+         */
+        private final Map<Long, byte[]> partDigests = new ConcurrentHashMap<>();
+        private MessageDigest partDigest;
+        private byte[] result;
+
+        /**
+         * @param partSize size of parts or 0 if content is not split into parts
+         */
+        ContentDigest(long partSize) {
+            this.partSize = partSize;
+        }
+
+        /**
+         * @return hex encoded digest of whole content
+         */
+        synchronized String checksum() {
+            if (result == null) {
+                result = digest.digest();
+            }
+            return ContentStore.toHex(result);
+        }
+
+        /**
+         * Content split into parts is compared by digests of parts.
+         *
+         * @param other digest of content split into parts of the same size
+         * @return true if digests are of the same content
+         */
+        boolean matches(ContentDigest other) {
+            if (partSize != other.partSize) {
+                return false;
+            }
+            if (partSize == 0) {
+                return checksum().equals(other.checksum());
+            }
+            if (partDigests.size() != other.partDigests.size()) {
+                return false;
+            }
+            for (Map.Entry<Long, byte[]> part : partDigests.entrySet()) {
+                if (!Arrays.equals(part.getValue(), other.partDigests.get(part.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Updates digest of whole content and digests of parts with content read sequentially.
+         */
+        private void update(byte[] buffer, int n, long offset) {
+            digest.update(buffer, 0, n);
+            int from = 0;
+            while (partSize > 0 && from < n) {
+                long position = offset + from;
+                long partEnd = (position / partSize + 1) * partSize;
+                int count = (int) Math.min(n - from, partEnd - position);
+                if (partDigest == null) {
+                    partDigest = ContentStore.newDigest();
+                }
+                partDigest.update(buffer, from, count);
+                from += count;
+                if (position + count == partEnd) {
+                    partDigests.put(partEnd - partSize, partDigest.digest());
+                    partDigest = null;
+                }
+            }
+        }
+
+        /**
+         * Completes digest of last part of content read sequentially.
+         */
+        private void finishPart() {
+            if (partDigest != null) {
+                partDigests.put(partDigests.size() * partSize, partDigest.digest());
+                partDigest = null;
+            }
+        }
+    }
+
+    /**
+     * Updates digest with bytes at offsets not digested yet, so bytes written again on retry are digested once.
+     */
+    private static final class Digester {
+        private final MessageDigest digest;
+        private long position;
+
+        private Digester(@Nullable MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        private void update(byte[] buffer, int n, long offset) {
+            long end = offset + n;
+            if (digest == null || end <= position) {
+                return;
+            }
+            int from = (int) (position - offset);
+            digest.update(buffer, from, n - from);
+            position = end;
+        }
+    }
 }
@@ -8,6 +8,7 @@ import moe.dare.briareus.api.FileSource;
 import moe.dare.briareus.common.utils.Maps;
 import moe.dare.briareus.common.utils.Pair;
 import moe.dare.briareus.yarn.YarnAwareFileSource;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -18,21 +19,30 @@ import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.api.records.LocalResourceType;
 import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URI;
 import java.security.PrivilegedAction;
-import java.security.PrivilegedExceptionAction;
+import java.time.Duration;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import static java.util.Collections.emptyList;
@@ -46,49 +56,198 @@ class DefaultFileUploadTool implements FileUploadTool {
     private static final Logger log = LoggerFactory.getLogger(DefaultFileUploadTool.class);
     private static final FsPermission DIRECTORY_PERMISSION = new FsPermission(FsAction.ALL, FsAction.NONE, FsAction.NONE);
     private static final String LOCK_FILE_NAME = ".lock";
+    private static final int COLLECTION_FILES_PER_RUN = 1000;
+    private static final Duration FILE_SYSTEM_IDLE_TIMEOUT = Duration.ofMinutes(1);
 
     private static final Map<Mode, LocalResourceType> RESOURCE_TYPES = Maps.enumMapOf(
             Mode.COPY, LocalResourceType.FILE,
-            Mode.UNZIP, LocalResourceType.ARCHIVE);
+            Mode.UNZIP, LocalResourceType.ARCHIVE,
+            Mode.UNTAR, LocalResourceType.ARCHIVE,
+            Mode.UNTAR_GZIP, LocalResourceType.ARCHIVE,
+            Mode.UNJAR, LocalResourceType.PATTERN);
+    /**
+     * Node manager selects unpacking method by file extension.
+     */
     private static final Map<Mode, String> EXTENSIONS = Maps.enumMapOf(
             Mode.COPY, "",
-            Mode.UNZIP, ".zip");
+            Mode.UNZIP, ".zip",
+            Mode.UNTAR, ".tar",
+            Mode.UNTAR_GZIP, ".tar.gz",
+            Mode.UNJAR, ".jar");
 
     private final AtomicLong filesCounter = new AtomicLong();
-    private final Map<Pair<Mode, CacheableFileSource>, CompletableFuture<LocalResource>> sharedFiles = new ConcurrentHashMap<>();
+    private final AtomicLong callsCounter = new AtomicLong();
 
     private final Supplier<UserGroupInformation> user;
-    private final Path directory;
+    private final ShardedLayout layout;
     private final Configuration conf;
     private final Executor executor;
+    private final ContentStore contentStore;
+    private final ContentStore publicStore;
+    private final Predicate<FileEntry> publicEntries;
+    private final UploadScheduler scheduler;
+    private final TransferSettings transferSettings;
+    private final UploadListener listener;
+    private final SharedFilesCache sharedFiles;
+    private final FileCollector collector;
+    private final FanOutReplication fanOutReplication;
+    private final FileStatusResolver statusResolver;
+    private final boolean ownsFileSystems;
+    private final boolean deleteFilesOnClose;
     private volatile boolean closed;
 
-    static FileUploadTool create(Supplier<UserGroupInformation> user, Configuration conf, Path directory, Executor executor) {
-        requireNonNull(user, "user");
-        requireNonNull(directory, "directory");
-        requireNonNull(executor, "executor");
-        requireNonNull(conf, "configuration");
+    static FileUploadTool create(FileUploadToolBuilder builder) {
+        Supplier<UserGroupInformation> user = requireNonNull(builder.user, "user");
+        Path directory = requireNonNull(builder.directory, "directory");
+        Configuration conf = requireNonNull(builder.configuration, "configuration");
+        Executor executor = requireNonNull(builder.executor, "executor");
         prepareDirectoryAsUser(user, directory, conf);
-        return new DefaultFileUploadTool(user, directory, conf, executor);
+        ContentStore contentStore = builder.contentStoreDirectory == null ? null :
+                ContentStore.openPrivate(user, conf, builder.contentStoreDirectory);
+        ContentStore publicStore = builder.publicStoreDirectory == null ? null :
+                ContentStore.openPublic(user, conf, builder.publicStoreDirectory);
+        UploadScheduler scheduler = new UploadScheduler(executor, builder.maxConcurrentUploads);
+        MultipartUpload multipartUpload = builder.multipartPartSize == 0 ? null :
+                new MultipartUpload(builder.multipartPartSize, scheduler.partExecutor());
+        Throttler throttler = builder.bandwidthLimit == 0 ? null : new Throttler(builder.bandwidthLimit);
+        RetryPolicy retryPolicy = builder.uploadRetries == 0 ? RetryPolicy.noRetries() : new RetryPolicy(
+                builder.uploadRetries, builder.initialRetryBackoff.toMillis(), builder.maxRetryBackoff.toMillis());
+        FileSystemPool fileSystems = builder.fileSystemPool != null ? builder.fileSystemPool :
+                FileSystemPool.create(conf, FILE_SYSTEM_IDLE_TIMEOUT);
+        TransferSettings transferSettings = new TransferSettings(multipartUpload, throttler, retryPolicy, fileSystems);
+        ShardedLayout layout = new ShardedLayout(directory, builder.filesPerDirectory);
+        FileStatusResolver statusResolver = new FileStatusResolver(builder.fileStatusTtl.toNanos());
+        SharedFilesCache sharedFiles = new SharedFilesCache(builder.maxCachedFiles, builder.cachedFilesTtl.toNanos(),
+                builder.revalidationInterval.toNanos(), key -> sourceVersion(key, user, fileSystems, statusResolver));
+        return new DefaultFileUploadTool(user, layout, conf, executor, contentStore, publicStore, builder.publicEntries,
+                scheduler, transferSettings, new SafeUploadListener(builder.listener), sharedFiles,
+                new FileCollector(user, fileSystems, builder.collectionInterval.toMillis(), COLLECTION_FILES_PER_RUN,
+                        builder.collectionCloseTimeout.toMillis(),
+                        sharedFiles::evictExpired),
+                builder.referencesPerReplica == 0 ? null : new FanOutReplication(
+                        builder.referencesPerReplica, builder.maxReplication, executor, user, fileSystems),
+                statusResolver, builder.fileSystemPool == null,
+                builder.deleteFilesOnClose);
     }
 
-    private DefaultFileUploadTool(Supplier<UserGroupInformation> user, Path directory, Configuration conf, Executor executor) {
+    private DefaultFileUploadTool(Supplier<UserGroupInformation> user, ShardedLayout layout, Configuration conf,
+                                  Executor executor, @Nullable ContentStore contentStore,
+                                  @Nullable ContentStore publicStore, @Nullable Predicate<FileEntry> publicEntries,
+                                  UploadScheduler scheduler, TransferSettings transferSettings, UploadListener listener,
+                                  SharedFilesCache sharedFiles, FileCollector collector,
+                                  @Nullable FanOutReplication fanOutReplication, FileStatusResolver statusResolver,
+                                  boolean ownsFileSystems, boolean deleteFilesOnClose) {
         this.user = user;
-        this.directory = directory;
+        this.layout = layout;
         this.conf = conf;
         this.executor = executor;
+        this.contentStore = contentStore;
+        this.publicStore = publicStore;
+        this.publicEntries = publicEntries;
+        this.scheduler = scheduler;
+        this.transferSettings = transferSettings;
+        this.listener = listener;
+        this.sharedFiles = sharedFiles;
+        this.collector = collector;
+        this.fanOutReplication = fanOutReplication;
+        this.statusResolver = statusResolver;
+        this.ownsFileSystems = ownsFileSystems;
+        this.deleteFilesOnClose = deleteFilesOnClose;
+    }
+
+    @Override
+    public Set<URI> fileSystems(List<FileEntry> files) {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (FileEntry entry : files) {
+            if (entry.source() instanceof YarnAwareFileSource) {
+                directories.add(((YarnAwareFileSource) entry.source()).resourcePath());
+            } else if (isPublic(entry)) {
+                directories.add(publicStore.directory());
+            } else if (contentStore != null && entry.source() instanceof CacheableFileSource) {
+                directories.add(contentStore.directory());
+            } else {
+                directories.add(layout.directory());
+            }
+        }
+        Set<URI> fileSystems = new LinkedHashSet<>();
+        for (Path directory : directories) {
+            try {
+                fileSystems.add(transferSettings.fileSystems().fileSystemUri(directory.toUri()));
+            } catch (IOException | RuntimeException e) {
+                log.debug("Can't qualify {}. File system is not predicted", directory, e);
+            }
+        }
+        return fileSystems;
     }
 
     @Override
     public CompletableFuture<List<UploadedEntry>> upload(List<FileEntry> files) {
         checkState(!closed, "Upload tool closed");
-        List<Pair<FileEntry, CompletableFuture<LocalResource>>> tasks = files.stream()
-                .map(e -> Pair.of(e, sharedOrProcess(e)))
-                .collect(toList());
-        if (files.isEmpty()) {
+        CallTracker callTracker = new CallTracker(callsCounter.getAndIncrement());
+        callTracker.yarnAwareBatch = new YarnAwareResourceBatch(transferSettings.fileSystems(), statusResolver,
+                callTracker.metadataRequests);
+        List<Pair<FileEntry, StagedFile>> tasks;
+        try {
+            tasks = files.stream()
+                    .map(e -> Pair.of(e, sharedOrProcess(e, callTracker)))
+                    .collect(toList());
+        } finally {
+            submitBatch(callTracker.yarnAwareBatch);
+        }
+        CompletableFuture<List<UploadedEntry>> result = combine(tasks);
+        result.whenComplete((entries, exception) -> {
+            if (exception != null) {
+                tasks.forEach(task -> task.second().release());
+            }
+            listener.onUploadCompleted(callTracker.stats(files.size(), exception == null));
+        });
+        return result;
+    }
+
+    /**
+     * Resolves resources of yarn aware sources of call together.
+     */
+    private void submitBatch(YarnAwareResourceBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            executor.execute(() -> user.get().doAs((PrivilegedAction<Void>) () -> {
+                batch.run();
+                return null;
+            }));
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    /**
+     * Status of remote source is read as tool user. Read status replaces cached one, so changed file is resolved
+     * again with the new status.
+     */
+    private static Optional<SharedFileKey.Version> sourceVersion(SharedFileKey key, Supplier<UserGroupInformation> user,
+                                                                 FileSystemPool fileSystems, FileStatusResolver resolver) {
+        Path path = key.resourcePath();
+        if (path == null) {
+            return key.version();
+        }
+        try (FileSystemPool.Handle handle = fileSystems.acquire(user.get(), path.toUri())) {
+            FileStatus status = handle.fileSystem().getFileStatus(path);
+            resolver.update(status);
+            return Optional.of(SharedFileKey.Version.of(status));
+        } catch (FileNotFoundException e) {
+            return Optional.of(SharedFileKey.Version.MISSING);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can't read status of {}. It will be resolved again", path, e);
+            return Optional.of(SharedFileKey.Version.MISSING);
+        }
+    }
+
+    private static CompletableFuture<List<UploadedEntry>> combine(List<Pair<FileEntry, StagedFile>> tasks) {
+        if (tasks.isEmpty()) {
             return completedFuture(emptyList());
         }
-        if (tasks.stream().map(Pair::second).allMatch(Future::isDone)) {
+        if (tasks.stream().map(task -> task.second().resource()).allMatch(Future::isDone)) {
             try {
                 return completedFuture(blockingGet(tasks));
             } catch (Exception e) {
@@ -108,7 +267,7 @@ class DefaultFileUploadTool implements FileUploadTool {
                 }
             }
         };
-        tasks.stream().map(Pair::second).forEach(task -> task.whenComplete(completeHandler));
+        tasks.stream().map(task -> task.second().resource()).forEach(task -> task.whenComplete(completeHandler));
         return result;
     }
 
@@ -119,66 +278,192 @@ class DefaultFileUploadTool implements FileUploadTool {
         }
         closed = true;
         sharedFiles.clear();
+        if (deleteFilesOnClose) {
+            deleteFilesAsUser();
+        }
+        // pool is used by collector until queued files are deleted
+        collector.close(ownsFileSystems ? transferSettings.fileSystems()::close : () -> {
+        });
     }
 
-    private CompletableFuture<LocalResource> sharedOrProcess(FileEntry entry) {
+    private void deleteFilesAsUser() {
+        UserGroupInformation currentUser = user.get();
+        Executor deletionExecutor = task -> executor.execute(() -> currentUser.doAs((PrivilegedAction<Void>) () -> {
+            task.run();
+            return null;
+        }));
+        currentUser.doAs((PrivilegedAction<Void>) () -> {
+            try (FileSystemPool.Handle handle = transferSettings.fileSystems().acquire(layout.directory())) {
+                layout.deleteShards(handle.fileSystem(), deletionExecutor);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Can't delete files of {}", layout, e);
+            }
+            return null;
+        });
+    }
+
+    private StagedFile sharedOrProcess(FileEntry entry, CallTracker callTracker) {
         FileSource source = entry.source();
         if (source instanceof CacheableFileSource) {
-            Pair<Mode, CacheableFileSource> cacheKey = Pair.of(entry.mode(), (CacheableFileSource) source);
-            CompletableFuture<LocalResource> future = sharedFiles.get(cacheKey);
-            if (future != null && future.isCompletedExceptionally()) {
-                if (sharedFiles.remove(cacheKey, future)) {
-                    log.warn("Remove cached result of failed upload attempt for resource '{}' in mode '{}'.", source, entry.mode());
-                }
-                future = null;
+            SharedFileKey cacheKey = sharedFileKey(entry);
+            PendingUpload[] created = new PendingUpload[1];
+            StagedFile file = sharedFiles.retainOrPut(cacheKey, () -> {
+                created[0] = prepareEntry(entry, callTracker);
+                return created[0].file;
+            });
+            if (created[0] == null) {
+                callTracker.cacheHits.incrementAndGet();
+                return file;
             }
-            if (future != null) {
-                log.debug("Reusing previous upload request ({}) for file {}", future, source);
-                return future;
+            callTracker.cacheMisses.incrementAndGet();
+            created[0].start();
+            if (fanOutReplication != null && !(source instanceof YarnAwareFileSource)) {
+                fanOutReplication.track(file);
             }
-            return sharedFiles.computeIfAbsent(cacheKey, unused -> processEntry(entry));
+            return file;
         }
-        return processEntry(entry);
+        PendingUpload upload = prepareEntry(entry, callTracker);
+        upload.start();
+        return upload.file;
     }
 
-    private CompletableFuture<LocalResource> processEntry(FileEntry entry) {
-        PrivilegedExceptionAction<LocalResource> action;
-        if (entry.source() instanceof YarnAwareFileSource) {
-            action = createYarnAwarePrepareAction(entry);
-        } else {
-            action = createCopyAction(entry);
+    private SharedFileKey sharedFileKey(FileEntry entry) {
+        CacheableFileSource source = (CacheableFileSource) entry.source();
+        if (source instanceof YarnAwareFileSource) {
+            YarnAwareFileSource yarnAwareSource = (YarnAwareFileSource) source;
+            Path path = yarnAwareSource.resourcePath();
+            try (FileSystemPool.Handle handle = transferSettings.fileSystems().acquire(user.get(), path.toUri())) {
+                return new SharedFileKey(entry, yarnAwareSource.resourceVisibility(),
+                        handle.fileSystem().makeQualified(path));
+            } catch (IOException | RuntimeException e) {
+                log.debug("Can't qualify {}. Source is used as cache key", path, e);
+            }
         }
-        return CompletableFuture.supplyAsync(() -> doAsUser(action), executor);
+        LocalResourceVisibility visibility = isPublic(entry) ? LocalResourceVisibility.PUBLIC : LocalResourceVisibility.APPLICATION;
+        return new SharedFileKey(entry, visibility, null);
     }
 
-    private PrepareYarnAwareResourceAction createYarnAwarePrepareAction(FileEntry entry) {
-        YarnAwareFileSource source = (YarnAwareFileSource)entry.source();
-        LocalResourceType type = RESOURCE_TYPES.get(entry.mode());
-        Path path = source.resourcePath();
-        LocalResourceVisibility visibility = source.resourceVisibility();
-        return new PrepareYarnAwareResourceAction(conf, path, visibility, type);
+    /**
+     * Creates staged file without starting upload, so it may be published in cache before upload starts.
+     */
+    private PendingUpload prepareEntry(FileEntry entry, CallTracker callTracker) {
+        EntryUploadTracker tracker = new EntryUploadTracker(entry, listener);
+        callTracker.entries.add(tracker);
+        CompletableFuture<LocalResource> resource = new CompletableFuture<>();
+        if (entry.source() instanceof YarnAwareFileSource) {
+            YarnAwareFileSource source = (YarnAwareFileSource) entry.source();
+            LocalResourceType type = RESOURCE_TYPES.get(entry.mode());
+            StagedFile file = new StagedFile(resource, null, collector::collect);
+            return new PendingUpload(file, () -> callTracker.yarnAwareBatch.add(
+                    source.resourcePath(), source.isDirectory(), source.resourceVisibility(), type,
+                    entry.pattern().orElse(null), tracker));
+        }
+        UploadAction action = createCopyAction(entry, tracker);
+        Path ownedPath = action instanceof CopyAction ? ((CopyAction) action).target() : null;
+        StagedFile file = new StagedFile(resource, ownedPath, collector::collect);
+        long size = entry.source().size().orElse(Long.MAX_VALUE);
+        return new PendingUpload(file, () -> scheduler.submit(callTracker.call, size, () -> doAsUser(action, file, tracker)));
     }
 
-    private CopyAction createCopyAction(FileEntry entry) {
+    private UploadAction createCopyAction(FileEntry entry, EntryUploadTracker tracker) {
         Mode mode = entry.mode();
         LocalResourceType localResourceType = RESOURCE_TYPES.get(mode);
-        String fileName = filesCounter.getAndIncrement() + "_" + entry.name() + EXTENSIONS.get(mode);
-        Path filePath = new Path(directory, fileName);
+        String extension = EXTENSIONS.get(mode);
+        long fileNumber = filesCounter.getAndIncrement();
+        Path filePath = layout.path(fileNumber, fileNumber + "_" + entry.name() + extension);
         log.debug("{} will be uploaded to {}", entry, filePath);
-        return new CopyAction(conf, entry.source(), filePath, localResourceType);
+        if (isPublic(entry)) {
+            CopyAction copyAction = new CopyAction(entry.source(), filePath, localResourceType,
+                    publicStore.visibility(), entry.pattern().orElse(null), transferSettings, tracker);
+            return new ContentAddressedCopyAction(copyAction, publicStore, extension);
+        }
+        CopyAction copyAction = new CopyAction(entry.source(), filePath, localResourceType,
+                LocalResourceVisibility.APPLICATION, entry.pattern().orElse(null), transferSettings, tracker);
+        if (contentStore != null && entry.source() instanceof CacheableFileSource) {
+            return new ContentAddressedCopyAction(copyAction, contentStore, extension);
+        }
+        return copyAction;
     }
 
+    private boolean isPublic(FileEntry entry) {
+        return publicStore != null && !(entry.source() instanceof YarnAwareFileSource) && publicEntries.test(entry);
+    }
 
-    private LocalResource doAsUser(PrivilegedExceptionAction<LocalResource> copyAction) {
+    private LocalResource doAsUser(UploadAction copyAction, StagedFile file, EntryUploadTracker tracker) {
+        tracker.started();
+        LocalResource resource;
         try {
-            return user.get().doAs(copyAction);
+            resource = user.get().doAs(copyAction);
         } catch (Exception e) {
+            tracker.reportFailure(e);
             throw new BriareusException("Can't prepare resource", e);
         }
+        file.checksum(copyAction.checksum());
+        tracker.finished();
+        tracker.reportSuccess();
+        return resource;
+    }
+
+    private static List<UploadedEntry> blockingGet(List<Pair<FileEntry, StagedFile>> tasks) {
+        return tasks.stream()
+                .map(p -> UploadedEntry.of(p.first(), p.second().resource().join(), p.second()))
+                .collect(toList());
+    }
+
+    /**
+     * Staged file with action starting its upload.
+     */
+    private static final class PendingUpload {
+        private final StagedFile file;
+        private final Supplier<CompletableFuture<LocalResource>> upload;
+
+        private PendingUpload(StagedFile file, Supplier<CompletableFuture<LocalResource>> upload) {
+            this.file = file;
+            this.upload = upload;
+        }
+
+        private void start() {
+            CompletableFuture<LocalResource> target = file.resource();
+            CompletableFuture<LocalResource> future;
+            try {
+                future = upload.get();
+            } catch (RuntimeException e) {
+                target.completeExceptionally(e);
+                throw e;
+            }
+            future.whenComplete((resource, exception) -> {
+                if (exception != null) {
+                    target.completeExceptionally(exception);
+                } else {
+                    target.complete(resource);
+                }
+            });
+        }
     }
 
-    private static List<UploadedEntry> blockingGet(List<Pair<FileEntry, CompletableFuture<LocalResource>>> tasks) {
-        return tasks.stream().map(p -> UploadedEntry.of(p.first(), p.second().join())).collect(toList());
+    /**
+     * Statistics of single upload call.
+     */
+    private static final class CallTracker {
+        private final Queue<EntryUploadTracker> entries = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger cacheHits = new AtomicInteger();
+        private final AtomicInteger cacheMisses = new AtomicInteger();
+        private final AtomicInteger metadataRequests = new AtomicInteger();
+        private final long startNanos = System.nanoTime();
+        private final long call;
+        private YarnAwareResourceBatch yarnAwareBatch;
+
+        private CallTracker(long call) {
+            this.call = call;
+        }
+
+        private UploadCallStats stats(int entriesCount, boolean successful) {
+            long bytes = entries.stream().mapToLong(EntryUploadTracker::bytes).sum();
+            int retries = entries.stream().mapToInt(EntryUploadTracker::retries).sum();
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            return new UploadCallStats(entriesCount, cacheHits.get(), cacheMisses.get(), bytes, retries,
+                    metadataRequests.get(), duration, successful);
+        }
     }
 
     private static void prepareDirectoryAsUser(Supplier<UserGroupInformation> user, Path directory, Configuration conf) {
@@ -0,0 +1,102 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Statistics of single entry upload.
+ */
+public final class EntryUploadStats {
+    private final FileEntry entry;
+    private final long bytes;
+    private final Duration queuedTime;
+    private final Duration copyTime;
+    private final Duration finalizeTime;
+    private final boolean contentStoreHit;
+    private final int retries;
+
+    EntryUploadStats(FileEntry entry, long bytes, Duration queuedTime, Duration copyTime, Duration finalizeTime,
+                     boolean contentStoreHit, int retries) {
+        this.entry = requireNonNull(entry, "entry");
+        this.bytes = bytes;
+        this.queuedTime = requireNonNull(queuedTime, "queuedTime");
+        this.copyTime = requireNonNull(copyTime, "copyTime");
+        this.finalizeTime = requireNonNull(finalizeTime, "finalizeTime");
+        this.contentStoreHit = contentStoreHit;
+        this.retries = retries;
+    }
+
+    public FileEntry entry() {
+        return entry;
+    }
+
+    /**
+     * @return bytes written to file system
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return time spent waiting for upload slot
+     */
+    public Duration queuedTime() {
+        return queuedTime;
+    }
+
+    /**
+     * @return time spent reading and writing file content
+     */
+    public Duration copyTime() {
+        return copyTime;
+    }
+
+    /**
+     * @return time spent on file system calls after content was written
+     */
+    public Duration finalizeTime() {
+        return finalizeTime;
+    }
+
+    /**
+     * @return true if content was found in content store and was not written
+     */
+    public boolean contentStoreHit() {
+        return contentStoreHit;
+    }
+
+    /**
+     * @return number of retried writes of files or parts, bytes of failed attempts are included in {@link #bytes()}
+     */
+    public int retries() {
+        return retries;
+    }
+
+    /**
+     * @return copy throughput in bytes per second
+     */
+    public double bytesPerSecond() {
+        return ratePerSecond(bytes, copyTime);
+    }
+
+    static double ratePerSecond(long bytes, Duration duration) {
+        long nanos = duration.toNanos();
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryUploadStats{" +
+                "entry=" + entry.name() +
+                ", bytes=" + bytes +
+                ", queuedTime=" + queuedTime +
+                ", copyTime=" + copyTime +
+                ", finalizeTime=" + finalizeTime +
+                ", contentStoreHit=" + contentStoreHit +
+                ", retries=" + retries +
+                '}';
+    }
+}
@@ -0,0 +1,88 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Collects statistics of single entry upload and reports progress to listener.
+ * Stages are marked by upload thread, bytes may be reported concurrently by multipart upload threads.
+ */
+final class EntryUploadTracker {
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final FileEntry entry;
+    private final UploadListener listener;
+    private final long createdNanos = System.nanoTime();
+    private volatile long startedNanos;
+    private volatile long copyStartedNanos;
+    private volatile long copyFinishedNanos;
+    private volatile long finishedNanos;
+    private volatile boolean contentStoreHit;
+
+    EntryUploadTracker(FileEntry entry, UploadListener listener) {
+        this.entry = requireNonNull(entry, "entry");
+        this.listener = requireNonNull(listener, "listener");
+    }
+
+    void started() {
+        startedNanos = System.nanoTime();
+    }
+
+    void copyStarted() {
+        copyStartedNanos = System.nanoTime();
+    }
+
+    void copyFinished() {
+        copyFinishedNanos = System.nanoTime();
+    }
+
+    void finished() {
+        finishedNanos = System.nanoTime();
+    }
+
+    void contentStoreHit() {
+        contentStoreHit = true;
+    }
+
+    void transferred(int n) {
+        listener.onProgress(entry, bytes.addAndGet(n));
+    }
+
+    void retried(Throwable error) {
+        listener.onRetry(entry, retries.incrementAndGet(), error);
+    }
+
+    /**
+     * @return bytes transferred so far
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return number of retried writes so far
+     */
+    int retries() {
+        return retries.get();
+    }
+
+    void reportSuccess() {
+        long copyStarted = copyStartedNanos == 0 ? startedNanos : copyStartedNanos;
+        long copyFinished = copyFinishedNanos == 0 ? copyStarted : copyFinishedNanos;
+        listener.onEntryUploaded(new EntryUploadStats(entry, bytes.get(),
+                Duration.ofNanos(startedNanos - createdNanos),
+                Duration.ofNanos(copyFinished - copyStarted),
+                Duration.ofNanos(finishedNanos - copyFinished),
+                contentStoreHit,
+                retries.get()));
+    }
+
+    void reportFailure(Throwable error) {
+        listener.onEntryFailed(entry, error);
+    }
+}
@@ -0,0 +1,148 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adjusts replication of shared staged files to the number of their references.
+ * Every reference is an entry of container being started or running, so file referenced by many containers
+ * is localized by many node managers at once and more replicas spread the load between data nodes.
+ * Replication is raised as soon as references grow and lowered when their number drops below a half.
+ */
+final class FanOutReplication {
+    private static final Logger log = LoggerFactory.getLogger(FanOutReplication.class);
+
+    private final int referencesPerReplica;
+    private final short maxReplication;
+    private final Executor executor;
+    private final Supplier<UserGroupInformation> user;
+    private final FileSystemPool fileSystems;
+
+    /**
+     * @param referencesPerReplica number of references served by single replica
+     * @param maxReplication maximum replication of file
+     * @param executor executor of replication updates
+     * @param user owner of files
+     * @param fileSystems pool of file systems of files
+     */
+    FanOutReplication(int referencesPerReplica, short maxReplication, Executor executor,
+                      Supplier<UserGroupInformation> user, FileSystemPool fileSystems) {
+        if (referencesPerReplica <= 0) {
+            throw new IllegalArgumentException("References per replica must be positive: " + referencesPerReplica);
+        }
+        if (maxReplication <= 0) {
+            throw new IllegalArgumentException("Max replication must be positive: " + maxReplication);
+        }
+        this.referencesPerReplica = referencesPerReplica;
+        this.maxReplication = maxReplication;
+        this.executor = requireNonNull(executor, "executor");
+        this.user = requireNonNull(user, "user");
+        this.fileSystems = requireNonNull(fileSystems, "fileSystems");
+    }
+
+    /**
+     * Starts tracking references of file after it is uploaded.
+     *
+     * @param file file uploaded by tool
+     */
+    void track(StagedFile file) {
+        file.resource().thenAccept(resource -> {
+            Path path = path(resource);
+            if (path != null) {
+                file.listenReferences(new TrackedFile(path)::referencesChanged);
+            }
+        });
+    }
+
+    short replication(int references, short defaultReplication) {
+        long desired = (references + referencesPerReplica - 1L) / referencesPerReplica;
+        return (short) Math.max(defaultReplication, Math.min(desired, maxReplication));
+    }
+
+    private static Path path(LocalResource resource) {
+        try {
+            return resource.getResource().toPath();
+        } catch (URISyntaxException e) {
+            log.warn("Can't adjust replication of {}", resource.getResource(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Updates of single file are coalesced, so at most one update is running and it applies the latest count.
+     */
+    private final class TrackedFile {
+        private final Path path;
+        private short defaultReplication;
+        private short replication;
+        private int references;
+        private boolean updating;
+
+        private TrackedFile(Path path) {
+            this.path = path;
+        }
+
+        private synchronized void referencesChanged(int count) {
+            references = count;
+            if (updating || count == 0) {
+                return;
+            }
+            updating = true;
+            try {
+                executor.execute(this::update);
+            } catch (RejectedExecutionException e) {
+                log.debug("Executor rejected replication update of {}", path);
+                updating = false;
+            }
+        }
+
+        private void update() {
+            try (FileSystemPool.Handle handle = fileSystems.acquire(user.get(), path.toUri())) {
+                FileSystem fs = handle.fileSystem();
+                short target;
+                while ((target = nextReplication(fs)) != 0) {
+                    if (fs.setReplication(path, target)) {
+                        log.debug("Replication of {} changed from {} to {}", path, replication, target);
+                    }
+                    synchronized (this) {
+                        replication = target;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Can't update replication of {}", path, e);
+                synchronized (this) {
+                    updating = false;
+                }
+            }
+        }
+
+        /**
+         * @return replication to apply or 0 if current replication is fine
+         */
+        private synchronized short nextReplication(FileSystem fs) {
+            if (defaultReplication == 0) {
+                defaultReplication = fs.getDefaultReplication(path);
+                replication = defaultReplication;
+            }
+            short desired = replication(references, defaultReplication);
+            if (references > 0 && (desired > replication || replication(references * 2, defaultReplication) < replication)) {
+                return desired;
+            }
+            updating = false;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.common.concurrent.ThreadFactoryBuilder;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Background collector of unreferenced uploaded files.
+ * Released files are queued and deleted periodically by single daemon thread,
+ * so releases of short containers do not issue RPC on caller thread.
+ * File systems have no bulk delete, so every file is deleted by its own request;
+ * single run deletes limited number of files to not occupy pooled file systems for long.
+ * Housekeeping task of owner, e.g. eviction of cached files, is run on collector thread before each run,
+ * so files released by it are deleted without delay.
+ */
+final class FileCollector implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FileCollector.class);
+    private static final ThreadFactory THREAD_FACTORY = ThreadFactoryBuilder
+            .withPrefix("briareus-yarn-file-collector-")
+            .deamon(true)
+            .build();
+
+    private final Queue<Path> garbage = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService collector = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+    private final Supplier<UserGroupInformation> user;
+    private final FileSystemPool fileSystems;
+    private final int filesPerRun;
+    private final long closeTimeoutMillis;
+    private final Runnable housekeeping;
+
+    /**
+     * @param user owner of collected files
+     * @param fileSystems pool of file systems used for deletion
+     * @param intervalMillis delay between collections
+     * @param filesPerRun maximum number of files deleted by single collection
+     * @param closeTimeoutMillis time close waits for deletion of queued files
+     * @param housekeeping task run before each collection
+     */
+    FileCollector(Supplier<UserGroupInformation> user, FileSystemPool fileSystems, long intervalMillis, int filesPerRun,
+                  long closeTimeoutMillis, Runnable housekeeping) {
+        this.user = requireNonNull(user, "user");
+        this.fileSystems = requireNonNull(fileSystems, "fileSystems");
+        this.filesPerRun = filesPerRun;
+        this.closeTimeoutMillis = closeTimeoutMillis;
+        this.housekeeping = requireNonNull(housekeeping, "housekeeping");
+        collector.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues file for deletion.
+     *
+     * @param path qualified path of unreferenced file
+     */
+    void collect(Path path) {
+        garbage.add(requireNonNull(path, "path"));
+    }
+
+    /**
+     * Deletes all queued files and stops collector thread.
+     */
+    @Override
+    public void close() {
+        close(() -> {
+        });
+    }
+
+    /**
+     * Deletes all queued files in background and stops collector thread. Waits for deletion for close timeout,
+     * deletion continues in background after timeout.
+     *
+     * @param afterCollection task run by collector thread after all queued files are deleted
+     */
+    void close(Runnable afterCollection) {
+        try {
+            collector.execute(() -> {
+                collectAll();
+                afterCollection.run();
+            });
+        } catch (RejectedExecutionException e) {
+            // already closed
+            return;
+        }
+        collector.shutdown();
+        if (closeTimeoutMillis == 0) {
+            return;
+        }
+        try {
+            if (!collector.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("File collector not terminated in {} ms. {} files are deleted in background",
+                        closeTimeoutMillis, garbage.size());
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for file collector. {} files left undeleted", garbage.size());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            housekeeping.run();
+        } catch (RuntimeException e) {
+            log.warn("Housekeeping failed", e);
+        }
+        collectQueued();
+    }
+
+    private void collectAll() {
+        while (!garbage.isEmpty()) {
+            collectQueued();
+        }
+    }
+
+    private void collectQueued() {
+        List<Path> files = new ArrayList<>();
+        Path path;
+        while (files.size() < filesPerRun && (path = garbage.poll()) != null) {
+            files.add(path);
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        log.debug("Collecting {} unused files", files.size());
+        UserGroupInformation ugi = user.get();
+        for (Path file : files) {
+            try (FileSystemPool.Handle handle = fileSystems.acquire(ugi, file.toUri())) {
+                if (handle.fileSystem().delete(file, false)) {
+                    log.debug("Deleted unused file {}", file);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Can't delete unused file {}", file, e);
+            }
+        }
+    }
+}
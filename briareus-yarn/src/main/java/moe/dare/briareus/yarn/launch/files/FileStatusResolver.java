@@ -0,0 +1,141 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves statuses of files with as few name node requests as possible.
+ * Files sharing parent directory are resolved with single listing of the directory,
+ * resolved statuses of all listed files are cached for configured time.
+ * Files not matched by listing, e.g. because listing qualifies paths differently, are resolved separately.
+ */
+final class FileStatusResolver {
+    private static final Logger log = LoggerFactory.getLogger(FileStatusResolver.class);
+    /**
+     * Listing of directory with many unrelated files costs more than few separate requests.
+     */
+    private static final int MIN_LISTED_FILES = 3;
+
+    private final ConcurrentMap<Path, CachedStatus> cache = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+
+    /**
+     * @param ttlNanos time statuses are cached, 0 to disable caching
+     */
+    FileStatusResolver(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Must be called by user having access to files.
+     *
+     * @param fs file system of files
+     * @param paths qualified paths of files
+     * @param requests counter of requests sent to file system
+     * @return statuses of existing files by path, missing files are absent
+     * @throws IOException on io errors
+     */
+    Map<Path, FileStatus> resolve(FileSystem fs, Collection<Path> paths, AtomicInteger requests) throws IOException {
+        long now = System.nanoTime();
+        evictExpired(now);
+        Map<Path, FileStatus> result = new HashMap<>();
+        Map<Path, Set<Path>> missesByParent = new LinkedHashMap<>();
+        for (Path path : paths) {
+            CachedStatus cached = cache.get(path);
+            if (cached != null && cached.expiresNanos - now > 0) {
+                result.put(path, cached.status);
+            } else {
+                missesByParent.computeIfAbsent(path.getParent(), any -> new HashSet<>()).add(path);
+            }
+        }
+        for (Map.Entry<Path, Set<Path>> group : missesByParent.entrySet()) {
+            Path parent = group.getKey();
+            Set<Path> files = group.getValue();
+            if (parent != null && files.size() >= MIN_LISTED_FILES) {
+                requests.incrementAndGet();
+                log.debug("Resolving {} files with listing of {}", files.size(), parent);
+                FileStatus[] listing;
+                try {
+                    listing = fs.listStatus(parent);
+                } catch (FileNotFoundException e) {
+                    log.debug("Directory {} not found", parent);
+                    continue;
+                }
+                Set<Path> unmatched = new HashSet<>(files);
+                for (FileStatus status : listing) {
+                    put(status.getPath(), status, now);
+                    if (unmatched.remove(status.getPath())) {
+                        result.put(status.getPath(), status);
+                    }
+                }
+                if (!unmatched.isEmpty()) {
+                    log.debug("{} files not found in listing of {}. Resolving them separately", unmatched.size(), parent);
+                    resolveSeparately(fs, unmatched, requests, now, result);
+                }
+            } else {
+                resolveSeparately(fs, files, requests, now, result);
+            }
+        }
+        return result;
+    }
+
+    private void resolveSeparately(FileSystem fs, Collection<Path> files, AtomicInteger requests, long now,
+                                   Map<Path, FileStatus> result) throws IOException {
+        for (Path file : files) {
+            requests.incrementAndGet();
+            try {
+                FileStatus status = fs.getFileStatus(file);
+                put(file, status, now);
+                result.put(file, status);
+            } catch (FileNotFoundException e) {
+                log.debug("File {} not found", file);
+            }
+        }
+    }
+
+    /**
+     * Replaces cached status of file with status read by other request.
+     *
+     * @param status current status of file with qualified path
+     */
+    void update(FileStatus status) {
+        put(status.getPath(), status, System.nanoTime());
+    }
+
+    private void put(Path path, FileStatus status, long now) {
+        if (ttlNanos > 0 && status.isFile()) {
+            cache.put(path, new CachedStatus(status, now + ttlNanos));
+        }
+    }
+
+    private void evictExpired(long now) {
+        if (!cache.isEmpty()) {
+            cache.values().removeIf(cached -> cached.expiresNanos - now <= 0);
+        }
+    }
+
+    private static final class CachedStatus {
+        private final FileStatus status;
+        private final long expiresNanos;
+
+        private CachedStatus(FileStatus status, long expiresNanos) {
+            this.status = status;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+}
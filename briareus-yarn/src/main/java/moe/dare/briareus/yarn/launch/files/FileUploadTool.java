@@ -6,7 +6,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.security.UserGroupInformation;
 
 import java.io.Closeable;
+import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
@@ -28,14 +31,35 @@ public interface FileUploadTool extends Closeable {
      * @param directory directory in which files will be uploaded.
      * @param executor executor for running io tasks
      * @return new default file upload tool
+     * @see FileUploadToolBuilder
      */
     static FileUploadTool createDefault(Supplier<UserGroupInformation> user, Configuration conf, Path directory, Executor executor) {
-        return DefaultFileUploadTool.create(user, conf, directory, executor);
+        return FileUploadToolBuilder.newBuilder()
+                .user(user)
+                .configuration(conf)
+                .directory(directory)
+                .executor(executor)
+                .build();
     }
 
     /**
+     * Entries of result hold references to uploaded files. Release them with {@link UploadedEntry#release()}
+     * when files are no longer needed so evicted files can be deleted.
+     *
      * @param files file entries which should be uploaded to hdfs.
      * @return result of file uploading.
      */
     CompletionStage<List<UploadedEntry>> upload(List<FileEntry> files);
+
+    /**
+     * File systems of uploaded resources known before upload, so credentials for them may be requested
+     * while files are uploaded. Called on launching thread, so implementations should not create file systems
+     * or make remote calls.
+     *
+     * @param files file entries which will be uploaded.
+     * @return uris of file systems which will hold resources of entries, possibly incomplete.
+     */
+    default Set<URI> fileSystems(List<FileEntry> files) {
+        return Collections.emptySet();
+    }
 }
@@ -0,0 +1,434 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+import static moe.dare.briareus.common.utils.Preconditions.checkState;
+
+/**
+ * Builder for default {@link FileUploadTool}.
+ * <br>Required parameters:
+ * <ul>
+ *     <li>user</li>
+ *     <li>configuration</li>
+ *     <li>directory</li>
+ *     <li>executor</li>
+ * </ul>
+ * <br>Optional parameters:
+ * <ul>
+ *     <li>contentStore</li>
+ *     <li>publicStore</li>
+ *     <li>multipartUpload</li>
+ *     <li>maxConcurrentUploads</li>
+ *     <li>bandwidthLimit</li>
+ *     <li>uploadRetries</li>
+ *     <li>listener</li>
+ *     <li>maxCachedFiles</li>
+ *     <li>cachedFilesTtl</li>
+ *     <li>revalidationInterval</li>
+ *     <li>collectionInterval</li>
+ *     <li>collectionCloseTimeout</li>
+ *     <li>fanOutReplication</li>
+ *     <li>fileStatusTtl</li>
+ *     <li>fileSystemPool</li>
+ *     <li>filesPerDirectory</li>
+ *     <li>deleteFilesOnClose</li>
+ * </ul>
+ *
+ * @see FileUploadTool#createDefault(Supplier, Configuration, Path, Executor)
+ */
+public class FileUploadToolBuilder {
+    Supplier<UserGroupInformation> user;
+    Configuration configuration;
+    Path directory;
+    Executor executor;
+    Path contentStoreDirectory;
+    Path publicStoreDirectory;
+    Predicate<FileEntry> publicEntries;
+    long multipartPartSize;
+    int maxConcurrentUploads = Integer.MAX_VALUE;
+    long bandwidthLimit;
+    UploadListener listener = new UploadListener() {
+    };
+    int maxCachedFiles = Integer.MAX_VALUE;
+    Duration cachedFilesTtl = Duration.ZERO;
+    Duration revalidationInterval = Duration.ofMinutes(1);
+    Duration collectionInterval = Duration.ofSeconds(5);
+    Duration collectionCloseTimeout = Duration.ofSeconds(30);
+    int uploadRetries;
+    int referencesPerReplica;
+    short maxReplication;
+    Duration fileStatusTtl = Duration.ZERO;
+    FileSystemPool fileSystemPool;
+    int filesPerDirectory = 4096;
+    boolean deleteFilesOnClose;
+    Duration initialRetryBackoff = Duration.ofSeconds(1);
+    Duration maxRetryBackoff = Duration.ofSeconds(30);
+
+    public static FileUploadToolBuilder newBuilder() {
+        return new FileUploadToolBuilder();
+    }
+
+    private FileUploadToolBuilder() {
+    }
+
+    /**
+     * Required property.
+     *
+     * @param user user who will upload files
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder user(Supplier<UserGroupInformation> user) {
+        this.user = requireNonNull(user, "user");
+        return this;
+    }
+
+    /**
+     * Required property.
+     *
+     * @param configuration configuration for filesystem
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder configuration(Configuration configuration) {
+        this.configuration = requireNonNull(configuration, "configuration");
+        return this;
+    }
+
+    /**
+     * Required property.
+     * Parent of given directory must exists. If given directory exists it must be empty.
+     * Tool will not delete provided directory on close.
+     *
+     * @param directory directory in which files will be uploaded.
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder directory(Path directory) {
+        this.directory = requireNonNull(directory, "directory");
+        return this;
+    }
+
+    /**
+     * Required property.
+     *
+     * @param executor executor for running io tasks
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder executor(Executor executor) {
+        this.executor = requireNonNull(executor, "executor");
+        return this;
+    }
+
+    /**
+     * Optional property.
+     * Enables content addressed store for {@link moe.dare.briareus.api.CacheableFileSource cacheable} entries.
+     * Files are stored under name derived from SHA-256 digest of their content
+     * so identical bytes are uploaded only once and reused by other file upload tools sharing the same store.
+     * Unlike upload directory store directory may be shared and is never cleaned by upload tool.
+     * Parent of given directory must exists.
+     *
+     * @param storeDirectory directory of content addressed store.
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder contentStore(Path storeDirectory) {
+        this.contentStoreDirectory = requireNonNull(storeDirectory, "storeDirectory");
+        return this;
+    }
+
+    /**
+     * Optional property.
+     * Enables public staging area for entries matching given predicate.
+     * Matching entries are stored world readable under name derived from SHA-256 digest of their content
+     * and registered with {@link org.apache.hadoop.yarn.api.records.LocalResourceVisibility#PUBLIC PUBLIC} visibility,
+     * so node managers localize them once and reuse for subsequent applications.
+     * Only non-secret immutable entries should match the predicate.
+     * All ancestors of given directory must be executable by others.
+     *
+     * @param storeDirectory directory of public store.
+     * @param publicEntries predicate selecting entries to be shared publicly
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder publicStore(Path storeDirectory, Predicate<FileEntry> publicEntries) {
+        this.publicStoreDirectory = requireNonNull(storeDirectory, "storeDirectory");
+        this.publicEntries = requireNonNull(publicEntries, "publicEntries");
+        return this;
+    }
+
+    /**
+     * Optional property.
+     * Enables parallel upload of large local files (see {@link moe.dare.briareus.api.FileSource#file()}).
+     * File at least twice as large as part size is written in parts concurrently using upload executor
+     * and parts are concatenated into single file. Part size is rounded up to multiple of target block size.
+     * Used only for file systems supporting concat (e.g. HDFS), others receive file in single stream.
+     *
+     * @param partSize minimal size of uploaded part in bytes
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder multipartUpload(long partSize) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("Part size must be positive: " + partSize);
+        }
+        this.multipartPartSize = partSize;
+        return this;
+    }
+
+    /**
+     * Optional property. Unlimited by default.
+     * Limits number of files (and parts of multipart uploads) written concurrently.
+     * Pending files are uploaded in order of upload calls, smaller files first within single call.
+     *
+     * @param maxConcurrentUploads maximum number of concurrently written streams
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder maxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads <= 0) {
+            throw new IllegalArgumentException("Max concurrent uploads must be positive: " + maxConcurrentUploads);
+        }
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        return this;
+    }
+
+    /**
+     * Optional property. Unlimited by default.
+     *
+     * @param bytesPerSecond total upload rate of all streams in bytes per second
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder bandwidthLimit(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Bandwidth limit must be positive: " + bytesPerSecond);
+        }
+        this.bandwidthLimit = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Optional property.
+     *
+     * @param listener listener of upload progress and statistics
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder listener(UploadListener listener) {
+        this.listener = requireNonNull(listener, "listener");
+        return this;
+    }
+
+    /**
+     * Optional property. Failed uploads are not retried by default.
+     * If target file system supports concat, file is written in block aligned segments
+     * and failed upload is resumed from the last written segment. Otherwise whole file is written again.
+     * Retries are reported to {@link UploadListener#onRetry(FileEntry, int, Throwable) listener}.
+     *
+     * @param retries maximum number of retries of each file, segment or part
+     * @param initialBackoff delay before first retry, doubled for each next retry
+     * @param maxBackoff maximum delay between retries
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder uploadRetries(int retries, Duration initialBackoff, Duration maxBackoff) {
+        requireNonNull(initialBackoff, "initialBackoff");
+        requireNonNull(maxBackoff, "maxBackoff");
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries must not be negative: " + retries);
+        }
+        if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("Illegal backoff range: [" + initialBackoff + ", " + maxBackoff + "]");
+        }
+        this.uploadRetries = retries;
+        this.initialRetryBackoff = initialBackoff;
+        this.maxRetryBackoff = maxBackoff;
+        return this;
+    }
+
+    /**
+     * Optional property. Unlimited by default.
+     * Tool reuses uploads of {@link moe.dare.briareus.api.CacheableFileSource cacheable} sources.
+     * When limit is exceeded least recently used file is evicted.
+     * Evicted file is deleted after all its {@link UploadedEntry uploaded entries} are released.
+     *
+     * @param maxCachedFiles maximum number of cached uploads
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder maxCachedFiles(int maxCachedFiles) {
+        if (maxCachedFiles <= 0) {
+            throw new IllegalArgumentException("Max cached files must be positive: " + maxCachedFiles);
+        }
+        this.maxCachedFiles = maxCachedFiles;
+        return this;
+    }
+
+    /**
+     * Optional property. Cached uploads do not expire by default.
+     * Expired uploads are evicted in background with {@link #collectionInterval(Duration) collection interval}.
+     * Evicted file is deleted after all its {@link UploadedEntry uploaded entries} are released.
+     *
+     * @param ttl time after upload when cached upload is evicted
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder cachedFilesTtl(Duration ttl) {
+        requireNonNull(ttl, "ttl");
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+        this.cachedFilesTtl = ttl;
+        return this;
+    }
+
+    /**
+     * Optional property. 1 minute by default.
+     * Cached upload is revalidated when it is reused after given interval since upload or previous validation.
+     * Upload of local file is evicted if length or modification time of the file changed.
+     * Status of {@link moe.dare.briareus.yarn.YarnAwareFileSource yarn aware} source is read again and its resource
+     * is resolved again if modification time or length of the file changed, so republished file gets actual
+     * timestamp required by node manager. Revalidation of such resource costs single file system request.
+     * Other sources are considered immutable.
+     *
+     * @param interval interval of revalidation, zero to disable revalidation
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder revalidationInterval(Duration interval) {
+        requireNonNull(interval, "interval");
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("Revalidation interval must not be negative: " + interval);
+        }
+        this.revalidationInterval = interval;
+        return this;
+    }
+
+    /**
+     * Optional property. 5 seconds by default.
+     * Files uploaded by tool are deleted in background when all their {@link UploadedEntry uploaded entries}
+     * are released. Released files are queued and deleted by background thread with given interval.
+     *
+     * @param interval delay between deletions of unreferenced files
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder collectionInterval(Duration interval) {
+        requireNonNull(interval, "interval");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Collection interval must be positive: " + interval);
+        }
+        this.collectionInterval = interval;
+        return this;
+    }
+
+    /**
+     * Optional property. 30 seconds by default.
+     * Files released before tool is closed are deleted by background thread on close. Close waits for deletion
+     * at most given time, remaining files are deleted in background after that.
+     *
+     * @param timeout time close waits for deletion of released files, zero to not wait
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder collectionCloseTimeout(Duration timeout) {
+        requireNonNull(timeout, "timeout");
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("Collection close timeout must not be negative: " + timeout);
+        }
+        this.collectionCloseTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Optional property. Files are written with default replication of file system by default.
+     * Replication of uploaded {@link moe.dare.briareus.api.CacheableFileSource cacheable} files is raised
+     * with number of not released {@link UploadedEntry uploaded entries} referencing them, so file localized by many
+     * containers at once is served by more data nodes. Replication is lowered back when entries are released.
+     *
+     * @param referencesPerReplica number of entries per one replica
+     * @param maxReplication maximum replication of uploaded file
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder fanOutReplication(int referencesPerReplica, short maxReplication) {
+        if (referencesPerReplica <= 0) {
+            throw new IllegalArgumentException("References per replica must be positive: " + referencesPerReplica);
+        }
+        if (maxReplication <= 0) {
+            throw new IllegalArgumentException("Max replication must be positive: " + maxReplication);
+        }
+        this.referencesPerReplica = referencesPerReplica;
+        this.maxReplication = maxReplication;
+        return this;
+    }
+
+    /**
+     * Optional property. Statuses are not cached by default.
+     * Statuses of files of {@link moe.dare.briareus.yarn.YarnAwareFileSource yarn aware sources} requested by single
+     * upload call are resolved together, several files of one directory are resolved with single listing.
+     * Cached statuses of listed files are reused by next calls until expired.
+     * Node manager fails localization of file modified after its status was resolved,
+     * so ttl should be shorter than expected lifetime of files.
+     *
+     * @param ttl time resolved file status is cached
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder fileStatusTtl(Duration ttl) {
+        requireNonNull(ttl, "ttl");
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+        this.fileStatusTtl = ttl;
+        return this;
+    }
+
+    /**
+     * Optional property. By default tool uses own pool closed with tool.
+     * File systems of uploaded files are borrowed from pool. Pool may be shared with
+     * {@link moe.dare.briareus.yarn.launch.credentials.CredentialsFactory credentials factory}.
+     *
+     * @param fileSystemPool pool of file systems, not closed by tool
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder fileSystemPool(FileSystemPool fileSystemPool) {
+        this.fileSystemPool = requireNonNull(fileSystemPool, "fileSystemPool");
+        return this;
+    }
+
+    /**
+     * Optional property. 4096 by default.
+     * Uploaded files are placed into shard subdirectories of upload directory holding at most given number of files,
+     * so listing, deletion and quota checks of upload directory stay cheap for long-running applications.
+     *
+     * @param filesPerDirectory maximum number of files in single subdirectory
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder filesPerDirectory(int filesPerDirectory) {
+        if (filesPerDirectory <= 0) {
+            throw new IllegalArgumentException("Files per directory must be positive: " + filesPerDirectory);
+        }
+        this.filesPerDirectory = filesPerDirectory;
+        return this;
+    }
+
+    /**
+     * Optional property. Disabled by default.
+     * When enabled tool deletes all uploaded files on close, including files still referenced by containers.
+     * Subdirectories are deleted in parallel using tool's executor. Upload directory itself is kept.
+     *
+     * @param deleteFilesOnClose whether to delete uploaded files on close
+     * @return this instance for chaining
+     */
+    public FileUploadToolBuilder deleteFilesOnClose(boolean deleteFilesOnClose) {
+        this.deleteFilesOnClose = deleteFilesOnClose;
+        return this;
+    }
+
+    /**
+     * @return new file upload tool
+     * @throws IllegalStateException if some required parameter is not set.
+     */
+    public FileUploadTool build() {
+        checkState(user != null, "user not set");
+        checkState(configuration != null, "configuration not set");
+        checkState(directory != null, "directory not set");
+        checkState(executor != null, "executor not set");
+        return DefaultFileUploadTool.create(this);
+    }
+}
@@ -0,0 +1,162 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.PrivilegedAction;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uploads file in ranges written concurrently to part files which are then concatenated into target file.
+ * Calling thread writes parts too, so upload completes even if executor has no free threads.
+ */
+final class MultipartUpload {
+    private static final Logger log = LoggerFactory.getLogger(MultipartUpload.class);
+    private static final String PART_SUFFIX = ".part";
+
+    private final long partSize;
+    private final Executor executor;
+
+    @FunctionalInterface
+    interface PartWriter {
+        /**
+         * @param part path of part file to create
+         * @param offset offset of range in source
+         * @param length length of range
+         * @throws IOException on io errors
+         */
+        void write(Path part, long offset, long length) throws IOException;
+    }
+
+    MultipartUpload(long partSize, Executor executor) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("Part size must be positive: " + partSize);
+        }
+        this.partSize = partSize;
+        this.executor = requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Concatenated files must consist of full blocks except the last one.
+     *
+     * @param blockSize block size of target file
+     * @return configured part size rounded up to multiple of block size
+     */
+    long partSize(long blockSize) {
+        if (blockSize <= 0) {
+            return partSize;
+        }
+        return (partSize + blockSize - 1) / blockSize * blockSize;
+    }
+
+    /**
+     * Uploads file of given size to target path. Must be called by user owning target file system.
+     *
+     * @param fs target file system supporting concat
+     * @param target qualified target path
+     * @param size size of uploaded file
+     * @param partSize size of single part
+     * @param writer writer of parts
+     * @throws IOException on io errors
+     */
+    void upload(FileSystem fs, Path target, long size, long partSize, PartWriter writer) throws IOException {
+        int partsCount = (int) ((size + partSize - 1) / partSize);
+        Path[] parts = new Path[partsCount];
+        parts[0] = target;
+        for (int i = 1; i < partsCount; i++) {
+            parts[i] = new Path(target.getParent(), target.getName() + PART_SUFFIX + i);
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Void>[] completions = new CompletableFuture[partsCount];
+        for (int i = 0; i < partsCount; i++) {
+            completions[i] = new CompletableFuture<>();
+        }
+        AtomicInteger nextPart = new AtomicInteger();
+        Runnable worker = () -> {
+            int part;
+            while ((part = nextPart.getAndIncrement()) < partsCount) {
+                long offset = part * partSize;
+                try {
+                    writer.write(parts[part], offset, Math.min(partSize, size - offset));
+                    completions[part].complete(null);
+                } catch (Exception e) {
+                    completions[part].completeExceptionally(e);
+                    for (int i = nextPart.getAndSet(partsCount); i < partsCount; i++) {
+                        completions[i].cancel(false);
+                    }
+                }
+            }
+        };
+        UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
+        log.debug("Uploading {} bytes to {} in {} parts", size, target, partsCount);
+        try {
+            for (int i = 1; i < partsCount; i++) {
+                executor.execute(() -> ugi.doAs((PrivilegedAction<Void>) () -> {
+                    worker.run();
+                    return null;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("Executor rejected part upload of {}. Remaining parts will be uploaded by calling thread", target);
+        }
+        worker.run();
+        IOException failure = awaitParts(completions);
+        if (failure != null) {
+            deleteParts(fs, parts);
+            throw failure;
+        }
+        Path[] sources = new Path[partsCount - 1];
+        System.arraycopy(parts, 1, sources, 0, sources.length);
+        try {
+            fs.concat(target, sources);
+        } catch (IOException | RuntimeException e) {
+            deleteParts(fs, parts);
+            throw e;
+        }
+    }
+
+    private static IOException awaitParts(CompletableFuture<Void>[] completions) throws InterruptedIOException {
+        IOException failure = null;
+        for (CompletableFuture<Void> completion : completions) {
+            try {
+                completion.get();
+            } catch (CancellationException e) {
+                // part was not started due to failure of another part
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                IOException exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                if (failure == null) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for part upload");
+            }
+        }
+        return failure;
+    }
+
+    private static void deleteParts(FileSystem fs, Path[] parts) {
+        for (Path part : parts) {
+            try {
+                fs.delete(part, false);
+            } catch (IOException e) {
+                log.warn("Can't delete part {}", part, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.security.AccessControlException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries failed file system writes with exponential backoff.
+ * Errors which will not disappear on retry (missing files, permission errors, interruption) are not retried.
+ */
+final class RetryPolicy {
+    private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+    private static final RetryPolicy NO_RETRIES = new RetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    @FunctionalInterface
+    interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface RetryHandler {
+        /**
+         * Called before next attempt. Should clean up results of failed attempt.
+         *
+         * @param retry number of retry starting from 1
+         * @param error failure of previous attempt
+         */
+        void beforeRetry(int retry, IOException error);
+    }
+
+    static RetryPolicy noRetries() {
+        return NO_RETRIES;
+    }
+
+    /**
+     * @param maxRetries maximum number of retries after first failed attempt
+     * @param initialBackoffMillis delay before first retry
+     * @param maxBackoffMillis maximum delay between retries
+     */
+    RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries must not be negative: " + maxRetries);
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Illegal backoff range: [" + initialBackoffMillis + ", " + maxBackoffMillis + "]");
+        }
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    boolean retriesEnabled() {
+        return maxRetries > 0;
+    }
+
+    /**
+     * @param description description of attempted operation for logs
+     * @param attempt operation to run
+     * @param handler handler called before each retry
+     * @param <T> type of result
+     * @return result of first successful attempt
+     * @throws IOException failure of last attempt or first non-retryable failure
+     */
+    <T> T run(Object description, Attempt<T> attempt, RetryHandler handler) throws IOException {
+        for (int retry = 0; ; retry++) {
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                if (retry >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long backoff = backoffMillis(retry);
+                log.warn("Attempt {} of {} failed. Retrying in {} ms", retry + 1, description, backoff, e);
+                sleep(backoff);
+                handler.beforeRetry(retry + 1, e);
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter, so concurrent uploads failed together do not retry together.
+     */
+    long backoffMillis(int retry) {
+        long backoff = initialBackoffMillis << Math.min(retry, 30);
+        if (backoff <= 0 || backoff > maxBackoffMillis) {
+            backoff = maxBackoffMillis;
+        }
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private static boolean isRetryable(IOException e) {
+        return !(e instanceof FileNotFoundException
+                || e instanceof AccessControlException
+                || e instanceof InterruptedIOException);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for retry");
+        }
+    }
+}
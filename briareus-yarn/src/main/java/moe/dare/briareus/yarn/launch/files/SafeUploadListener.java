@@ -0,0 +1,65 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Protects upload from failures of user provided listener.
+ */
+final class SafeUploadListener implements UploadListener {
+    private static final Logger log = LoggerFactory.getLogger(SafeUploadListener.class);
+
+    private final UploadListener delegate;
+
+    SafeUploadListener(UploadListener delegate) {
+        this.delegate = requireNonNull(delegate, "listener");
+    }
+
+    @Override
+    public void onProgress(FileEntry entry, long bytesTransferred) {
+        try {
+            delegate.onProgress(entry, bytesTransferred);
+        } catch (RuntimeException e) {
+            log.warn("Upload listener failed on progress of {}", entry, e);
+        }
+    }
+
+    @Override
+    public void onEntryUploaded(EntryUploadStats stats) {
+        try {
+            delegate.onEntryUploaded(stats);
+        } catch (RuntimeException e) {
+            log.warn("Upload listener failed on {}", stats, e);
+        }
+    }
+
+    @Override
+    public void onRetry(FileEntry entry, int retries, Throwable error) {
+        try {
+            delegate.onRetry(entry, retries, error);
+        } catch (RuntimeException e) {
+            log.warn("Upload listener failed on retry of {}", entry, e);
+        }
+    }
+
+    @Override
+    public void onEntryFailed(FileEntry entry, Throwable error) {
+        try {
+            delegate.onEntryFailed(entry, error);
+        } catch (RuntimeException e) {
+            log.warn("Upload listener failed on failure of {}", entry, e);
+        }
+    }
+
+    @Override
+    public void onUploadCompleted(UploadCallStats stats) {
+        try {
+            delegate.onUploadCompleted(stats);
+        } catch (RuntimeException e) {
+            log.warn("Upload listener failed on {}", stats, e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Layout of upload directory. Uploaded files are spread between shard subdirectories holding limited number of files,
+ * so no directory grows with the number of uploads of long-running application.
+ * Shard names start with hash of shard number, so neighbour shards do not share name prefix.
+ * Shard directories are created by file system with the first file.
+ */
+final class ShardedLayout {
+    private static final Logger log = LoggerFactory.getLogger(ShardedLayout.class);
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final Path directory;
+    private final int filesPerShard;
+
+    /**
+     * @param directory upload directory
+     * @param filesPerShard maximum number of files in single shard
+     */
+    ShardedLayout(Path directory, int filesPerShard) {
+        if (filesPerShard <= 0) {
+            throw new IllegalArgumentException("Files per shard must be positive: " + filesPerShard);
+        }
+        this.directory = requireNonNull(directory, "directory");
+        this.filesPerShard = filesPerShard;
+    }
+
+    /**
+     * @param fileNumber unique sequence number of file
+     * @param fileName name of file
+     * @return path of file in its shard
+     */
+    Path path(long fileNumber, String fileName) {
+        return new Path(new Path(directory, shardName(fileNumber / filesPerShard)), fileName);
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    static String shardName(long shard) {
+        int hash = (int) ((shard * HASH_MULTIPLIER) >>> 56);
+        return String.format("%02x-%d", hash, shard);
+    }
+
+    /**
+     * Deletes all shards with their files in parallel. Each shard is deleted by separate request,
+     * so name node never handles deletion of whole upload directory at once.
+     * Must be called by user owning upload directory.
+     *
+     * @param fs file system of upload directory
+     * @param executor executor of deletions, caller deletes shards rejected by executor
+     */
+    void deleteShards(FileSystem fs, Executor executor) {
+        FileStatus[] shards;
+        try {
+            shards = fs.listStatus(directory, path -> !path.getName().startsWith("."));
+        } catch (IOException e) {
+            log.warn("Can't list shards of {}", directory, e);
+            return;
+        }
+        log.debug("Deleting {} shards of {}", shards.length, directory);
+        List<CompletableFuture<Void>> deletions = new ArrayList<>(shards.length);
+        for (FileStatus shard : shards) {
+            Runnable deletion = () -> deleteShard(fs, shard.getPath());
+            try {
+                deletions.add(CompletableFuture.runAsync(deletion, executor));
+            } catch (RejectedExecutionException e) {
+                deletion.run();
+            }
+        }
+        CompletableFuture.allOf(deletions.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static void deleteShard(FileSystem fs, Path shard) {
+        try {
+            fs.delete(shard, true);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can't delete shard {}", shard, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedLayout{directory=" + directory + ", filesPerShard=" + filesPerShard + '}';
+    }
+}
@@ -0,0 +1,151 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.CacheableFileSource;
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileEntry.Mode;
+import moe.dare.briareus.yarn.YarnAwareFileSource;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Key of upload results shared between entries with the same source.
+ * Yarn aware sources are keyed by qualified path and directory flag of resource, so sources created with
+ * different configurations share results.
+ */
+final class SharedFileKey {
+    private final Mode mode;
+    private final String pattern;
+    private final LocalResourceVisibility visibility;
+    private final CacheableFileSource source;
+    private final Path resourcePath;
+    private final boolean directory;
+
+    /**
+     * @param entry entry with cacheable source
+     * @param visibility visibility of resource
+     * @param resourcePath qualified path of yarn aware source or null to compare sources
+     */
+    SharedFileKey(FileEntry entry, LocalResourceVisibility visibility, @Nullable Path resourcePath) {
+        this.mode = entry.mode();
+        this.pattern = entry.pattern().orElse(null);
+        this.visibility = requireNonNull(visibility, "visibility");
+        this.source = (CacheableFileSource) entry.source();
+        this.resourcePath = resourcePath;
+        this.directory = source instanceof YarnAwareFileSource && ((YarnAwareFileSource) source).isDirectory();
+    }
+
+    /**
+     * @return true if resource is resolved from remote file system and can't be validated locally
+     */
+    boolean isRemote() {
+        return resourcePath != null;
+    }
+
+    /**
+     * @return qualified path of yarn aware source or null
+     */
+    @Nullable
+    Path resourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * @param resource resource resolved for remote source
+     * @return version of remote file the resource was resolved from
+     */
+    Version resourceVersion(LocalResource resource) {
+        // size of directory resource is total length of its files, node manager verifies only timestamp
+        return new Version(directory ? 0 : resource.getSize(), resource.getTimestamp());
+    }
+
+    /**
+     * @return current version of local file source or empty if source is not a local file
+     */
+    Optional<Version> version() {
+        Optional<java.nio.file.Path> file = source.file();
+        if (resourcePath != null || !file.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.get(), BasicFileAttributes.class);
+            return Optional.of(new Version(attributes.size(), attributes.lastModifiedTime().toMillis()));
+        } catch (IOException e) {
+            return Optional.of(Version.MISSING);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SharedFileKey that = (SharedFileKey) o;
+        if (mode != that.mode || visibility != that.visibility || directory != that.directory
+                || !Objects.equals(pattern, that.pattern)) return false;
+        if (resourcePath != null || that.resourcePath != null) {
+            return resourcePath != null && resourcePath.equals(that.resourcePath);
+        }
+        return source.equals(that.source);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mode.hashCode();
+        result = 31 * result + Objects.hashCode(pattern);
+        result = 31 * result + visibility.hashCode();
+        result = 31 * result + Boolean.hashCode(directory);
+        result = 31 * result + (resourcePath != null ? resourcePath.hashCode() : source.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedFileKey{mode=" + mode + ", visibility=" + visibility + ", source=" + source + '}';
+    }
+
+    /**
+     * Length and modification time of local or remote file. Length of directory is not compared.
+     */
+    static final class Version {
+        static final Version MISSING = new Version(-1, -1);
+        private final long length;
+        private final long modificationTime;
+
+        private Version(long length, long modificationTime) {
+            this.length = length;
+            this.modificationTime = modificationTime;
+        }
+
+        static Version of(FileStatus status) {
+            return new Version(status.isDirectory() ? 0 : status.getLen(), status.getModificationTime());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Version version = (Version) o;
+            return length == version.length && modificationTime == version.modificationTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(length) + Long.hashCode(modificationTime);
+        }
+
+        @Override
+        public String toString() {
+            return "Version{length=" + length + ", modificationTime=" + modificationTime + '}';
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of staged files of cacheable sources with size and time based eviction.
+ * Cache holds own reference to every cached file and releases it on eviction.
+ * Expired files are evicted by {@link #evictExpired()} which is run periodically by owner of cache,
+ * expired file is also not reused on access.
+ * Cached files are revalidated on access once per revalidation interval: files of local sources are evicted
+ * when length or modification time of source changes, resolved resources of remote sources are evicted when
+ * modification time or length of remote file differs from resource, so republished file is resolved again.
+ * Versions of sources are read outside of cache lock.
+ */
+final class SharedFilesCache {
+    private static final Logger log = LoggerFactory.getLogger(SharedFilesCache.class);
+
+    private final LinkedHashMap<SharedFileKey, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long revalidationNanos;
+    private final VersionReader versions;
+    private final LongSupplier nanoTime;
+
+    @FunctionalInterface
+    interface VersionReader {
+        /**
+         * @param key key of cached file
+         * @return current version of source or empty if source is not versioned
+         */
+        Optional<SharedFileKey.Version> read(SharedFileKey key);
+    }
+
+    /**
+     * @param maxSize maximum number of cached files
+     * @param ttlNanos time after which file is evicted, 0 to disable expiration
+     * @param revalidationNanos time after which file is revalidated on access, 0 to disable revalidation
+     * @param versions reader of current versions of local and remote sources
+     */
+    SharedFilesCache(int maxSize, long ttlNanos, long revalidationNanos, VersionReader versions) {
+        this(maxSize, ttlNanos, revalidationNanos, versions, System::nanoTime);
+    }
+
+    SharedFilesCache(int maxSize, long ttlNanos, long revalidationNanos, LongSupplier nanoTime) {
+        this(maxSize, ttlNanos, revalidationNanos, SharedFileKey::version, nanoTime);
+    }
+
+    SharedFilesCache(int maxSize, long ttlNanos, long revalidationNanos, VersionReader versions,
+                     LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.revalidationNanos = revalidationNanos;
+        this.versions = requireNonNull(versions, "versions");
+        this.nanoTime = requireNonNull(nanoTime, "nanoTime");
+    }
+
+    /**
+     * @param key cache key
+     * @param factory factory of staged file used if there is no usable cached file
+     * @return cached or created file retained for caller
+     */
+    StagedFile retainOrPut(SharedFileKey key, Supplier<StagedFile> factory) {
+        CachedFile checked = fileToCheck(key);
+        boolean versionRead = checked != null || revalidationNanos != 0 && !key.isRemote() && !contains(key);
+        SharedFileKey.Version current = versionRead ? versions.read(key).orElse(null) : null;
+        List<StagedFile> evicted = new ArrayList<>();
+        StagedFile result;
+        synchronized (this) {
+            long now = nanoTime.getAsLong();
+            CachedFile cached = files.get(key);
+            if (cached != null && cached.file.resource().isCompletedExceptionally()) {
+                log.warn("Remove cached result of failed upload attempt for {}.", key);
+                cached = evict(key, cached, evicted);
+            }
+            if (cached != null && isExpired(cached, now)) {
+                log.debug("Evicting expired {}", key);
+                cached = evict(key, cached, evicted);
+            }
+            if (cached != null && !revalidate(key, cached, checked, current, now)) {
+                cached = evict(key, cached, evicted);
+            }
+            if (cached != null) {
+                log.debug("Reusing previous upload request ({}) for {}", cached.file, key);
+                cached.file.retain();
+                result = cached.file;
+            } else {
+                result = factory.get();
+                result.retain();
+                SharedFileKey.Version version = null;
+                if (revalidationNanos != 0 && !key.isRemote()) {
+                    // cache changed concurrently if version was not read, it is read under lock then
+                    version = versionRead ? current : versions.read(key).orElse(null);
+                }
+                files.put(key, new CachedFile(result, now, version));
+                evictOverflow(evicted);
+            }
+        }
+        evicted.forEach(StagedFile::release);
+        return result;
+    }
+
+    /**
+     * Evicts expired files and releases them.
+     */
+    void evictExpired() {
+        if (ttlNanos == 0) {
+            return;
+        }
+        List<StagedFile> evicted = new ArrayList<>();
+        synchronized (this) {
+            long now = nanoTime.getAsLong();
+            Iterator<Map.Entry<SharedFileKey, CachedFile>> iterator = files.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<SharedFileKey, CachedFile> entry = iterator.next();
+                if (isExpired(entry.getValue(), now)) {
+                    log.debug("Evicting expired {}", entry.getKey());
+                    iterator.remove();
+                    evicted.add(entry.getValue().file);
+                }
+            }
+        }
+        evicted.forEach(StagedFile::release);
+    }
+
+    /**
+     * Evicts all files.
+     */
+    void clear() {
+        List<StagedFile> evicted = new ArrayList<>();
+        synchronized (this) {
+            files.values().forEach(cached -> evicted.add(cached.file));
+            files.clear();
+        }
+        evicted.forEach(StagedFile::release);
+    }
+
+    /**
+     * @return cached file which source version must be read before reuse or null
+     */
+    private synchronized CachedFile fileToCheck(SharedFileKey key) {
+        CachedFile cached = files.get(key);
+        if (cached == null || expectedVersion(key, cached) == null || !isRevalidationDue(cached, nanoTime.getAsLong())) {
+            return null;
+        }
+        return cached;
+    }
+
+    private synchronized boolean contains(SharedFileKey key) {
+        return files.containsKey(key);
+    }
+
+    /**
+     * @param checked cached file which version was read outside of lock or null
+     * @param current version of source read outside of lock
+     * @return false if cached file must be evicted
+     */
+    private boolean revalidate(SharedFileKey key, CachedFile cached, @Nullable CachedFile checked,
+                               @Nullable SharedFileKey.Version current, long now) {
+        if (!isRevalidationDue(cached, now)) {
+            return true;
+        }
+        SharedFileKey.Version expected = expectedVersion(key, cached);
+        if (expected != null) {
+            if (cached != checked) {
+                // cached or resolved concurrently after version was read, validated on next access
+                return true;
+            }
+            if (!expected.equals(current)) {
+                log.info("Source of {} changed from {} to {}. It will be {} again",
+                        key, expected, current, key.isRemote() ? "resolved" : "uploaded");
+                return false;
+            }
+        }
+        cached.validatedNanos = now;
+        return true;
+    }
+
+    /**
+     * Remote resource is not validated until it is resolved, resolved resource is as fresh as its file status.
+     *
+     * @return version of source the cached file was created from or null if it can't be validated
+     */
+    @Nullable
+    private static SharedFileKey.Version expectedVersion(SharedFileKey key, CachedFile cached) {
+        if (!key.isRemote()) {
+            return cached.version;
+        }
+        CompletableFuture<LocalResource> resource = cached.file.resource();
+        if (!resource.isDone() || resource.isCompletedExceptionally()) {
+            return null;
+        }
+        return key.resourceVersion(resource.join());
+    }
+
+    private boolean isRevalidationDue(CachedFile cached, long now) {
+        return revalidationNanos != 0 && now - cached.validatedNanos > revalidationNanos;
+    }
+
+    private boolean isExpired(CachedFile cached, long now) {
+        return ttlNanos != 0 && now - cached.createdNanos > ttlNanos;
+    }
+
+    private CachedFile evict(SharedFileKey key, CachedFile cached, List<StagedFile> evicted) {
+        files.remove(key);
+        evicted.add(cached.file);
+        return null;
+    }
+
+    private void evictOverflow(List<StagedFile> evicted) {
+        Iterator<Map.Entry<SharedFileKey, CachedFile>> iterator = files.entrySet().iterator();
+        while (files.size() > maxSize && iterator.hasNext()) {
+            Map.Entry<SharedFileKey, CachedFile> eldest = iterator.next();
+            log.debug("Evicting least recently used {}", eldest.getKey());
+            iterator.remove();
+            evicted.add(eldest.getValue().file);
+        }
+    }
+
+    private static final class CachedFile {
+        private final StagedFile file;
+        private final long createdNanos;
+        private final SharedFileKey.Version version;
+        private long validatedNanos;
+
+        private CachedFile(StagedFile file, long createdNanos, @Nullable SharedFileKey.Version version) {
+            this.file = file;
+            this.createdNanos = createdNanos;
+            this.version = version;
+            this.validatedNanos = createdNanos;
+        }
+    }
+}
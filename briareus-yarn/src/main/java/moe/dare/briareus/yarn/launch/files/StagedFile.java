@@ -0,0 +1,94 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import static java.util.Objects.requireNonNull;
+import static moe.dare.briareus.common.utils.Preconditions.checkState;
+
+/**
+ * Reference counted file prepared by upload tool.
+ * Created with single reference. File owned by tool is deleted when the last reference is released.
+ */
+final class StagedFile {
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final CompletableFuture<LocalResource> resource;
+    private final Path ownedPath;
+    private final Consumer<Path> deleter;
+    private volatile IntConsumer referencesListener;
+    private volatile String checksum;
+
+    /**
+     * @param resource future resource of this file
+     * @param ownedPath path of file to be deleted after last release or null if file is not owned by tool
+     * @param deleter action deleting owned file
+     */
+    StagedFile(CompletableFuture<LocalResource> resource, @Nullable Path ownedPath, Consumer<Path> deleter) {
+        this.resource = requireNonNull(resource, "resource");
+        this.ownedPath = ownedPath;
+        this.deleter = requireNonNull(deleter, "deleter");
+    }
+
+    CompletableFuture<LocalResource> resource() {
+        return resource;
+    }
+
+    /**
+     * @return hex encoded SHA-256 of file content if it was computed during upload
+     */
+    Optional<String> checksum() {
+        return Optional.ofNullable(checksum);
+    }
+
+    /**
+     * Must be called before resource is completed.
+     */
+    void checksum(Optional<String> checksum) {
+        this.checksum = checksum.orElse(null);
+    }
+
+    void retain() {
+        int current;
+        do {
+            current = references.get();
+            checkState(current > 0, "Staged file already released");
+        } while (!references.compareAndSet(current, current + 1));
+        notifyListener(current + 1);
+    }
+
+    void release() {
+        int remaining = references.decrementAndGet();
+        checkState(remaining >= 0, "Staged file released too many times");
+        notifyListener(remaining);
+        if (remaining == 0 && ownedPath != null) {
+            resource.whenComplete((unused, exception) -> deleter.accept(ownedPath));
+        }
+    }
+
+    /**
+     * @param listener listener of reference count changes, immediately called with current count
+     */
+    void listenReferences(IntConsumer listener) {
+        referencesListener = requireNonNull(listener, "listener");
+        listener.accept(references.get());
+    }
+
+    private void notifyListener(int count) {
+        IntConsumer listener = referencesListener;
+        if (listener != null) {
+            listener.accept(count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StagedFile{ownedPath=" + ownedPath + ", references=" + references.get() + '}';
+    }
+}
@@ -0,0 +1,45 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits rate of bytes transferred by all streams sharing this instance.
+ * Unused bandwidth is accumulated for at most {@link #MAX_BURST_NANOS}.
+ */
+final class Throttler {
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double nanosPerByte;
+    private long nextFreeNanos = System.nanoTime();
+
+    Throttler(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Bandwidth must be positive: " + bytesPerSecond);
+        }
+        this.nanosPerByte = (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+    }
+
+    /**
+     * Blocks until given number of bytes may be transferred.
+     *
+     * @param bytes number of bytes to transfer
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now - MAX_BURST_NANOS) + (long) (bytes * nanosPerByte);
+            waitNanos = nextFreeNanos - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings of file transfers shared by all copy actions of upload tool.
+ */
+final class TransferSettings {
+    private final MultipartUpload multipartUpload;
+    private final Throttler throttler;
+    private final RetryPolicy retryPolicy;
+    private final FileSystemPool fileSystems;
+
+    TransferSettings(@Nullable MultipartUpload multipartUpload, @Nullable Throttler throttler, RetryPolicy retryPolicy,
+                     FileSystemPool fileSystems) {
+        this.multipartUpload = multipartUpload;
+        this.throttler = throttler;
+        this.retryPolicy = requireNonNull(retryPolicy, "retry policy");
+        this.fileSystems = requireNonNull(fileSystems, "file systems");
+    }
+
+    @Nullable
+    MultipartUpload multipartUpload() {
+        return multipartUpload;
+    }
+
+    @Nullable
+    Throttler throttler() {
+        return throttler;
+    }
+
+    RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    FileSystemPool fileSystems() {
+        return fileSystems;
+    }
+}
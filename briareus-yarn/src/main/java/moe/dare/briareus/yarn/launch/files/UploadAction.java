@@ -0,0 +1,16 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.yarn.api.records.LocalResource;
+
+import java.security.PrivilegedExceptionAction;
+import java.util.Optional;
+
+/**
+ * Action uploading single file. Must be run by user owning uploaded file.
+ */
+interface UploadAction extends PrivilegedExceptionAction<LocalResource> {
+    /**
+     * @return hex encoded SHA-256 of content uploaded by successful run or empty if it was not computed
+     */
+    Optional<String> checksum();
+}
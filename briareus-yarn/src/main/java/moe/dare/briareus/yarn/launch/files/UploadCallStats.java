@@ -0,0 +1,109 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Statistics of single {@link FileUploadTool#upload(java.util.List) upload} call.
+ */
+public final class UploadCallStats {
+    private final int entries;
+    private final int cacheHits;
+    private final int cacheMisses;
+    private final long bytes;
+    private final int retries;
+    private final int metadataRequests;
+    private final Duration duration;
+    private final boolean successful;
+
+    UploadCallStats(int entries, int cacheHits, int cacheMisses, long bytes, int retries, int metadataRequests,
+                    Duration duration, boolean successful) {
+        this.entries = entries;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.bytes = bytes;
+        this.retries = retries;
+        this.metadataRequests = metadataRequests;
+        this.duration = requireNonNull(duration, "duration");
+        this.successful = successful;
+    }
+
+    /**
+     * @return number of entries in upload call
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * @return number of cacheable entries reusing previous uploads
+     */
+    public int cacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return number of cacheable entries uploaded by this call
+     */
+    public int cacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return bytes written by entries uploaded in this call
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of retried writes of entries uploaded in this call
+     */
+    public int retries() {
+        return retries;
+    }
+
+    /**
+     * @return number of file system requests resolving resources of {@link moe.dare.briareus.yarn.YarnAwareFileSource
+     * yarn aware sources} in this call
+     */
+    public int metadataRequests() {
+        return metadataRequests;
+    }
+
+    /**
+     * @return time from upload call till completion of its result
+     */
+    public Duration duration() {
+        return duration;
+    }
+
+    /**
+     * @return true if all entries were uploaded
+     */
+    public boolean successful() {
+        return successful;
+    }
+
+    /**
+     * @return average throughput of upload call in bytes per second
+     */
+    public double bytesPerSecond() {
+        return EntryUploadStats.ratePerSecond(bytes, duration);
+    }
+
+    @Override
+    public String toString() {
+        return "UploadCallStats{" +
+                "entries=" + entries +
+                ", cacheHits=" + cacheHits +
+                ", cacheMisses=" + cacheMisses +
+                ", bytes=" + bytes +
+                ", retries=" + retries +
+                ", metadataRequests=" + metadataRequests +
+                ", duration=" + duration +
+                ", successful=" + successful +
+                '}';
+    }
+}
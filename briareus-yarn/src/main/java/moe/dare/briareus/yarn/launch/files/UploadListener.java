@@ -0,0 +1,53 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+
+/**
+ * Listener of file upload tool progress. All methods do nothing by default.
+ * Methods are called from upload threads and must not block. Exceptions thrown by listener are logged and ignored.
+ *
+ * @see FileUploadToolBuilder#listener(UploadListener)
+ */
+public interface UploadListener {
+    /**
+     * Called frequently while entry is transferred.
+     *
+     * @param entry transferred entry
+     * @param bytesTransferred bytes of entry transferred so far
+     */
+    default void onProgress(FileEntry entry, long bytesTransferred) {
+    }
+
+    /**
+     * Called once for each entry prepared by tool. Not called for entries reusing previous upload.
+     *
+     * @param stats entry statistics
+     */
+    default void onEntryUploaded(EntryUploadStats stats) {
+    }
+
+    /**
+     * Called before failed write of entry is retried.
+     *
+     * @param entry retried entry
+     * @param retries number of retries of entry so far including this one
+     * @param error cause of failed attempt
+     */
+    default void onRetry(FileEntry entry, int retries, Throwable error) {
+    }
+
+    /**
+     * @param entry entry which failed to upload
+     * @param error cause of failure
+     */
+    default void onEntryFailed(FileEntry entry, Throwable error) {
+    }
+
+    /**
+     * Called once when result of {@link FileUploadTool#upload(java.util.List) upload} call completes.
+     *
+     * @param stats upload call statistics
+     */
+    default void onUploadCompleted(UploadCallStats stats) {
+    }
+}
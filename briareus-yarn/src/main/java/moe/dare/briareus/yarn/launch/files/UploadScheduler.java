@@ -0,0 +1,124 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs uploads on executor limiting number of concurrent streams.
+ * Pending uploads are started in order of upload call, then from smaller to larger files.
+ * Parts of already started multipart uploads are started before any pending upload.
+ */
+final class UploadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(UploadScheduler.class);
+    private static final Comparator<Task> TASK_ORDER = Comparator.<Task>comparingLong(t -> t.call)
+            .thenComparingLong(t -> t.size)
+            .thenComparingLong(t -> t.sequence);
+
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(TASK_ORDER);
+    private final Executor executor;
+    private final int maxStreams;
+    private long sequence;
+    private int running;
+
+    UploadScheduler(Executor executor, int maxStreams) {
+        if (maxStreams <= 0) {
+            throw new IllegalArgumentException("Max streams must be positive: " + maxStreams);
+        }
+        this.executor = requireNonNull(executor, "executor");
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * @param call sequence number of upload call
+     * @param size size of uploaded file, {@link Long#MAX_VALUE} if unknown
+     * @param action upload action
+     * @param <T> type of result
+     * @return future completed with result of action
+     */
+    <T> CompletableFuture<T> submit(long call, long size, Supplier<T> action) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        enqueue(call, size, () -> {
+            try {
+                future.complete(action.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, future::completeExceptionally);
+        return future;
+    }
+
+    /**
+     * @return executor of multipart upload parts
+     */
+    Executor partExecutor() {
+        return part -> enqueue(Long.MIN_VALUE, 0, part,
+                e -> log.debug("Part upload rejected. It will be uploaded by calling thread", e));
+    }
+
+    private void enqueue(long call, long size, Runnable action, Consumer<Throwable> onReject) {
+        synchronized (this) {
+            queue.add(new Task(call, size, sequence++, action, onReject));
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                if (running >= maxStreams || queue.isEmpty()) {
+                    return;
+                }
+                task = queue.poll();
+                running++;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.action.run();
+                    } finally {
+                        release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running--;
+                }
+                task.onReject.accept(e);
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (this) {
+            running--;
+        }
+        drain();
+    }
+
+    private static final class Task {
+        private final long call;
+        private final long size;
+        private final long sequence;
+        private final Runnable action;
+        private final Consumer<Throwable> onReject;
+
+        private Task(long call, long size, long sequence, Runnable action, Consumer<Throwable> onReject) {
+            this.call = call;
+            this.size = size;
+            this.sequence = sequence;
+            this.action = action;
+            this.onReject = onReject;
+        }
+    }
+}
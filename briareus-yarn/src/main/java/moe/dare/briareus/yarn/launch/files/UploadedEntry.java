@@ -2,6 +2,10 @@ package moe.dare.briareus.yarn.launch.files;
 
 import moe.dare.briareus.api.FileEntry;
 import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Objects.requireNonNull;
 
@@ -11,14 +15,21 @@ import static java.util.Objects.requireNonNull;
 public class UploadedEntry {
     private final FileEntry entry;
     private final LocalResource resource;
+    private final StagedFile stagedFile;
+    private final AtomicBoolean released = new AtomicBoolean();
 
     public static UploadedEntry of(FileEntry entry, LocalResource resource) {
-        return new UploadedEntry(entry, resource);
+        return new UploadedEntry(entry, resource, null);
+    }
+
+    static UploadedEntry of(FileEntry entry, LocalResource resource, StagedFile stagedFile) {
+        return new UploadedEntry(entry, resource, requireNonNull(stagedFile, "staged file"));
     }
 
-    private UploadedEntry(FileEntry entry, LocalResource resource) {
+    private UploadedEntry(FileEntry entry, LocalResource resource, @Nullable StagedFile stagedFile) {
         this.entry = requireNonNull(entry, "entry");
         this.resource = requireNonNull(resource, "resource");
+        this.stagedFile = stagedFile;
     }
 
     public FileEntry entry() {
@@ -28,4 +39,25 @@ public class UploadedEntry {
     public LocalResource resource() {
         return resource;
     }
+
+    /**
+     * Checksum is computed from uploaded bytes while they are copied, so the content is never read back.
+     * It is absent for files not copied by tool (e.g. yarn aware sources) and for multipart uploads.
+     *
+     * @return hex encoded SHA-256 of uploaded content if known
+     */
+    public Optional<String> checksum() {
+        return stagedFile != null ? stagedFile.checksum() : Optional.empty();
+    }
+
+    /**
+     * Releases reference to uploaded file. Should be called when resource is no longer needed,
+     * e.g. when all containers using it are finished. File uploaded by tool is deleted
+     * when all its entries are released and it is evicted from tool's cache. Subsequent calls do nothing.
+     */
+    public void release() {
+        if (stagedFile != null && released.compareAndSet(false, true)) {
+            stagedFile.release();
+        }
+    }
 }
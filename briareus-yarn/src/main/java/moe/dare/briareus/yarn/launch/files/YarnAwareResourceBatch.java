@@ -0,0 +1,169 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.BriareusException;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.URL;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Prepares resources of yarn aware sources requested by single upload call.
+ * Statuses of all files are resolved together, so files of one directory cost single name node request.
+ */
+final class YarnAwareResourceBatch {
+    private final List<Request> requests = new ArrayList<>();
+    private final FileSystemPool fileSystems;
+    private final FileStatusResolver resolver;
+    private final AtomicInteger metadataRequests;
+
+    YarnAwareResourceBatch(FileSystemPool fileSystems, FileStatusResolver resolver, AtomicInteger metadataRequests) {
+        this.fileSystems = requireNonNull(fileSystems, "fileSystems");
+        this.resolver = requireNonNull(resolver, "resolver");
+        this.metadataRequests = requireNonNull(metadataRequests, "metadataRequests");
+    }
+
+    /**
+     * Adds resource to batch. Must not be called after batch is started.
+     *
+     * @param directory true if path must be a directory, false if path must be a file
+     * @param pattern pattern of extracted entries of {@link LocalResourceType#PATTERN pattern} resource
+     * @return future completed when batch is run
+     */
+    CompletableFuture<LocalResource> add(Path path, boolean directory, LocalResourceVisibility visibility,
+                                         LocalResourceType type, @Nullable String pattern, EntryUploadTracker tracker) {
+        Request request = new Request(path, directory, visibility, type, pattern, tracker);
+        requests.add(request);
+        return request.resource;
+    }
+
+    boolean isEmpty() {
+        return requests.isEmpty();
+    }
+
+    /**
+     * Resolves all resources of batch. Must be called by user having access to files.
+     */
+    void run() {
+        Map<FileSystem, List<Request>> requestsByFs = new IdentityHashMap<>();
+        List<FileSystemPool.Handle> handles = new ArrayList<>();
+        try {
+            for (Request request : requests) {
+                request.tracker.started();
+                try {
+                    FileSystemPool.Handle handle = fileSystems.acquire(request.path);
+                    handles.add(handle);
+                    FileSystem fs = handle.fileSystem();
+                    request.qualifiedPath = fs.makeQualified(request.path);
+                    requestsByFs.computeIfAbsent(fs, any -> new ArrayList<>()).add(request);
+                } catch (IOException | RuntimeException e) {
+                    request.fail(e);
+                }
+            }
+            requestsByFs.forEach(this::resolve);
+        } finally {
+            handles.forEach(FileSystemPool.Handle::close);
+        }
+    }
+
+    /**
+     * Fails all resources of batch.
+     *
+     * @param error cause of failure
+     */
+    void fail(Throwable error) {
+        requests.forEach(request -> request.fail(error));
+    }
+
+    private void resolve(FileSystem fs, List<Request> fsRequests) {
+        Map<Path, FileStatus> statuses;
+        try {
+            List<Path> paths = new ArrayList<>(fsRequests.size());
+            fsRequests.forEach(request -> paths.add(request.qualifiedPath));
+            statuses = resolver.resolve(fs, paths, metadataRequests);
+        } catch (IOException | RuntimeException e) {
+            fsRequests.forEach(request -> request.fail(e));
+            return;
+        }
+        for (Request request : fsRequests) {
+            FileStatus status = statuses.get(request.qualifiedPath);
+            if (status == null) {
+                request.fail(new FileNotFoundException("File " + request.qualifiedPath + " does not exist"));
+            } else if (status.isDirectory() != request.directory) {
+                request.fail(new IOException((status.isDirectory() ? "Directory " : "File ") + request.qualifiedPath
+                        + " is used as " + (request.directory ? "directory" : "file") + " source"));
+            } else if (status.isDirectory()) {
+                completeDirectory(fs, request, status);
+            } else {
+                request.complete(status, status.getLen());
+            }
+        }
+    }
+
+    /**
+     * Directory is localized as is by node manager which verifies only timestamp of directory itself.
+     * Size of resource is total length of directory files computed by name node with single request.
+     */
+    private void completeDirectory(FileSystem fs, Request request, FileStatus status) {
+        if (request.type != LocalResourceType.FILE) {
+            request.fail(new IOException("Directory " + request.qualifiedPath + " can't be localized as " + request.type));
+            return;
+        }
+        try {
+            metadataRequests.incrementAndGet();
+            long length = fs.getContentSummary(request.qualifiedPath).getLength();
+            request.complete(status, length);
+        } catch (IOException | RuntimeException e) {
+            request.fail(e);
+        }
+    }
+
+    private static final class Request {
+        private final CompletableFuture<LocalResource> resource = new CompletableFuture<>();
+        private final Path path;
+        private final boolean directory;
+        private final LocalResourceVisibility visibility;
+        private final LocalResourceType type;
+        private final String pattern;
+        private final EntryUploadTracker tracker;
+        private Path qualifiedPath;
+
+        private Request(Path path, boolean directory, LocalResourceVisibility visibility, LocalResourceType type,
+                        @Nullable String pattern, EntryUploadTracker tracker) {
+            this.path = requireNonNull(path, "path");
+            this.directory = directory;
+            this.visibility = requireNonNull(visibility, "visibility");
+            this.type = requireNonNull(type, "local resource type");
+            this.pattern = pattern;
+            this.tracker = requireNonNull(tracker, "tracker");
+        }
+
+        private void complete(FileStatus status, long length) {
+            URL resourceURL = URL.fromPath(qualifiedPath);
+            tracker.finished();
+            tracker.reportSuccess();
+            resource.complete(LocalResource.newInstance(resourceURL, type, visibility,
+                    length, status.getModificationTime(), pattern));
+        }
+
+        private void fail(Throwable error) {
+            tracker.reportFailure(error);
+            resource.completeExceptionally(new BriareusException("Can't prepare resource", error));
+        }
+    }
+}
@@ -115,14 +115,22 @@ class BriareusYarnSenseiContextImpl implements BriareusYarnSenseiContext {
         ContainerRequest request = createRequest(options);
         CompletionStage<ContainerLaunchContext> launchContextFuture = launchContextFactory.create(options);
         CompletableFuture<Container> containerFuture = allocateContainer(request);
-        return launchContextFuture.handle(Either::oneOfNullable).thenCombine(containerFuture, (context, container) -> {
-            if (context.isRight()) {
-                log.warn("Stopping container {} before start", container.getId());
-                amrmClient.releaseAssignedContainer(container.getId());
-                throw new JvmStartFailedException("Can't prepare container context", context.right());
+        CompletionStage<RemoteJvmProcess> process = launchContextFuture.handle(Either::oneOfNullable)
+                .thenCombine(containerFuture, (context, container) -> {
+                    if (context.isRight()) {
+                        log.warn("Stopping container {} before start", container.getId());
+                        amrmClient.releaseAssignedContainer(container.getId());
+                        throw new JvmStartFailedException("Can't prepare container context", context.right());
+                    }
+                    return launchContainer(container, context.left());
+                }).thenCompose(future -> future);
+        // context is not released by container completion if allocation failed before launch
+        process.whenComplete((p, exception) -> {
+            if (exception != null) {
+                launchContextFuture.thenAccept(launchContextFactory::release);
             }
-            return launchContainer(container, context.left());
-        }).thenCompose(future -> future).thenApply(x -> x);
+        });
+        return process.thenApply(x -> x);
     }
 
     private void verifyOptions(RemoteJvmOptions options) {
@@ -165,6 +173,7 @@ class BriareusYarnSenseiContextImpl implements BriareusYarnSenseiContext {
                 return null;
             });
             exitCodeFuture.whenComplete((exitCode, throwable) -> {
+                launchContextFactory.release(context);
                 if (throwable == null) {
                     log.debug("Requesting node managed {} to stop container {} after completion.", nodeId, containerId);
                     nmClientAsync.stopContainerAsync(containerId, nodeId);
@@ -177,6 +186,7 @@ class BriareusYarnSenseiContextImpl implements BriareusYarnSenseiContext {
         } catch (Exception e) {
             log.warn(failureStartMessage, containerId);
             amrmClient.releaseAssignedContainer(containerId);
+            launchContextFactory.release(context);
             throw e;
         }
     }
@@ -43,7 +43,14 @@ class BriareusYarnShodanContextImpl implements BriareusYarnShodanContext {
         checkState(!closed, CONTEXT_CLOSED_MSG);
         verifyOptions(options);
         CompletionStage<ContainerLaunchContext> context = launchContextFactory.create(options);
-        return context.thenApplyAsync(c -> start(options, c), startContainerExecutor).thenApply(x -> x);
+        CompletionStage<YarnSenseiJvmProcess> process = context.thenApplyAsync(c -> start(options, c), startContainerExecutor);
+        // context is not released by application monitoring if submission failed or was rejected by closed executor
+        process.whenComplete((p, exception) -> {
+            if (exception != null) {
+                context.thenAccept(launchContextFactory::release);
+            }
+        });
+        return process.thenApply(x -> x);
     }
 
     private void verifyOptions(RemoteJvmOptions options) {
@@ -68,6 +75,9 @@ class BriareusYarnShodanContextImpl implements BriareusYarnShodanContext {
                 .ifPresent(senseiContext::setNodeLabelExpression);
         ApplicationId applicationId = client.submitApplication(senseiContext);
         CompletableFuture<FinalApplicationStatus> statusFuture = appStatusMonitor.monitorApplication(applicationId);
+        // Monitoring stops before application finished only when this context is closed (or yarn client stopped).
+        // Nothing releases context after that, so it is released too.
+        statusFuture.whenComplete((status, exception) -> launchContextFactory.release(containerLaunchContext));
         return new YarnSenseiJvmProcessImpl(applicationId, client, statusFuture);
     }
 
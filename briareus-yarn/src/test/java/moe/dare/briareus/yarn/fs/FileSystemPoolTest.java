@@ -0,0 +1,75 @@
+package moe.dare.briareus.yarn.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSystemPoolTest {
+    private static final URI LOCAL = URI.create("file:///");
+    private final FileSystemPool pool = FileSystemPool.create(new Configuration(), Duration.ofMinutes(1));
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    @DisplayName("Same user borrows the same file system")
+    void testSameUser() throws IOException {
+        // given
+        UserGroupInformation user = UserGroupInformation.createRemoteUser("test-user");
+        try (FileSystemPool.Handle first = pool.acquire(user, LOCAL);
+             FileSystemPool.Handle second = pool.acquire(user, LOCAL)) {
+            // then
+            assertThat(second.fileSystem()).isSameAs(first.fileSystem());
+        }
+    }
+
+    @Test
+    @DisplayName("Users with the same name and different credentials don't share file system")
+    void testSameNameDifferentCredentials() throws IOException {
+        // given
+        UserGroupInformation first = userWithToken("first");
+        UserGroupInformation second = userWithToken("second");
+        try (FileSystemPool.Handle firstHandle = pool.acquire(first, LOCAL);
+             FileSystemPool.Handle secondHandle = pool.acquire(second, LOCAL)) {
+            // then
+            assertThat(first.getUserName()).isEqualTo(second.getUserName());
+            assertThat(secondHandle.fileSystem()).isNotSameAs(firstHandle.fileSystem());
+        }
+    }
+
+    @Test
+    @DisplayName("File system uri is qualified without creating file system")
+    void testFileSystemUri() throws IOException {
+        // when
+        URI remote = pool.fileSystemUri(URI.create("unknownfs://namenode:8020/some/dir"));
+        URI local = pool.fileSystemUri(URI.create("/some/dir"));
+        // then
+        assertThat(remote).isEqualTo(URI.create("unknownfs://namenode:8020/"));
+        assertThat(local).isEqualTo(URI.create("file:///"));
+    }
+
+    private static UserGroupInformation userWithToken(String identifier) {
+        UserGroupInformation user = UserGroupInformation.createRemoteUser("test-user");
+        Credentials credentials = new Credentials();
+        Text service = new Text(identifier + "-service");
+        credentials.addToken(service, new Token<TokenIdentifier>(identifier.getBytes(StandardCharsets.UTF_8),
+                new byte[0], new Text("test-delegation-token"), service));
+        user.addCredentials(credentials);
+        return user;
+    }
+}
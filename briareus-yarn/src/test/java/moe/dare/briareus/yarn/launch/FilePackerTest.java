@@ -0,0 +1,159 @@
+package moe.dare.briareus.yarn.launch;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.api.FileSources;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FilePackerTest {
+    private final FilePacker packer = new FilePacker(16);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Small files are replaced by archive with their content")
+    void testSmallFilesPacked() throws IOException {
+        // given
+        FileEntry big = copy("big.txt", "more than sixteen bytes");
+        FileEntry a = copy("a.txt", "a");
+        FileEntry b = copy("b.txt", "bb");
+        // when
+        FilePacker.Packing packing = packer.pack(Arrays.asList(big, a, b));
+        // then
+        List<FileEntry> entries = packing.entries();
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0)).isSameAs(big);
+        FileEntry pack = entries.get(1);
+        assertThat(pack.name()).isEqualTo(FilePacker.PACK_NAME);
+        assertThat(pack.mode()).isEqualTo(FileEntry.Mode.UNZIP);
+        Map<String, String> content = unzip(pack.source());
+        assertThat(new ArrayList<>(content.keySet())).containsExactly("a.txt", "b.txt");
+        assertThat(content.get("a.txt")).isEqualTo("a");
+        assertThat(content.get("b.txt")).isEqualTo("bb");
+    }
+
+    @Test
+    @DisplayName("Archives of the same files are equal byte to byte")
+    void testDeterministicArchive() throws IOException {
+        // given
+        List<FileEntry> files = Arrays.asList(copy("a.txt", "a"), copy("b.txt", "b"));
+        // when
+        byte[] first = read(packer.pack(files).entries().get(0).source());
+        byte[] second = read(packer.pack(files).entries().get(0).source());
+        // then
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    @DisplayName("Single small file is not packed")
+    void testSingleFileNotPacked() throws IOException {
+        // given
+        List<FileEntry> files = Arrays.asList(copy("a.txt", "a"), copy("big.txt", "more than sixteen bytes"));
+        // when
+        FilePacker.Packing packing = packer.pack(files);
+        // then
+        assertThat(packing.entries()).isSameAs(files);
+        assertThat(packing.command(Arrays.asList("run"))).containsExactly("run");
+    }
+
+    @Test
+    @DisplayName("Executable files keep their own resources")
+    void testExecutableNotPacked() throws IOException {
+        // given
+        FileEntry script = copy("run.sh", "exit 0");
+        Files.setPosixFilePermissions(script.source().file().get(), PosixFilePermissions.fromString("rwxr-xr-x"));
+        FileEntry a = copy("a.txt", "a");
+        FileEntry b = copy("b.txt", "b");
+        // when
+        FilePacker.Packing packing = packer.pack(Arrays.asList(script, a, b));
+        // then
+        assertThat(packing.entries()).hasSize(2);
+        assertThat(packing.entries().get(0)).isSameAs(script);
+        assertThat(new ArrayList<>(unzip(packing.entries().get(1).source()).keySet()))
+                .containsExactly("a.txt", "b.txt");
+    }
+
+    @Test
+    @DisplayName("Files are not packed if container has entry named as archive")
+    void testPackNameTaken() throws IOException {
+        // given
+        List<FileEntry> files = Arrays.asList(copy("a.txt", "a"), copy("b.txt", "b"),
+                copy(FilePacker.PACK_NAME, "c"));
+        // when
+        FilePacker.Packing packing = packer.pack(files);
+        // then
+        assertThat(packing.entries()).isSameAs(files);
+    }
+
+    @Test
+    @DisplayName("Launch command links every packed file by quoted name")
+    void testCommand() throws IOException {
+        // given
+        FilePacker.Packing packing = packer.pack(Arrays.asList(copy("a.txt", "a"), copy("b-1.txt", "b")));
+        // when
+        List<String> command = packing.command(Arrays.asList("bash", "launcher"));
+        // then
+        assertThat(command).containsExactly(
+                "ln -s '.briareus_pack/a.txt' '.briareus_pack/b-1.txt' . &&", "bash", "launcher");
+    }
+
+    @Test
+    @DisplayName("Single quotes are escaped in shell words")
+    void testQuote() {
+        assertThat(FilePacker.Packing.quote("it's")).isEqualTo("'it'\\''s'");
+        assertThat(FilePacker.Packing.quote("$HOME `x`")).isEqualTo("'$HOME `x`'");
+    }
+
+    private FileEntry copy(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return FileEntry.copy(FileSources.fileSource(file), name);
+    }
+
+    private static Map<String, String> unzip(FileSource source) throws IOException {
+        Map<String, String> content = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(source.open())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                content.put(entry.getName(), new String(readAll(zip), StandardCharsets.UTF_8));
+            }
+        }
+        return content;
+    }
+
+    private static byte[] read(FileSource source) throws IOException {
+        try (InputStream in = source.open()) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,121 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.api.RemoteJvmOptions;
+import moe.dare.briareus.yarn.launch.files.UploadedEntry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.URL;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(MockitoExtension.class)
+@Timeout(10)
+class CredentialsFactoryBaseTest {
+    private final Map<FsKey, Credentials> tokens = new ConcurrentHashMap<>();
+    private final CredentialsFactoryBase factory = new CredentialsFactoryBase(null, new Configuration(), Thread::new) {
+        @Override
+        protected CompletableFuture<Credentials> tokens(@NotNull FsKey fsKey) {
+            return CompletableFuture.completedFuture(tokens.get(fsKey));
+        }
+    };
+
+    @Mock
+    RemoteJvmOptions options;
+
+    @AfterEach
+    void tearDown() {
+        factory.close();
+    }
+
+    @Test
+    @DisplayName("Unchanged tokens of single file system return the same snapshot")
+    void testSingleFileSystemSnapshotReused() {
+        // given
+        putTokens("first", "first");
+        // when
+        CredentialsSnapshot first = snapshot(entry("first"));
+        CredentialsSnapshot second = snapshot(entry("first"));
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(second.tokenStorage()).isEqualTo(first.tokenStorage());
+    }
+
+    @Test
+    @DisplayName("Unchanged tokens of several file systems return the same combined snapshot")
+    void testCombinedSnapshotReused() {
+        // given
+        putTokens("first", "first");
+        putTokens("second", "second");
+        // when
+        CredentialsSnapshot first = snapshot(entry("first"), entry("second"));
+        CredentialsSnapshot second = snapshot(entry("second"), entry("first"));
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(second.version()).isEqualTo(first.version());
+        assertThat(second.tokenStorage()).isEqualTo(first.tokenStorage());
+        assertThat(first.credentials().numberOfTokens()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Changed tokens of one file system create new combined snapshot")
+    void testCombinedSnapshotReplaced() {
+        // given
+        putTokens("first", "first");
+        putTokens("second", "second");
+        CredentialsSnapshot first = snapshot(entry("first"), entry("second"));
+        // when
+        putTokens("second", "second-renewed");
+        CredentialsSnapshot second = snapshot(entry("first"), entry("second"));
+        // then
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.version()).isNotEqualTo(first.version());
+        assertThat(second.tokenStorage()).isNotEqualTo(first.tokenStorage());
+    }
+
+    private CredentialsSnapshot snapshot(UploadedEntry... entries) {
+        return factory.snapshot(options, Arrays.asList(entries)).toCompletableFuture().join();
+    }
+
+    private void putTokens(String host, String identifier) {
+        Credentials credentials = new Credentials();
+        Text service = new Text(identifier + "-service");
+        credentials.addToken(service, new Token<TokenIdentifier>(identifier.getBytes(StandardCharsets.UTF_8),
+                new byte[0], new Text("test-delegation-token"), service));
+        tokens.put(FsKey.keyFor(entry(host)), credentials);
+    }
+
+    private static UploadedEntry entry(String host) {
+        FileSource fileSource = () -> {
+            throw new AssertionError("Interaction with file source");
+        };
+        URL url = URL.fromURI(URI.create("hdfs://" + host + "/myfile"));
+        LocalResource resource = LocalResource.newInstance(url,
+                LocalResourceType.FILE,
+                LocalResourceVisibility.APPLICATION,
+                0, 0, null);
+        return UploadedEntry.of(FileEntry.copy(fileSource, "test-file"), resource);
+    }
+}
@@ -0,0 +1,136 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+@Timeout(10)
+class KeyedExecutorTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Tasks of key above its limit wait while tasks of other keys run")
+    void testLimitPerKey() throws InterruptedException {
+        // given
+        KeyedExecutor<String> executor = new KeyedExecutor<>(Thread::new, 4, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean secondStarted = new AtomicBoolean();
+        CompletableFuture<String> first = executor.supply("a", () -> block(started, "a1"));
+        started.await(5, TimeUnit.SECONDS);
+        // when
+        CompletableFuture<String> second = executor.supply("a", () -> {
+            secondStarted.set(true);
+            return "a2";
+        });
+        CompletableFuture<String> other = executor.supply("b", () -> "b1");
+        // then
+        assertThat(other.join()).isEqualTo("b1");
+        assertThat(secondStarted.get()).isFalse();
+        assertThat(executor.waitingTasks("a")).isEqualTo(1);
+        assertThat(executor.waitingTasks()).isEqualTo(1);
+        // when
+        release.countDown();
+        // then
+        assertThat(first.join()).isEqualTo("a1");
+        assertThat(second.join()).isEqualTo("a2");
+        assertThat(executor.waitingTasks("a")).isZero();
+        assertThat(executor.waitingTasks()).isZero();
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Tasks submitted above waiting limit are rejected")
+    void testWaitingLimit() throws InterruptedException {
+        // given
+        KeyedExecutor<String> executor = new KeyedExecutor<>(Thread::new, 1, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = executor.supply("a", () -> block(started, "a1"));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = executor.supply("a", () -> "a2");
+        // when
+        CompletableFuture<String> rejected = executor.supply("b", () -> "b1");
+        // then
+        assertThat(catchThrowable(rejected::join)).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.rejectedTasks()).isEqualTo(1L);
+        assertThat(executor.waitingTasks()).isEqualTo(1);
+        // when
+        release.countDown();
+        // then
+        assertThat(running.join()).isEqualTo("a1");
+        assertThat(waiting.join()).isEqualTo("a2");
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Submitted and waiting tasks are rejected after shutdown")
+    void testShutdown() throws InterruptedException {
+        // given
+        KeyedExecutor<String> executor = new KeyedExecutor<>(Thread::new, 1, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = executor.supply("a", () -> block(started, "a1"));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = executor.supply("a", () -> "a2");
+        // when
+        executor.shutdown();
+        CompletableFuture<String> submitted = executor.supply("b", () -> "b1");
+        release.countDown();
+        // then
+        assertThat(running.join()).isEqualTo("a1");
+        assertThat(catchThrowable(waiting::join)).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(catchThrowable(submitted::join)).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.rejectedTasks()).isEqualTo(2L);
+        assertThat(executor.waitingTasks()).isZero();
+    }
+
+    @Test
+    @DisplayName("Cancelled running task is interrupted and frees slot of key")
+    void testCancelInterruptsTask() throws InterruptedException {
+        // given
+        KeyedExecutor<String> executor = new KeyedExecutor<>(Thread::new, 2, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CompletableFuture<String> running = executor.supply("a", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return "a1";
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = executor.supply("a", () -> "a2");
+        // when
+        running.cancel(true);
+        // then
+        assertThat(waiting.join()).isEqualTo("a2");
+        assertThat(interrupted.get()).isTrue();
+        assertThat(running.isCancelled()).isTrue();
+        executor.shutdown();
+    }
+
+    private String block(CountDownLatch started, String result) {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+}
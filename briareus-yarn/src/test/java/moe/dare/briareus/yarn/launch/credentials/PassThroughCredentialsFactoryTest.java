@@ -0,0 +1,183 @@
+package moe.dare.briareus.yarn.launch.credentials;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.api.RemoteJvmOptions;
+import moe.dare.briareus.yarn.launch.files.UploadedEntry;
+import moe.dare.briareus.yarn.testtools.DelegateClock;
+import moe.dare.briareus.yarn.testtools.DelegateTestFs;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.security.token.delegation.AbstractDelegationTokenIdentifier;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.URL;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+@ExtendWith(MockitoExtension.class)
+@Timeout(10)
+class PassThroughCredentialsFactoryTest {
+    private static final Text SERVICE = new Text("delegatefs");
+    private final Configuration conf = DelegateTestFs.createConfiguration(new Configuration());
+    private final UserGroupInformation ugi = UserGroupInformation.createRemoteUser("test-user");
+    private final String host = UUID.randomUUID().toString();
+    private final DelegateClock clock = DelegateClock.create(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+    private final Token<TokenIdentifier> fallbackToken = token(SERVICE, null);
+    private final AtomicInteger fallbackCalls = new AtomicInteger();
+
+    @Mock
+    FileSystem mockFs;
+    @Mock
+    RemoteJvmOptions options;
+
+    @Test
+    @DisplayName("Launch tokens of file system service are passed without fallback")
+    void testMatchedTokensPassed() throws IOException {
+        // given
+        Token<TokenIdentifier> token = token(SERVICE, Instant.EPOCH.plus(Duration.ofDays(7)));
+        Credentials launchTokens = new Credentials();
+        launchTokens.addToken(new Text("matching"), token);
+        launchTokens.addToken(new Text("other"), token(new Text("other-service"), null));
+        try (Closeable ignored = DelegateTestFs.registerDelegate(host, mockFs);
+             CredentialsFactory factory = create(launchTokens, fallback())) {
+            // when
+            CredentialsSnapshot first = snapshot(factory).join();
+            CredentialsSnapshot second = snapshot(factory).join();
+            // then
+            assertThat(first.credentials().getAllTokens()).singleElement().isSameAs(token);
+            assertThat(second).isSameAs(first);
+            assertThat(fallbackCalls.get()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("Fallback factory is used when launch tokens are close to max date")
+    void testExpiringTokensReplaced() throws IOException {
+        // given
+        Credentials launchTokens = new Credentials();
+        launchTokens.addToken(SERVICE, token(SERVICE, Instant.EPOCH.plus(Duration.ofHours(2))));
+        try (Closeable ignored = DelegateTestFs.registerDelegate(host, mockFs);
+             CredentialsFactory factory = create(launchTokens, fallback())) {
+            Credentials passed = snapshot(factory).join().credentials();
+            // when
+            clock.setInstant(Instant.EPOCH.plus(Duration.ofMinutes(61)));
+            Credentials afterMargin = snapshot(factory).join().credentials();
+            // then
+            assertThat(passed.getAllTokens()).singleElement().isNotSameAs(fallbackToken);
+            assertThat(afterMargin.getAllTokens()).singleElement().isSameAs(fallbackToken);
+            assertThat(fallbackCalls.get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Expiring launch tokens are passed until max date without fallback")
+    void testExpiringTokensWithoutFallback() throws IOException {
+        // given
+        Instant maxDate = Instant.EPOCH.plus(Duration.ofMinutes(30));
+        Credentials launchTokens = new Credentials();
+        launchTokens.addToken(SERVICE, token(SERVICE, maxDate));
+        try (Closeable ignored = DelegateTestFs.registerDelegate(host, mockFs);
+             CredentialsFactory factory = create(launchTokens, null)) {
+            // when
+            CredentialsSnapshot beforeMaxDate = snapshot(factory).join();
+            clock.setInstant(maxDate);
+            Throwable afterMaxDate = catchThrowable(snapshot(factory)::join);
+            // then
+            assertThat(beforeMaxDate.credentials().numberOfTokens()).isEqualTo(1);
+            assertThat(afterMaxDate).hasMessageContaining("expired");
+        }
+    }
+
+    @Test
+    @DisplayName("Failure to resolve service name is not cached")
+    void testServiceNameFailureNotCached() throws IOException {
+        // given
+        Token<TokenIdentifier> token = token(SERVICE, null);
+        Credentials launchTokens = new Credentials();
+        launchTokens.addToken(SERVICE, token);
+        try (CredentialsFactory factory = create(launchTokens, null)) {
+            Throwable unknownHost = catchThrowable(snapshot(factory)::join);
+            // when
+            Credentials credentials;
+            try (Closeable ignored = DelegateTestFs.registerDelegate(host, mockFs)) {
+                credentials = snapshot(factory).join().credentials();
+            }
+            // then
+            assertThat(unknownHost).hasMessageContaining("No tokens");
+            assertThat(credentials.getAllTokens()).singleElement().isSameAs(token);
+        }
+    }
+
+    private CredentialsFactory create(Credentials launchTokens, CredentialsFactory fallback) {
+        return PassThroughCredentialsFactory.create(launchTokens, () -> ugi, conf, null, fallback, clock);
+    }
+
+    private CredentialsFactory fallback() {
+        return (options, entries) -> {
+            fallbackCalls.incrementAndGet();
+            Credentials tokens = new Credentials();
+            tokens.addToken(SERVICE, fallbackToken);
+            return CompletableFuture.completedFuture(tokens);
+        };
+    }
+
+    private CompletableFuture<CredentialsSnapshot> snapshot(CredentialsFactory factory) {
+        FileSource fileSource = () -> {
+            throw new AssertionError("Interaction with file source");
+        };
+        URL url = URL.fromURI(URI.create("delegatefs://" + host + "/myfile"));
+        LocalResource resource = LocalResource.newInstance(url,
+                LocalResourceType.FILE,
+                LocalResourceVisibility.APPLICATION,
+                0, 0, null);
+        UploadedEntry entry = UploadedEntry.of(FileEntry.copy(fileSource, "test-file"), resource);
+        return factory.snapshot(options, Collections.singletonList(entry)).toCompletableFuture();
+    }
+
+    private static Token<TokenIdentifier> token(Text service, Instant maxDate) {
+        TokenIdentifier identifier = maxDate == null ? null : new TestDelegationTokenIdentifier(maxDate);
+        return new Token<TokenIdentifier>(new byte[0], new byte[0], new Text("test-delegation-token"), service) {
+            @Override
+            public TokenIdentifier decodeIdentifier() {
+                return identifier;
+            }
+        };
+    }
+
+    private static class TestDelegationTokenIdentifier extends AbstractDelegationTokenIdentifier {
+        private TestDelegationTokenIdentifier(Instant maxDate) {
+            this.setMaxDate(maxDate.toEpochMilli());
+        }
+
+        @Override
+        public Text getKind() {
+            return new Text("test-delegation-token");
+        }
+    }
+}
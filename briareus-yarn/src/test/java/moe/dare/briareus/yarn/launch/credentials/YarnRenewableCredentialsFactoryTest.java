@@ -24,6 +24,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -36,6 +37,9 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -49,11 +53,18 @@ class YarnRenewableCredentialsFactoryTest {
     private final Configuration delegateConf = createConfiguration();
     private final UserGroupInformation ugi = UserGroupInformation.createRemoteUser("test-user");
     private final Instant FAR_FUTURE_MAX_DATE = Instant.ofEpochMilli(Long.MAX_VALUE);
+    /**
+     * Tokens are cached for 11 hours and refreshed 30 minutes before expiration with recommended margin.
+     */
+    private static final Duration REFRESH_DELAY = Duration.ofHours(11)
+            .minus(YarnRenewableCredentialsFactory.RECOMMENDED_REFRESH_MARGIN);
 
     @Mock
     FileSystem mockFs;
     @Mock
     RemoteJvmOptions options;
+    @Mock
+    ScheduledExecutorService refresher;
 
     @Test
     @DisplayName("Exception during obtaining tokens is not cached")
@@ -143,6 +154,83 @@ class YarnRenewableCredentialsFactoryTest {
         verify(mockFs, times(2)).getDelegationToken(any());
     }
 
+    @Test
+    @DisplayName("Used tokens are refreshed in background before expiration")
+    void testRefreshBeforeExpiration(@Mock(name = "token1") Token<TokenIdentifier> token1,
+                                     @Mock(name = "token2") Token<TokenIdentifier> token2) throws IOException {
+        when(token1.decodeIdentifier()).thenReturn(new TestDelegationTokenIdentifier(FAR_FUTURE_MAX_DATE));
+        when(token2.decodeIdentifier()).thenReturn(new TestDelegationTokenIdentifier(FAR_FUTURE_MAX_DATE));
+        doReturn(token1).doReturn(token2).when(mockFs).getDelegationToken(RM_PRINCIPAL_NAME);
+        try (Context context = new Context(mockFs, refresher)) {
+            context.doCallAt(Instant.EPOCH)
+                    .doCallAfter(Duration.ofHours(1));
+            verify(refresher).schedule(any(Runnable.class), eq(REFRESH_DELAY.toMillis()), eq(TimeUnit.MILLISECONDS));
+            context.doRefreshAt(Instant.EPOCH.plus(REFRESH_DELAY), refresher);
+            verify(refresher, timeout(1000).times(2)).schedule(any(Runnable.class), anyLong(), any());
+            context.doCallAfter(Duration.ofMinutes(45))
+                    .startValidation()
+                    .satisfies(creds -> {
+                        assertThat(creds.get(0).getAllTokens()).singleElement().isSameAs(token1);
+                        assertThat(creds.get(1).getAllTokens()).singleElement().isSameAs(token1);
+                        assertThat(creds.get(2).getAllTokens()).singleElement().isSameAs(token2);
+                    });
+        }
+        verify(mockFs, times(2)).getDelegationToken(any());
+    }
+
+    @Test
+    @DisplayName("Tokens are kept and refresh is retried after failed refresh")
+    void testFailedRefresh(@Mock(name = "token") Token<TokenIdentifier> token) throws IOException {
+        when(token.decodeIdentifier()).thenReturn(new TestDelegationTokenIdentifier(FAR_FUTURE_MAX_DATE));
+        doReturn(token).doThrow(new IOException("refresh failed")).when(mockFs).getDelegationToken(RM_PRINCIPAL_NAME);
+        try (Context context = new Context(mockFs, refresher)) {
+            context.doCallAt(Instant.EPOCH)
+                    .doCallAfter(Duration.ofHours(1))
+                    .doRefreshAt(Instant.EPOCH.plus(REFRESH_DELAY), refresher);
+            verify(refresher, timeout(1000))
+                    .schedule(any(Runnable.class), eq(Duration.ofMinutes(1).toMillis()), eq(TimeUnit.MILLISECONDS));
+            context.doCallAfter(Duration.ofMinutes(20))
+                    .startValidation()
+                    .allSatisfy(c -> assertThat(c.getAllTokens()).singleElement().isSameAs(token));
+        }
+        verify(mockFs, times(2)).getDelegationToken(any());
+    }
+
+    @Test
+    @DisplayName("Tokens obtained after failed refresh replace pending retry of refresh")
+    void testNewTokensCancelRetry(@Mock(name = "token") Token<TokenIdentifier> token,
+                                  @Mock ScheduledFuture<Object> firstRefresh,
+                                  @Mock ScheduledFuture<Object> retry) throws IOException {
+        when(token.decodeIdentifier()).thenReturn(new TestDelegationTokenIdentifier(FAR_FUTURE_MAX_DATE));
+        doReturn(token).doThrow(new IOException("refresh failed")).doReturn(token)
+                .when(mockFs).getDelegationToken(RM_PRINCIPAL_NAME);
+        doReturn(firstRefresh).doReturn(retry).doReturn(firstRefresh)
+                .when(refresher).schedule(any(Runnable.class), anyLong(), any());
+        try (Context context = new Context(mockFs, refresher)) {
+            context.doCallAt(Instant.EPOCH)
+                    .doCallAfter(Duration.ofHours(1))
+                    .doRefreshAt(Instant.EPOCH.plus(REFRESH_DELAY), refresher);
+            verify(refresher, timeout(1000).times(2)).schedule(any(Runnable.class), anyLong(), any());
+            context.doCallAt(Instant.EPOCH.plus(Duration.ofHours(12)));
+            verify(retry).cancel(false);
+            verify(refresher, times(3)).schedule(any(Runnable.class), anyLong(), any());
+        }
+        verify(mockFs, times(3)).getDelegationToken(any());
+    }
+
+    @Test
+    @DisplayName("Tokens not used since they were obtained are not refreshed")
+    void testUnusedTokensNotRefreshed(@Mock(name = "token") Token<TokenIdentifier> token) throws IOException {
+        when(token.decodeIdentifier()).thenReturn(new TestDelegationTokenIdentifier(FAR_FUTURE_MAX_DATE));
+        doReturn(token).when(mockFs).getDelegationToken(RM_PRINCIPAL_NAME);
+        try (Context context = new Context(mockFs, refresher)) {
+            context.doCallAt(Instant.EPOCH)
+                    .doRefreshAt(Instant.EPOCH.plus(REFRESH_DELAY), refresher);
+            verify(refresher, after(200).times(1)).schedule(any(Runnable.class), anyLong(), any());
+        }
+        verify(mockFs).getDelegationToken(any());
+    }
+
     private static Configuration createConfiguration() {
         Configuration configuration = DelegateTestFs.createConfiguration(new Configuration());
         configuration.set(YarnConfiguration.RM_PRINCIPAL, RM_PRINCIPAL_NAME);
@@ -163,12 +251,18 @@ class YarnRenewableCredentialsFactoryTest {
     private class Context implements Closeable {
         private final String host = UUID.randomUUID().toString();
         private final DelegateClock clock = DelegateClock.create(Clock.fixed(Instant.MIN, ZoneOffset.UTC));
-        private final CredentialsFactory instance =
-                YarnRenewableCredentialsFactory.create(() -> ugi, delegateConf, clock);
+        private final CredentialsFactory instance;
         private final Closeable delegateFsCloseToken;
         private final List<Credentials> collectedCredentials = new ArrayList<>();
 
         private Context(FileSystem fs) {
+            instance = YarnRenewableCredentialsFactory.create(() -> ugi, delegateConf, clock);
+            delegateFsCloseToken = DelegateTestFs.registerDelegate(host, fs);
+        }
+
+        private Context(FileSystem fs, ScheduledExecutorService refresher) {
+            instance = YarnRenewableCredentialsFactory.create(() -> ugi, delegateConf, null, clock,
+                    YarnRenewableCredentialsFactory.RECOMMENDED_REFRESH_MARGIN, refresher);
             delegateFsCloseToken = DelegateTestFs.registerDelegate(host, fs);
         }
 
@@ -190,6 +284,17 @@ class YarnRenewableCredentialsFactoryTest {
             return assertThat(collectedCredentials);
         }
 
+        /**
+         * Runs last refresh scheduled by factory at given time.
+         */
+        public Context doRefreshAt(Instant refreshTime, ScheduledExecutorService refresher) {
+            setTime(refreshTime);
+            ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+            verify(refresher, atLeastOnce()).schedule(refresh.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+            refresh.getValue().run();
+            return this;
+        }
+
         private void setTime(Instant time) {
             clock.setInstant(time);
         }
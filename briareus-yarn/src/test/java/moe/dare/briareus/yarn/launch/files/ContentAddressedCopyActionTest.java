@@ -0,0 +1,113 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class ContentAddressedCopyActionTest {
+    private static final byte[] CONTENT = "content".getBytes(StandardCharsets.UTF_8);
+
+    private final Configuration conf = new Configuration();
+    private final UserGroupInformation user = UserGroupInformation.createRemoteUser(System.getProperty("user.name"));
+    private final FileSystemPool fileSystems = FileSystemPool.create(conf, Duration.ofMinutes(1));
+    private final CreateTrackingFileSystem fs = new CreateTrackingFileSystem();
+    private ContentStore store;
+
+    @TempDir
+    java.nio.file.Path temp;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fs.initialize(URI.create("file:///"), conf);
+        store = ContentStore.openPrivate(() -> user, conf, new Path(temp.resolve("store").toUri()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileSystems.close();
+        fs.close();
+    }
+
+    @Test
+    @DisplayName("Content found in store is not uploaded again")
+    void testStoredContentNotUploaded() throws IOException {
+        // given
+        LocalResource first = copyAction("session1").run(fs);
+        // when
+        LocalResource second = copyAction("session2").run(fs);
+        // then
+        assertThat(fs.created).hasSize(1);
+        assertThat(second.getResource()).isEqualTo(first.getResource());
+        assertThat(second.getSize()).isEqualTo((long) CONTENT.length);
+        assertThat(fs.exists(new Path(temp.resolve("session2").toUri()))).isFalse();
+    }
+
+    @Test
+    @DisplayName("Uploaded content is verified against digest computed before upload")
+    void testChangedContentRejected() {
+        // given
+        byte[][] content = {CONTENT};
+        FileSource source = () -> {
+            byte[] current = content[0];
+            content[0] = "changed".getBytes(StandardCharsets.UTF_8);
+            return new ByteArrayInputStream(current);
+        };
+        // when
+        Throwable error = catchThrowable(() -> copyAction("session", source).run(fs));
+        // then
+        assertThat(error).isInstanceOf(IOException.class).hasMessageContaining("changed during upload");
+        assertThat(temp.resolve("session")).doesNotExist();
+    }
+
+    private ContentAddressedCopyAction copyAction(String session) {
+        return copyAction(session, () -> new ByteArrayInputStream(CONTENT));
+    }
+
+    private ContentAddressedCopyAction copyAction(String session, FileSource source) {
+        TransferSettings settings = new TransferSettings(null, null, RetryPolicy.noRetries(), fileSystems);
+        EntryUploadTracker tracker = new EntryUploadTracker(FileEntry.copy(source, "file"), new UploadListener() {
+        });
+        CopyAction copyAction = new CopyAction(source, new Path(temp.resolve(session).toUri()), LocalResourceType.FILE,
+                LocalResourceVisibility.APPLICATION, null, settings, tracker);
+        return new ContentAddressedCopyAction(copyAction, store, ".txt");
+    }
+
+    private static class CreateTrackingFileSystem extends LocalFileSystem {
+        private final List<Path> created = new CopyOnWriteArrayList<>();
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, EnumSet<CreateFlag> flags, int bufferSize,
+                                         short replication, long blockSize, Progressable progress) throws IOException {
+            created.add(f);
+            return super.create(f, permission, flags, bufferSize, replication, blockSize, progress);
+        }
+    }
+}
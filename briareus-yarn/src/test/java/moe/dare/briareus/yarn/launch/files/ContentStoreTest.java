@@ -0,0 +1,121 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentStoreTest {
+    private final Configuration conf = new Configuration();
+    private final UserGroupInformation user = UserGroupInformation.createRemoteUser(System.getProperty("user.name"));
+    private FileSystem fs;
+
+    @TempDir
+    java.nio.file.Path temp;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fs = FileSystem.getLocal(conf);
+    }
+
+    @Test
+    @DisplayName("Uploaded file is moved into store and found by lookup")
+    void testStore() throws IOException {
+        // given
+        ContentStore store = openStore();
+        Path uploaded = upload("uploaded", "content");
+        // when
+        FileStatus stored = store.store(fs, uploaded, "digest.txt", 7);
+        Optional<FileStatus> found = store.lookup(fs, "digest.txt", 7);
+        // then
+        assertThat(stored.getPath().getName()).isEqualTo("digest.txt");
+        assertThat(stored.getLen()).isEqualTo(7L);
+        assertThat(fs.exists(uploaded)).isFalse();
+        assertThat(found.isPresent()).isTrue();
+        assertThat(found.get().getPath()).isEqualTo(stored.getPath());
+    }
+
+    @Test
+    @DisplayName("Files stored before open are loaded into manifest")
+    void testManifestLoadedOnOpen() throws IOException {
+        // given
+        ContentStore previous = openStore();
+        previous.store(fs, upload("uploaded", "content"), "digest.txt", 7);
+        // when
+        ContentStore store = openStore();
+        // then
+        assertThat(store.lookup(fs, "digest.txt", 7).isPresent()).isTrue();
+        assertThat(store.lookup(fs, "unknown.txt", 7).isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("File deleted from store is not found by manifest")
+    void testDeletedFileVerified() throws IOException {
+        // given
+        ContentStore store = openStore();
+        FileStatus stored = store.store(fs, upload("uploaded", "content"), "digest.txt", 7);
+        fs.delete(stored.getPath(), false);
+        // when
+        Optional<FileStatus> found = store.lookup(fs, "digest.txt", 7);
+        // then
+        assertThat(found.isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Stored file of unexpected length is deleted and replaced")
+    void testBrokenFileReplaced() throws IOException {
+        // given
+        ContentStore store = openStore();
+        FileStatus stored = store.store(fs, upload("broken", "cont"), "digest.txt", 4);
+        // when
+        Optional<FileStatus> found = store.lookup(fs, "digest.txt", 7);
+        // then
+        assertThat(found.isPresent()).isFalse();
+        assertThat(fs.exists(stored.getPath())).isFalse();
+        // when
+        FileStatus replaced = store.store(fs, upload("uploaded", "content"), "digest.txt", 7);
+        // then
+        assertThat(replaced.getLen()).isEqualTo(7L);
+        assertThat(store.lookup(fs, "digest.txt", 7).isPresent()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Duplicate upload is discarded")
+    void testDiscard() throws IOException {
+        // given
+        ContentStore store = openStore();
+        Path uploaded = upload("uploaded", "content");
+        // when
+        store.discard(fs, uploaded);
+        // then
+        assertThat(fs.exists(uploaded)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Digest is written as lowercase hex")
+    void testHex() {
+        assertThat(ContentStore.toHex(new byte[]{0x00, 0x0f, (byte) 0xa5, (byte) 0xff})).isEqualTo("000fa5ff");
+    }
+
+    private ContentStore openStore() {
+        return ContentStore.openPrivate(() -> user, conf, new Path(temp.resolve("store").toUri()));
+    }
+
+    private Path upload(String name, String content) throws IOException {
+        java.nio.file.Path file = temp.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return fs.makeQualified(new Path(file.toUri()));
+    }
+}
@@ -0,0 +1,135 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSource;
+import moe.dare.briareus.api.FileSources;
+import moe.dare.briareus.yarn.fs.FileSystemPool;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonPathCapabilities;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyShort;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class CopyActionTest {
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    private final Path target = new Path("hdfs://test/upload/target");
+    private final Path segment1 = new Path("hdfs://test/upload/target.segment1");
+    private final Path segment2 = new Path("hdfs://test/upload/target.segment2");
+    private final Map<Path, ByteArrayOutputStream> files = new ConcurrentHashMap<>();
+    private final FileSystemPool fileSystems = FileSystemPool.create(new Configuration(), Duration.ofMinutes(1));
+
+    @Mock
+    FileSystem fs;
+    @TempDir
+    java.nio.file.Path temp;
+
+    @AfterEach
+    void tearDown() {
+        fileSystems.close();
+    }
+
+    @Test
+    @DisplayName("Failed segment is rewritten and upload resumes without rewriting previous segments")
+    void testSegmentResumed() throws IOException {
+        // given
+        AtomicInteger segment1Attempts = new AtomicInteger();
+        mockFileSystem(path -> path.equals(segment1) && segment1Attempts.incrementAndGet() == 1);
+        CopyAction action = copyAction(() -> new ByteArrayInputStream(CONTENT), null);
+        CopyAction.ContentDigest digest = action.newDigest(fs, target);
+        // when
+        long written = action.write(fs, target, digest);
+        // then
+        assertThat(written).isEqualTo(CONTENT.length);
+        assertThat(files.keySet()).containsExactly(target);
+        assertThat(files.get(target).toByteArray()).isEqualTo(CONTENT);
+        assertThat(digest.checksum()).isEqualTo(ContentStore.toHex(ContentStore.newDigest().digest(CONTENT)));
+        assertThat(segment1Attempts.get()).isEqualTo(2);
+        verify(fs, times(1)).create(eq(target), any(), any(), anyInt(), anyShort(), anyLong(), any());
+        verify(fs, times(1)).create(eq(segment2), any(), any(), anyInt(), anyShort(), anyLong(), any());
+        verify(fs).delete(segment1, false);
+    }
+
+    @Test
+    @DisplayName("Parts of multipart upload are digested while written and match digest of source")
+    void testMultipartDigest() throws IOException {
+        // given
+        mockFileSystem(path -> false);
+        java.nio.file.Path source = Files.write(temp.resolve("source"), CONTENT);
+        CopyAction action = copyAction(FileSources.fileSource(source), new MultipartUpload(4, Runnable::run));
+        CopyAction.ContentDigest expected = action.newDigest(fs, target);
+        action.digest(expected, 3);
+        CopyAction.ContentDigest uploaded = action.newDigest(fs, target);
+        // when
+        long written = action.write(fs, target, uploaded);
+        // then
+        assertThat(written).isEqualTo(CONTENT.length);
+        assertThat(files.get(target).toByteArray()).isEqualTo(CONTENT);
+        assertThat(uploaded.matches(expected)).isTrue();
+        assertThat(expected.checksum()).isEqualTo(ContentStore.toHex(ContentStore.newDigest().digest(CONTENT)));
+    }
+
+    private void mockFileSystem(Predicate<Path> failCreate) throws IOException {
+        doReturn(new Configuration()).when(fs).getConf();
+        doReturn((short) 3).when(fs).getDefaultReplication(target);
+        doReturn(4L).when(fs).getDefaultBlockSize(target);
+        doReturn(true).when(fs).hasPathCapability(target, CommonPathCapabilities.FS_CONCAT);
+        doAnswer(invocation -> {
+            Path path = invocation.getArgument(0);
+            if (failCreate.test(path)) {
+                throw new IOException("test failure");
+            }
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            files.put(path, file);
+            return new FSDataOutputStream(file, null);
+        }).when(fs).create(any(Path.class), any(), any(), anyInt(), anyShort(), anyLong(), any());
+        doAnswer(invocation -> {
+            Path[] sources = invocation.getArgument(1);
+            ByteArrayOutputStream targetFile = files.get(invocation.<Path>getArgument(0));
+            for (Path source : sources) {
+                targetFile.write(files.remove(source).toByteArray());
+            }
+            return null;
+        }).when(fs).concat(eq(target), any());
+    }
+
+    private CopyAction copyAction(FileSource source, MultipartUpload multipartUpload) {
+        TransferSettings settings = new TransferSettings(multipartUpload, null, new RetryPolicy(2, 0, 0), fileSystems);
+        EntryUploadTracker tracker = new EntryUploadTracker(FileEntry.copy(source, "target"), new UploadListener() {
+        });
+        return new CopyAction(source, target, LocalResourceType.FILE, LocalResourceVisibility.APPLICATION,
+                null, settings, tracker);
+    }
+}
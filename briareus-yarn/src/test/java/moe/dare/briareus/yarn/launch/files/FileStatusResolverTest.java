@@ -0,0 +1,75 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(MockitoExtension.class)
+class FileStatusResolverTest {
+    private final Path directory = new Path("hdfs://test/dir");
+    private final Path a = new Path("hdfs://test/dir/a");
+    private final Path b = new Path("hdfs://test/dir/b");
+    private final Path c = new Path("hdfs://test/dir/c");
+    private final FileStatusResolver resolver = new FileStatusResolver(0);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Mock
+    FileSystem fs;
+
+    @Test
+    @DisplayName("Files of one directory are resolved with single listing")
+    void testListing() throws IOException {
+        // given
+        doReturn(new FileStatus[]{status(a), status(b), status(c)}).when(fs).listStatus(directory);
+        // when
+        Map<Path, FileStatus> statuses = resolver.resolve(fs, Arrays.asList(a, b, c), requests);
+        // then
+        assertThat(statuses).containsOnlyKeys(a, b, c);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Files not matched by listing are resolved separately")
+    void testUnmatchedResolvedSeparately() throws IOException {
+        // given
+        FileStatus differentlyQualified = status(new Path("hdfs://test:8020/dir/c"));
+        doReturn(new FileStatus[]{status(a), status(b), differentlyQualified}).when(fs).listStatus(directory);
+        doReturn(status(c)).when(fs).getFileStatus(c);
+        // when
+        Map<Path, FileStatus> statuses = resolver.resolve(fs, Arrays.asList(a, b, c), requests);
+        // then
+        assertThat(statuses).containsOnlyKeys(a, b, c);
+        assertThat(requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("File missing from listing and file system is not resolved")
+    void testMissingFile() throws IOException {
+        // given
+        doReturn(new FileStatus[]{status(a), status(b)}).when(fs).listStatus(directory);
+        doThrow(new FileNotFoundException("test")).when(fs).getFileStatus(c);
+        // when
+        Map<Path, FileStatus> statuses = resolver.resolve(fs, Arrays.asList(a, b, c), requests);
+        // then
+        assertThat(statuses).containsOnlyKeys(a, b);
+    }
+
+    private static FileStatus status(Path path) {
+        return new FileStatus(1, false, 3, 128, 100, path);
+    }
+}
@@ -0,0 +1,68 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class MultipartUploadTest {
+    private final Path target = new Path("hdfs://test/upload/target");
+    private final Path part1 = new Path("hdfs://test/upload/target.part1");
+    private final Path part2 = new Path("hdfs://test/upload/target.part2");
+    private final MultipartUpload upload = new MultipartUpload(4, Runnable::run);
+    private final List<String> written = new ArrayList<>();
+
+    @Mock
+    FileSystem fs;
+
+    @Test
+    @DisplayName("Part size is rounded up to multiple of block size")
+    void testPartSize() {
+        assertThat(upload.partSize(0)).isEqualTo(4L);
+        assertThat(upload.partSize(3)).isEqualTo(6L);
+        assertThat(upload.partSize(4)).isEqualTo(4L);
+    }
+
+    @Test
+    @DisplayName("File is written in ranges to parts which are concatenated into target")
+    void testUpload() throws IOException {
+        // when
+        upload.upload(fs, target, 10, 4, (part, offset, length) -> written.add(part + ":" + offset + ":" + length));
+        // then
+        assertThat(written).containsExactlyInAnyOrder(target + ":0:4", part1 + ":4:4", part2 + ":8:2");
+        verify(fs).concat(target, new Path[]{part1, part2});
+    }
+
+    @Test
+    @DisplayName("Failure of any part deletes all parts without concat")
+    void testPartFailed() throws IOException {
+        // when
+        Throwable error = catchThrowable(() -> upload.upload(fs, target, 10, 4, (part, offset, length) -> {
+            if (part.equals(part1)) {
+                throw new IOException("test failure");
+            }
+            written.add(part.toString());
+        }));
+        // then
+        assertThat(error).isInstanceOf(IOException.class).hasMessageContaining("test failure");
+        for (Path part : Arrays.asList(target, part1, part2)) {
+            verify(fs).delete(part, false);
+        }
+        verify(fs, never()).concat(any(), any());
+    }
+}
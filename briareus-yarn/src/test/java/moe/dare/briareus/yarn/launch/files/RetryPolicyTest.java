@@ -0,0 +1,80 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryPolicyTest {
+    @Test
+    @DisplayName("Backoff grows exponentially with jitter and is bounded by max backoff")
+    void testBackoff() {
+        // given
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            // then
+            assertThat(policy.backoffMillis(0)).isGreaterThanOrEqualTo(50L).isLessThanOrEqualTo(100L);
+            assertThat(policy.backoffMillis(1)).isGreaterThanOrEqualTo(100L).isLessThanOrEqualTo(200L);
+            assertThat(policy.backoffMillis(3)).isGreaterThanOrEqualTo(400L).isLessThanOrEqualTo(800L);
+            assertThat(policy.backoffMillis(4)).isGreaterThanOrEqualTo(500L).isLessThanOrEqualTo(1000L);
+            assertThat(policy.backoffMillis(100)).isGreaterThanOrEqualTo(500L).isLessThanOrEqualTo(1000L);
+        }
+    }
+
+    @Test
+    @DisplayName("Failed attempts are retried with handler called before each retry")
+    void testRetried() throws IOException {
+        // given
+        RetryPolicy policy = new RetryPolicy(2, 0, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        List<Integer> retries = new ArrayList<>();
+        // when
+        String result = policy.run("test", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("attempt " + attempts.get());
+            }
+            return "done";
+        }, (retry, e) -> retries.add(retry));
+        // then
+        assertThat(result).isEqualTo("done");
+        assertThat(retries).containsExactly(1, 2);
+    }
+
+    @Test
+    @DisplayName("Failure of last attempt is thrown")
+    void testRetriesExhausted() {
+        // given
+        RetryPolicy policy = new RetryPolicy(2, 0, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        // when
+        assertThatThrownBy(() -> policy.run("test", () -> {
+            throw new IOException("attempt " + attempts.incrementAndGet());
+        }, (retry, e) -> {
+        })).hasMessageContaining("attempt 3");
+        // then
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Missing files are not retried")
+    void testNotRetryable() {
+        // given
+        RetryPolicy policy = new RetryPolicy(2, 0, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        // when
+        assertThatThrownBy(() -> policy.run("test", () -> {
+            attempts.incrementAndGet();
+            throw new FileNotFoundException("missing");
+        }, (retry, e) -> {
+        })).isInstanceOf(FileNotFoundException.class);
+        // then
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+}
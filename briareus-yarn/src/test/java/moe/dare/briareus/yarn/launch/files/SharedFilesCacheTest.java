@@ -0,0 +1,273 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import moe.dare.briareus.api.FileEntry;
+import moe.dare.briareus.api.FileSources;
+import moe.dare.briareus.yarn.HdfsFileSource;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.URL;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedFilesCacheTest {
+    private static final long TTL = 1000;
+    private static final long REVALIDATION = 100;
+    private static final org.apache.hadoop.fs.Path REMOTE_PATH = new org.apache.hadoop.fs.Path("hdfs://test/remote.txt");
+
+    private final Map<StagedFile, AtomicInteger> references = new IdentityHashMap<>();
+    private long now;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Least recently used file is evicted and released on overflow")
+    void testLeastRecentlyUsedEvicted() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(2, 0, 0, () -> now);
+        SharedFileKey a = key("a.txt");
+        SharedFileKey b = key("b.txt");
+        TrackedFile fileA = put(cache, a);
+        TrackedFile fileB = put(cache, b);
+        assertThat(put(cache, a).created).isFalse();
+        // when
+        put(cache, key("c.txt"));
+        // then
+        assertThat(fileB.references()).as("references of evicted file").isEqualTo(1);
+        assertThat(fileA.references()).as("references of used file").isEqualTo(3);
+        assertThat(put(cache, b).created).isTrue();
+    }
+
+    @Test
+    @DisplayName("Expired files are evicted and released by scheduled eviction")
+    void testExpiredEvicted() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, TTL, 0, () -> now);
+        SharedFileKey a = key("a.txt");
+        TrackedFile file = put(cache, a);
+        now = TTL;
+        cache.evictExpired();
+        assertThat(file.references()).as("references before expiration").isEqualTo(2);
+        // when
+        now = TTL + 1;
+        cache.evictExpired();
+        // then
+        assertThat(file.references()).as("references after expiration").isEqualTo(1);
+        assertThat(put(cache, a).created).isTrue();
+    }
+
+    @Test
+    @DisplayName("Expired file is not reused on access")
+    void testExpiredNotReused() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, TTL, 0, () -> now);
+        SharedFileKey a = key("a.txt");
+        TrackedFile file = put(cache, a);
+        // when
+        now = TTL + 1;
+        TrackedFile next = put(cache, a);
+        // then
+        assertThat(next.created).isTrue();
+        assertThat(file.references()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Upload of changed local file is evicted on revalidation")
+    void testChangedFileEvicted() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, 0, REVALIDATION, () -> now);
+        SharedFileKey a = key("a.txt");
+        TrackedFile file = put(cache, a);
+        write("a.txt", "changed content");
+        // when
+        now = REVALIDATION;
+        TrackedFile beforeRevalidation = put(cache, a);
+        now = REVALIDATION + 1;
+        TrackedFile afterRevalidation = put(cache, a);
+        // then
+        assertThat(beforeRevalidation.created).isFalse();
+        assertThat(afterRevalidation.created).isTrue();
+        assertThat(file.references()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Upload of unchanged local file is reused after revalidation")
+    void testUnchangedFileReused() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, 0, REVALIDATION, () -> now);
+        SharedFileKey a = key("a.txt");
+        put(cache, a);
+        // when
+        now = 10 * REVALIDATION;
+        TrackedFile reused = put(cache, a);
+        // then
+        assertThat(reused.created).isFalse();
+    }
+
+    @Test
+    @DisplayName("Modification time of local file is revalidated")
+    void testTouchedFileEvicted() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, 0, REVALIDATION, () -> now);
+        SharedFileKey a = key("a.txt");
+        put(cache, a);
+        Path file = dir.resolve("a.txt");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10_000));
+        // when
+        now = REVALIDATION + 1;
+        TrackedFile next = put(cache, a);
+        // then
+        assertThat(next.created).isTrue();
+    }
+
+    @Test
+    @DisplayName("Remote resource is resolved again only if status of remote file changed")
+    void testRemoteResourceRevalidated() {
+        // given
+        FileStatus[] status = {remoteStatus(7, 100)};
+        AtomicInteger reads = new AtomicInteger();
+        SharedFilesCache cache = new SharedFilesCache(10, 0, REVALIDATION, key -> {
+            reads.incrementAndGet();
+            return Optional.of(SharedFileKey.Version.of(status[0]));
+        }, () -> now);
+        SharedFileKey remote = remoteKey(HdfsFileSource.applicationScopeSource(REMOTE_PATH, new Configuration()));
+        TrackedFile file = put(cache, remote);
+        file.file.resource().complete(LocalResource.newInstance(URL.fromPath(REMOTE_PATH), LocalResourceType.FILE,
+                LocalResourceVisibility.APPLICATION, 7, 100, null));
+        // when
+        now = REVALIDATION + 1;
+        TrackedFile unchanged = put(cache, remote);
+        status[0] = remoteStatus(7, 200);
+        now = 2 * REVALIDATION + 2;
+        TrackedFile republished = put(cache, remote);
+        // then
+        assertThat(unchanged.created).isFalse();
+        assertThat(republished.created).isTrue();
+        assertThat(reads.get()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Unresolved remote resource is not revalidated")
+    void testUnresolvedRemoteResourceNotRevalidated() {
+        // given
+        AtomicInteger reads = new AtomicInteger();
+        SharedFilesCache cache = new SharedFilesCache(10, 0, REVALIDATION, key -> {
+            reads.incrementAndGet();
+            return Optional.of(SharedFileKey.Version.MISSING);
+        }, () -> now);
+        SharedFileKey remote = remoteKey(HdfsFileSource.applicationScopeSource(REMOTE_PATH, new Configuration()));
+        put(cache, remote);
+        // when
+        now = REVALIDATION + 1;
+        TrackedFile next = put(cache, remote);
+        // then
+        assertThat(next.created).isFalse();
+        assertThat(reads.get()).isZero();
+    }
+
+    @Test
+    @DisplayName("File and directory sources of the same path have different keys")
+    void testDirectoryFlagInKey() {
+        // given
+        Configuration conf = new Configuration();
+        SharedFileKey file = remoteKey(HdfsFileSource.applicationScopeSource(REMOTE_PATH, conf));
+        SharedFileKey sameFile = remoteKey(HdfsFileSource.applicationScopeSource(REMOTE_PATH, conf));
+        SharedFileKey directory = remoteKey(HdfsFileSource.directory(REMOTE_PATH, conf, LocalResourceVisibility.APPLICATION));
+        // then
+        assertThat(sameFile).isEqualTo(file);
+        assertThat(directory).isNotEqualTo(file);
+    }
+
+    @Test
+    @DisplayName("Failed upload is not reused")
+    void testFailedNotReused() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, 0, 0, () -> now);
+        SharedFileKey a = key("a.txt");
+        CompletableFuture<LocalResource> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("test"));
+        cache.retainOrPut(a, () -> new StagedFile(failed, null, path -> {
+        }));
+        // when
+        TrackedFile next = put(cache, a);
+        // then
+        assertThat(next.created).isTrue();
+    }
+
+    @Test
+    @DisplayName("Clear releases all cached files")
+    void testClear() throws IOException {
+        // given
+        SharedFilesCache cache = new SharedFilesCache(10, 0, 0, () -> now);
+        TrackedFile a = put(cache, key("a.txt"));
+        TrackedFile b = put(cache, key("b.txt"));
+        // when
+        cache.clear();
+        // then
+        assertThat(a.references()).isEqualTo(1);
+        assertThat(b.references()).isEqualTo(1);
+    }
+
+    private SharedFileKey key(String name) throws IOException {
+        Path file = dir.resolve(name);
+        if (!Files.exists(file)) {
+            write(name, name);
+        }
+        return new SharedFileKey(FileEntry.copy(FileSources.fileSource(file), name), LocalResourceVisibility.APPLICATION, null);
+    }
+
+    private static SharedFileKey remoteKey(HdfsFileSource source) {
+        return new SharedFileKey(FileEntry.copy(source, "remote"), LocalResourceVisibility.APPLICATION, REMOTE_PATH);
+    }
+
+    private static FileStatus remoteStatus(long length, long modificationTime) {
+        return new FileStatus(length, false, 3, 128, modificationTime, REMOTE_PATH);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private TrackedFile put(SharedFilesCache cache, SharedFileKey key) {
+        StagedFile created = new StagedFile(new CompletableFuture<>(), null, path -> {
+        });
+        StagedFile file = cache.retainOrPut(key, () -> created);
+        if (file == created) {
+            AtomicInteger references = new AtomicInteger();
+            file.listenReferences(references::set);
+            this.references.put(file, references);
+        }
+        return new TrackedFile(file, file == created);
+    }
+
+    private final class TrackedFile {
+        private final StagedFile file;
+        private final boolean created;
+
+        private TrackedFile(StagedFile file, boolean created) {
+            this.file = file;
+            this.created = created;
+        }
+
+        private int references() {
+            return references.get(file).get();
+        }
+    }
+}
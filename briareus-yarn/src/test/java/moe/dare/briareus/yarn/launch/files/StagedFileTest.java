@@ -0,0 +1,84 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StagedFileTest {
+    private final Path ownedPath = new Path("/upload/file");
+    private final List<Path> deleted = new ArrayList<>();
+    private final CompletableFuture<LocalResource> resource = new CompletableFuture<>();
+    private final StagedFile file = new StagedFile(resource, ownedPath, deleted::add);
+
+    @Test
+    @DisplayName("Owned file is deleted after last release")
+    void testDeletedAfterLastRelease() {
+        // given
+        resource.complete(null);
+        file.retain();
+        // when
+        file.release();
+        // then
+        assertThat(deleted).isEmpty();
+        // when
+        file.release();
+        // then
+        assertThat(deleted).containsExactly(ownedPath);
+    }
+
+    @Test
+    @DisplayName("Owned file is deleted only after upload completes")
+    void testDeletedAfterUpload() {
+        // when
+        file.release();
+        // then
+        assertThat(deleted).isEmpty();
+        // when
+        resource.completeExceptionally(new IllegalStateException("test"));
+        // then
+        assertThat(deleted).containsExactly(ownedPath);
+    }
+
+    @Test
+    @DisplayName("File not owned by tool is not deleted")
+    void testNotOwnedFile() {
+        // given
+        StagedFile notOwned = new StagedFile(CompletableFuture.completedFuture(null), null, deleted::add);
+        // when
+        notOwned.release();
+        // then
+        assertThat(deleted).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Listener receives reference count changes")
+    void testListener() {
+        // given
+        List<Integer> counts = new ArrayList<>();
+        // when
+        file.listenReferences(counts::add);
+        file.retain();
+        file.release();
+        file.release();
+        // then
+        assertThat(counts).containsExactly(1, 2, 1, 0);
+    }
+
+    @Test
+    @DisplayName("Released file can't be retained or released again")
+    void testReleasedFile() {
+        // given
+        file.release();
+        // then
+        assertThatThrownBy(file::retain).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(file::release).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,67 @@
+package moe.dare.briareus.yarn.launch.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadSchedulerTest {
+    private final Queue<Runnable> executorQueue = new ArrayDeque<>();
+    private final UploadScheduler scheduler = new UploadScheduler(executorQueue::add, 1);
+
+    @Test
+    void concurrentStreamsAreLimited() {
+        // when
+        CompletableFuture<String> first = scheduler.submit(0, 10, () -> "first");
+        CompletableFuture<String> second = scheduler.submit(0, 10, () -> "second");
+        // then
+        assertThat(executorQueue).hasSize(1);
+        // when
+        executorQueue.poll().run();
+        // then
+        assertThat(first).isCompletedWithValue("first");
+        assertThat(second).isNotDone();
+        assertThat(executorQueue).hasSize(1);
+        // when
+        executorQueue.poll().run();
+        // then
+        assertThat(second).isCompletedWithValue("second");
+        assertThat(executorQueue).isEmpty();
+    }
+
+    @Test
+    void olderCallsAndSmallerFilesGoFirst() {
+        // given
+        List<String> order = new ArrayList<>();
+        scheduler.submit(0, 1, () -> order.add("blocker"));
+        // when
+        scheduler.submit(2, 1, () -> order.add("newer call"));
+        scheduler.submit(1, Long.MAX_VALUE, () -> order.add("older call unknown size"));
+        scheduler.submit(1, 100, () -> order.add("older call large"));
+        scheduler.submit(1, 10, () -> order.add("older call small"));
+        scheduler.partExecutor().execute(() -> order.add("part"));
+        while (!executorQueue.isEmpty()) {
+            executorQueue.poll().run();
+        }
+        // then
+        assertThat(order).containsExactly("blocker", "part", "older call small", "older call large",
+                "older call unknown size", "newer call");
+    }
+
+    @Test
+    void failedActionCompletesFutureExceptionally() {
+        // when
+        CompletableFuture<String> future = scheduler.submit(0, 0, () -> {
+            throw new IllegalStateException("test");
+        });
+        executorQueue.poll().run();
+        // then
+        assertThat(future).isCompletedExceptionally();
+        assertThat(executorQueue).isEmpty();
+    }
+}